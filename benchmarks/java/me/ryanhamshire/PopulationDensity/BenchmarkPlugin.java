@@ -0,0 +1,118 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+//stands in for a running server, so region scans can run inside a benchmark
+//a JavaPlugin can only be constructed by a plugin class loader, so the plugin instance is allocated without running its constructor,
+//and only the settings a scan reads are filled in
+//the server and world are proxies which answer the few questions a scan asks, and tasks handed to the scheduler are simply dropped
+class BenchmarkPlugin
+{
+    static final int WORLD_HEIGHT = 256;
+
+    static synchronized PopulationDensity install() throws Exception
+    {
+        if (PopulationDensity.instance != null) return PopulationDensity.instance;
+
+        Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        Object unsafe = unsafeField.get(null);
+        Method allocateInstance = unsafe.getClass().getMethod("allocateInstance", Class.class);
+        PopulationDensity plugin = (PopulationDensity)allocateInstance.invoke(unsafe, PopulationDensity.class);
+
+        //the defaults from the config file
+        plugin.minimumRegionPostY = 62;
+        plugin.densityRatio = 1.0;
+        plugin.woodMinimum = 200;
+        plugin.resourceMinimum = 200;
+        plugin.config_scanSeedFromSurface = false;
+        plugin.config_scanOffHeapVisitedSet = false;
+        plugin.config_scanParallelism = 1;
+
+        Field serverField = JavaPlugin.class.getDeclaredField("server");
+        serverField.setAccessible(true);
+        serverField.set(plugin, createProxy(Server.class, new InvocationHandler()
+        {
+            private final BukkitScheduler scheduler = createProxy(BukkitScheduler.class, null);
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getScheduler")) return this.scheduler;
+                return getDefault(method);
+            }
+        }));
+
+        PopulationDensity.ManagedWorld = createProxy(World.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getMaxHeight")) return WORLD_HEIGHT;
+                if (method.getName().equals("getName")) return "benchmark";
+                return getDefault(method);
+            }
+        });
+
+        PopulationDensity.instance = plugin;
+        return plugin;
+    }
+
+    //a proxy which returns zero, false or null for everything, unless the handler says otherwise
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler)
+    {
+        if (handler == null)
+        {
+            handler = new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return getDefault(method);
+                }
+            };
+        }
+
+        return type.cast(Proxy.newProxyInstance(BenchmarkPlugin.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object getDefault(Method method)
+    {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short)0;
+        if (type == byte.class) return (byte)0;
+        if (type == char.class) return (char)0;
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+
+//checks that the flood fill and the chunk by chunk scan (see ParallelRegionScanner) count exactly the same blocks, since a scan may use either one
+//ScanRegionBenchmark checks its own terrain before measuring the chunk by chunk scan, and every terrain in both seed modes can be checked on its own with
+//java -cp target/PopulationDensity-benchmarks.jar me.ryanhamshire.PopulationDensity.ScanConsistencyCheck
+public class ScanConsistencyCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        PopulationDensity plugin = BenchmarkPlugin.install();
+        for (boolean seedFromSurface : new boolean[]{false, true})
+        {
+            plugin.config_scanSeedFromSurface = seedFromSurface;
+            for (SyntheticTerrain terrain : SyntheticTerrain.values())
+            {
+                ChunkSnapshot[][] chunks = terrain.generate(ScanRegionBenchmark.REGION_CHUNKS, BenchmarkPlugin.WORLD_HEIGHT, 42);
+                String description = terrain.name() + (seedFromSurface ? " seeded from the surface" : " from a single start position");
+                verify(description, chunks, 4);
+                System.out.println(description + ": same counts");
+            }
+        }
+    }
+
+    //throws if the two ways of counting disagree about any category, using the plugin's current scan settings
+    static void verify(String description, ChunkSnapshot[][] chunks, int parallelism) throws InterruptedException
+    {
+        ScanRegionTask task = new ScanRegionTask(chunks, false);
+        int[] floodFillCounts = task.countByFloodFill();
+        int[] chunkByChunkCounts = task.countChunkByChunk(parallelism);
+
+        StringBuilder differences = new StringBuilder();
+        for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+        {
+            if (floodFillCounts[category] == chunkByChunkCounts[category]) continue;
+
+            if (differences.length() > 0) differences.append(", ");
+            differences.append("category ").append(category).append(": ").append(floodFillCounts[category]).append(" by flood fill, ").append(chunkByChunkCounts[category]).append(" chunk by chunk");
+        }
+
+        if (differences.length() > 0)
+        {
+            throw new IllegalStateException("The flood fill and the chunk by chunk scan counted " + description + " differently (" + differences.toString() + ")");
+        }
+    }
+}
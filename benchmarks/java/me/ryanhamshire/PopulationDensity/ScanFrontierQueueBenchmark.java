@@ -0,0 +1,108 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//queueing and dequeueing flood fill positions
+//one operation is one position passing through the queue
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanFrontierQueueBenchmark
+{
+    private static final int POSITIONS = 1 << 16;
+
+    private ScanFrontierQueue queue;
+
+    @Setup
+    public void setUp()
+    {
+        this.queue = new ScanFrontierQueue(16);
+    }
+
+    //a queue which has already grown to size, as in the middle of a scan
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int fillAndDrain()
+    {
+        ScanFrontierQueue queue = this.queue;
+        for (int i = 0; i < POSITIONS; i++)
+        {
+            queue.add(i);
+        }
+
+        int sum = 0;
+        while (!queue.isEmpty())
+        {
+            sum += queue.remove();
+        }
+
+        return sum;
+    }
+
+    //the flood fill's pattern: take one position, queue a few of its neighbours, so the queue wraps around as it goes
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int interleaved()
+    {
+        ScanFrontierQueue queue = this.queue;
+        queue.add(0);
+
+        int sum = 0;
+        for (int i = 1; i < POSITIONS; i += 2)
+        {
+            sum += queue.remove();
+            queue.add(i);
+            queue.add(i + 1);
+        }
+
+        queue.clear();
+        return sum;
+    }
+
+    //a new queue starting from the minimum capacity, so the cost of growing it is included
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int growFromEmpty()
+    {
+        ScanFrontierQueue queue = new ScanFrontierQueue(16);
+        for (int i = 0; i < POSITIONS; i++)
+        {
+            queue.add(i);
+        }
+
+        return queue.getPeakSize();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//sorting blocks into scan categories, one chunk at a time
+//one operation is one block
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanMaterialsBenchmark
+{
+    private static final int BLOCKS_PER_CHUNK = 16 * BenchmarkPlugin.WORLD_HEIGHT * 16;
+
+    @Param({"PLAINS", "MOUNTAINS", "CAVES", "OCEAN", "BUILT_UP"})
+    public String terrain;
+
+    private ChunkSnapshot chunk;
+    private Material[] materials;
+
+    @Setup
+    public void setUp()
+    {
+        //a few chunks are enough to pick one from the middle, away from the edges of the generated terrain
+        ChunkSnapshot[][] chunks = SyntheticTerrain.valueOf(this.terrain).generate(3, BenchmarkPlugin.WORLD_HEIGHT, 42);
+        this.chunk = chunks[1][1];
+
+        this.materials = new Material[BLOCKS_PER_CHUNK];
+        int i = 0;
+        for (int x = 0; x < 16; x++)
+        {
+            for (int y = 0; y < BenchmarkPlugin.WORLD_HEIGHT; y++)
+            {
+                for (int z = 0; z < 16; z++)
+                {
+                    this.materials[i++] = this.chunk.getBlockType(x, y, z);
+                }
+            }
+        }
+    }
+
+    //the lookup table alone
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS_PER_CHUNK)
+    public int[] categorizeMaterials()
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+        byte[] categories = ScanMaterials.getCategories();
+        Material[] materials = this.materials;
+        for (int i = 0; i < materials.length; i++)
+        {
+            counts[categories[materials[i].ordinal()]]++;
+        }
+
+        return counts;
+    }
+
+    //reading each block from the snapshot first, as the scanner does
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS_PER_CHUNK)
+    public int[] categorizeSnapshotBlocks()
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+        byte[] categories = ScanMaterials.getCategories();
+        ChunkSnapshot chunk = this.chunk;
+        for (int x = 0; x < 16; x++)
+        {
+            for (int y = 0; y < BenchmarkPlugin.WORLD_HEIGHT; y++)
+            {
+                for (int z = 0; z < 16; z++)
+                {
+                    counts[categories[chunk.getBlockType(x, y, z).ordinal()]]++;
+                }
+            }
+        }
+
+        return counts;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//whole region scans, from the snapshots to the log entries handed back to the main thread
+//one operation is one scan of the same 26x26 chunks a real region scan covers (see REGION_CHUNKS)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ScanRegionBenchmark
+{
+    //the chunks startScan() snapshots along each side, counted the same way for region 0,0
+    //both edges of the scan box are included, so it's one more than the chunks in a region
+    private static final int REGION_CENTER_X = PopulationDensity.REGION_SIZE / 2;
+    static final int REGION_CHUNKS = ((REGION_CENTER_X + PopulationDensity.REGION_SIZE / 2) >> 4) - ((REGION_CENTER_X - PopulationDensity.REGION_SIZE / 2) >> 4) + 1;
+
+    @Param({"PLAINS", "MOUNTAINS", "CAVES", "OCEAN", "BUILT_UP"})
+    public String terrain;
+
+    //1 is the flood fill, anything more is the chunk by chunk scan (see ParallelRegionScanner)
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"false", "true"})
+    public boolean seedFromSurface;
+
+    private ChunkSnapshot[][] chunks;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        PopulationDensity plugin = BenchmarkPlugin.install();
+        plugin.config_scanParallelism = this.parallelism;
+        plugin.config_scanSeedFromSurface = this.seedFromSurface;
+
+        this.chunks = SyntheticTerrain.valueOf(this.terrain).generate(REGION_CHUNKS, BenchmarkPlugin.WORLD_HEIGHT, 42);
+
+        //a faster chunk by chunk scan is no use if it counts differently
+        if (this.parallelism > 1) ScanConsistencyCheck.verify(this.terrain, this.chunks, this.parallelism);
+    }
+
+    @Benchmark
+    public void scanRegion()
+    {
+        new ScanRegionTask(this.chunks, false).run();
+    }
+}
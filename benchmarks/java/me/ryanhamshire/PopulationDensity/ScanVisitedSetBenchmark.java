@@ -0,0 +1,130 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//marking positions as examined in a region-sized visited set
+//one operation is one position, for marking; one whole set, for getting a cleared set
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanVisitedSetBenchmark
+{
+    private static final int SIZE = PopulationDensity.REGION_SIZE;
+    private static final int STEPS = 1 << 16;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    //a random walk through the region, one block at a time, like the flood fill's path through open space
+    private final int[] walkX = new int[STEPS];
+    private final int[] walkY = new int[STEPS];
+    private final int[] walkZ = new int[STEPS];
+
+    private ScanVisitedSet set;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        int x = SIZE / 2, y = 64, z = SIZE / 2;
+        for (int i = 0; i < STEPS; i++)
+        {
+            switch (random.nextInt(6))
+            {
+                case 0: x = Math.min(SIZE - 1, x + 1); break;
+                case 1: x = Math.max(0, x - 1); break;
+                case 2: y = Math.min(BenchmarkPlugin.WORLD_HEIGHT - 1, y + 1); break;
+                case 3: y = Math.max(0, y - 1); break;
+                case 4: z = Math.min(SIZE - 1, z + 1); break;
+                default: z = Math.max(0, z - 1); break;
+            }
+
+            this.walkX[i] = x;
+            this.walkY[i] = y;
+            this.walkZ[i] = z;
+        }
+
+        this.set = ScanVisitedSet.acquire(SIZE, BenchmarkPlugin.WORLD_HEIGHT, SIZE, this.offHeap);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearSet()
+    {
+        //an invocation level fixture, which JMH doesn't time, since clearing a whole set dwarfs the walk itself
+        this.set.clear();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ScanVisitedSet.release(this.set);
+    }
+
+    //what the flood fill does for each position it takes from the queue: mark it, and look at its six neighbours
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int markWithNeighbours()
+    {
+        ScanVisitedSet set = this.set;
+        int newlyMarked = 0;
+        for (int i = 0; i < STEPS; i++)
+        {
+            int x = this.walkX[i], y = this.walkY[i], z = this.walkZ[i];
+            if (set.mark(x, y, z)) newlyMarked++;
+            if (set.mark(x + 1, y, z)) newlyMarked++;
+            if (set.mark(x - 1, y, z)) newlyMarked++;
+            if (set.mark(x, y + 1, z)) newlyMarked++;
+            if (set.mark(x, y - 1, z)) newlyMarked++;
+            if (set.mark(x, y, z + 1)) newlyMarked++;
+            if (set.mark(x, y, z - 1)) newlyMarked++;
+        }
+
+        return newlyMarked;
+    }
+
+    //what every scan pays up front: a cleared set from the pool
+    @Benchmark
+    public ScanVisitedSet acquireFromPool()
+    {
+        ScanVisitedSet set = ScanVisitedSet.acquire(SIZE, BenchmarkPlugin.WORLD_HEIGHT, SIZE, this.offHeap);
+        ScanVisitedSet.release(set);
+        return set;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+
+//an in-memory chunk snapshot for the benchmarks, built block by block (see SyntheticTerrain)
+//like the server's snapshots, blocks are kept as indexes into a small palette, so a whole region of them fits comfortably on the heap
+class SyntheticChunkSnapshot implements ChunkSnapshot
+{
+    private static final int CHUNK_SIZE = 16;
+
+    private final int x;
+    private final int z;
+    private final int height;
+
+    private Material[] palette = new Material[0];
+    private final byte[] blocks;
+    private final int[] heights = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+    SyntheticChunkSnapshot(int x, int z, int height)
+    {
+        this.x = x;
+        this.z = z;
+        this.height = height;
+
+        //palette index 0 is always air
+        this.blocks = new byte[CHUNK_SIZE * height * CHUNK_SIZE];
+        this.getPaletteIndex(Material.AIR);
+    }
+
+    void setBlockType(int x, int y, int z, Material material)
+    {
+        if (y < 0 || y >= this.height) return;
+
+        this.blocks[getBlockIndex(x, y, z)] = this.getPaletteIndex(material);
+    }
+
+    //call once every block is set, to fill in the height map
+    void updateHeights()
+    {
+        for (int x = 0; x < CHUNK_SIZE; x++)
+        {
+            for (int z = 0; z < CHUNK_SIZE; z++)
+            {
+                int y = this.height;
+                while (y > 0 && this.blocks[this.getBlockIndex(x, y - 1, z)] == 0) y--;
+                this.heights[z << 4 | x] = y;
+            }
+        }
+    }
+
+    private int getBlockIndex(int x, int y, int z)
+    {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    private byte getPaletteIndex(Material material)
+    {
+        for (int i = 0; i < this.palette.length; i++)
+        {
+            if (this.palette[i] == material) return (byte)i;
+        }
+
+        if (this.palette.length == 256) throw new IllegalStateException("too many materials in one chunk");
+
+        Material[] palette = new Material[this.palette.length + 1];
+        System.arraycopy(this.palette, 0, palette, 0, this.palette.length);
+        palette[this.palette.length] = material;
+        this.palette = palette;
+        return (byte)(palette.length - 1);
+    }
+
+    @Override
+    public int getX()
+    {
+        return this.x;
+    }
+
+    @Override
+    public int getZ()
+    {
+        return this.z;
+    }
+
+    @Override
+    public String getWorldName()
+    {
+        return "benchmark";
+    }
+
+    @Override
+    public Material getBlockType(int x, int y, int z)
+    {
+        if (y < 0 || y >= this.height) return Material.AIR;
+
+        return this.palette[this.blocks[this.getBlockIndex(x, y, z)] & 0xFF];
+    }
+
+    //block data needs a running server, and the scanner only looks at materials
+    @Override
+    public BlockData getBlockData(int x, int y, int z)
+    {
+        throw new UnsupportedOperationException("synthetic snapshots only have materials");
+    }
+
+    @Override
+    @Deprecated
+    public int getData(int x, int y, int z)
+    {
+        return 0;
+    }
+
+    @Override
+    public int getBlockSkyLight(int x, int y, int z)
+    {
+        return y >= this.heights[z << 4 | x] ? 15 : 0;
+    }
+
+    @Override
+    public int getBlockEmittedLight(int x, int y, int z)
+    {
+        return 0;
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z)
+    {
+        return this.heights[z << 4 | x];
+    }
+
+    @Override
+    public Biome getBiome(int x, int z)
+    {
+        return Biome.PLAINS;
+    }
+
+    @Override
+    public double getRawBiomeTemperature(int x, int z)
+    {
+        return 0.8;
+    }
+
+    @Override
+    public long getCaptureFullTime()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sy)
+    {
+        int start = sy << 12;
+        if (sy < 0 || start >= this.blocks.length) return true;
+
+        for (int i = start; i < start + 4096; i++)
+        {
+            if (this.blocks[i] != 0) return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+import java.util.Random;
+
+//kinds of landscape for the benchmarks to scan, each generated the same way every time so results can be compared between runs
+//nothing like real world generation, just enough to give the scanner the shapes it meets in practice:
+//open sky over flat ground, tall uneven ground, lots of enclosed air underground, deep water, and walls of player blocks
+enum SyntheticTerrain
+{
+    //rolling grass with trees, ores in the stone below
+    PLAINS,
+
+    //steep peaks, bare stone and snow up high
+    MOUNTAINS,
+
+    //plains riddled with tunnels, some of them open to the sky
+    CAVES,
+
+    //a sandy sea floor well below the water's surface
+    OCEAN,
+
+    //plains covered in houses and paved streets
+    BUILT_UP;
+
+    static final int SEA_LEVEL = 62;
+
+    //a region's worth of chunks, sized chunksWide by chunksWide
+    ChunkSnapshot[][] generate(int chunksWide, int height, long seed)
+    {
+        SyntheticChunkSnapshot[][] chunks = new SyntheticChunkSnapshot[chunksWide][chunksWide];
+        for (int x = 0; x < chunksWide; x++)
+        {
+            for (int z = 0; z < chunksWide; z++)
+            {
+                chunks[x][z] = new SyntheticChunkSnapshot(x, z, height);
+            }
+        }
+
+        Random random = new Random(seed ^ this.ordinal());
+        Builder builder = new Builder(chunks, height);
+        int size = chunksWide * 16;
+
+        //ground first, then whatever's carved out of it or built on top
+        for (int x = 0; x < size; x++)
+        {
+            for (int z = 0; z < size; z++)
+            {
+                this.generateColumn(builder, random, x, z);
+            }
+        }
+
+        if (this == CAVES)
+        {
+            int tunnels = size * size / 400;
+            for (int i = 0; i < tunnels; i++)
+            {
+                carveTunnel(builder, random, size);
+            }
+        }
+
+        if (this == PLAINS || this == CAVES || this == BUILT_UP)
+        {
+            int trees = size * size / (this == BUILT_UP ? 600 : 80);
+            for (int i = 0; i < trees; i++)
+            {
+                int x = random.nextInt(size);
+                int z = random.nextInt(size);
+                plantTree(builder, random, x, this.getGroundHeight(x, z), z);
+            }
+        }
+
+        if (this == BUILT_UP)
+        {
+            this.buildTown(builder, random, size);
+        }
+
+        for (SyntheticChunkSnapshot[] row : chunks)
+        {
+            for (SyntheticChunkSnapshot chunk : row)
+            {
+                chunk.updateHeights();
+            }
+        }
+
+        return chunks;
+    }
+
+    private int getGroundHeight(int x, int z)
+    {
+        switch (this)
+        {
+            case MOUNTAINS:
+                return 90 + (int)(35 * Math.sin(x / 23.0) * Math.cos(z / 31.0) + 15 * Math.sin((x + z) / 11.0));
+            case OCEAN:
+                return 42 + (int)(4 * Math.sin(x / 17.0) + 3 * Math.cos(z / 13.0));
+            default:
+                return 66 + (int)(3 * Math.sin(x / 29.0) + 2 * Math.cos(z / 19.0));
+        }
+    }
+
+    private void generateColumn(Builder builder, Random random, int x, int z)
+    {
+        int ground = this.getGroundHeight(x, z);
+
+        builder.setBlock(x, 0, z, Material.BEDROCK);
+        for (int y = 1; y < ground; y++)
+        {
+            builder.setBlock(x, y, z, getUndergroundMaterial(random, y));
+        }
+
+        if (this == OCEAN)
+        {
+            builder.setBlock(x, ground - 1, z, random.nextInt(4) == 0 ? Material.GRAVEL : Material.SAND);
+            for (int y = ground; y < SEA_LEVEL; y++)
+            {
+                builder.setBlock(x, y, z, Material.WATER);
+            }
+            if (random.nextInt(12) == 0) builder.setBlock(x, ground, z, Material.SEAGRASS);
+        } else if (this == MOUNTAINS && ground > 110)
+        {
+            //bare stone up high, capped with snow at the peaks
+            if (ground > 125) builder.setBlock(x, ground, z, Material.SNOW);
+        } else
+        {
+            for (int y = ground - 4; y < ground - 1; y++)
+            {
+                builder.setBlock(x, y, z, Material.DIRT);
+            }
+            builder.setBlock(x, ground - 1, z, Material.GRASS_BLOCK);
+            if (random.nextInt(6) == 0) builder.setBlock(x, ground, z, Material.GRASS);
+        }
+    }
+
+    //stone with ores, the rarer ones only deep down
+    private static Material getUndergroundMaterial(Random random, int y)
+    {
+        int roll = random.nextInt(1000);
+        if (roll < 10) return Material.COAL_ORE;
+        if (roll < 16 && y < 64) return Material.IRON_ORE;
+        if (roll < 18 && y < 32) return Material.GOLD_ORE;
+        if (roll < 21 && y < 16) return Material.REDSTONE_ORE;
+        if (roll < 22 && y < 32) return Material.LAPIS_ORE;
+        if (roll < 23 && y < 16) return Material.DIAMOND_ORE;
+        if (roll < 40) return Material.GRAVEL;
+        if (roll < 80) return Material.ANDESITE;
+        return Material.STONE;
+    }
+
+    //a wandering tube of air, sometimes breaking through to the surface
+    private static void carveTunnel(Builder builder, Random random, int size)
+    {
+        double x = random.nextInt(size);
+        double y = 12 + random.nextInt(50);
+        double z = random.nextInt(size);
+        double yaw = random.nextDouble() * Math.PI * 2;
+        double pitch = (random.nextDouble() - 0.5) * 0.5;
+        int length = 40 + random.nextInt(80);
+
+        for (int step = 0; step < length; step++)
+        {
+            int radius = 1 + random.nextInt(3);
+            for (int dx = -radius; dx <= radius; dx++)
+            {
+                for (int dy = -radius; dy <= radius; dy++)
+                {
+                    for (int dz = -radius; dz <= radius; dz++)
+                    {
+                        if (dx * dx + dy * dy + dz * dz > radius * radius) continue;
+
+                        int bx = (int)x + dx;
+                        int by = (int)y + dy;
+                        int bz = (int)z + dz;
+                        if (by > 0 && builder.getBlock(bx, by, bz) != Material.AIR)
+                        {
+                            builder.setBlock(bx, by, bz, Material.CAVE_AIR);
+                        }
+                    }
+                }
+            }
+
+            x += Math.cos(yaw);
+            z += Math.sin(yaw);
+            y += pitch;
+            yaw += (random.nextDouble() - 0.5) * 0.6;
+            pitch = Math.max(-0.6, Math.min(0.6, pitch + (random.nextDouble() - 0.5) * 0.2));
+        }
+    }
+
+    private static void plantTree(Builder builder, Random random, int x, int ground, int z)
+    {
+        if (builder.getBlock(x, ground - 1, z) != Material.GRASS_BLOCK) return;
+
+        int trunk = 4 + random.nextInt(3);
+        for (int dx = -2; dx <= 2; dx++)
+        {
+            for (int dz = -2; dz <= 2; dz++)
+            {
+                for (int y = ground + trunk - 2; y <= ground + trunk; y++)
+                {
+                    if (Math.abs(dx) + Math.abs(dz) < 4) builder.setBlock(x + dx, y, z + dz, Material.OAK_LEAVES);
+                }
+            }
+        }
+
+        for (int y = ground; y < ground + trunk; y++)
+        {
+            builder.setBlock(x, y, z, Material.OAK_LOG);
+        }
+    }
+
+    //houses on a grid of streets, each with walls, windows, a floor, a roof and a few things inside
+    private void buildTown(Builder builder, Random random, int size)
+    {
+        final int lot = 14;
+        Material[] walls = {Material.COBBLESTONE, Material.OAK_PLANKS, Material.SPRUCE_PLANKS, Material.BRICKS, Material.STONE_BRICKS};
+
+        for (int x = 0; x < size; x++)
+        {
+            for (int z = 0; z < size; z++)
+            {
+                if (x % lot < 3 || z % lot < 3)
+                {
+                    int ground = this.getGroundHeight(x, z);
+                    builder.setBlock(x, ground - 1, z, Material.STONE_BRICKS);
+                    builder.setBlock(x, ground, z, Material.AIR);
+                }
+            }
+        }
+
+        for (int lotX = 0; lotX + lot <= size; lotX += lot)
+        {
+            for (int lotZ = 0; lotZ + lot <= size; lotZ += lot)
+            {
+                int minX = lotX + 4, maxX = lotX + lot - 2;
+                int minZ = lotZ + 4, maxZ = lotZ + lot - 2;
+                int floor = this.getGroundHeight(minX, minZ);
+                int roof = floor + 4 + random.nextInt(4);
+                Material wall = walls[random.nextInt(walls.length)];
+
+                for (int x = minX; x <= maxX; x++)
+                {
+                    for (int z = minZ; z <= maxZ; z++)
+                    {
+                        boolean edge = x == minX || x == maxX || z == minZ || z == maxZ;
+                        builder.setBlock(x, floor - 1, z, Material.OAK_PLANKS);
+                        for (int y = floor; y < roof; y++)
+                        {
+                            Material material = Material.AIR;
+                            if (edge) material = (y == floor + 2 && (x + z) % 3 == 0) ? Material.GLASS_PANE : wall;
+                            builder.setBlock(x, y, z, material);
+                        }
+                        builder.setBlock(x, roof, z, Material.DARK_OAK_PLANKS);
+                    }
+                }
+
+                builder.setBlock(minX + 1, floor, minZ + 1, Material.CHEST);
+                builder.setBlock(minX + 2, floor, minZ + 1, Material.CRAFTING_TABLE);
+                builder.setBlock(maxX - 1, floor, maxZ - 1, Material.FURNACE);
+                builder.setBlock(minX + 1, floor + 2, maxZ - 1, Material.WALL_TORCH);
+                builder.setBlock(minX + (maxX - minX) / 2, floor, minZ, Material.OAK_DOOR);
+                builder.setBlock(minX + (maxX - minX) / 2, floor + 1, minZ, Material.OAK_DOOR);
+            }
+        }
+    }
+
+    //sets blocks by position in the whole grid rather than chunk by chunk
+    private static class Builder
+    {
+        private final SyntheticChunkSnapshot[][] chunks;
+        private final int size;
+        private final int height;
+
+        Builder(SyntheticChunkSnapshot[][] chunks, int height)
+        {
+            this.chunks = chunks;
+            this.size = chunks.length * 16;
+            this.height = height;
+        }
+
+        private boolean contains(int x, int y, int z)
+        {
+            return x >= 0 && z >= 0 && x < this.size && z < this.size && y >= 0 && y < this.height;
+        }
+
+        void setBlock(int x, int y, int z, Material material)
+        {
+            if (!this.contains(x, y, z)) return;
+
+            this.chunks[x >> 4][z >> 4].setBlockType(x & 15, y, z & 15, material);
+        }
+
+        Material getBlock(int x, int y, int z)
+        {
+            if (!this.contains(x, y, z)) return Material.AIR;
+
+            return this.chunks[x >> 4][z >> 4].getBlockType(x & 15, y, z & 15);
+        }
+    }
+}
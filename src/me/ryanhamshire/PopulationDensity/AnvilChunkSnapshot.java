@@ -0,0 +1,463 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//a chunk snapshot decoded from a region file (see AnvilRegionReader), answering the same questions a live snapshot would
+//covers the 1.13 to 1.17 chunk format: a Level compound with 16 block sections, each a palette of block states plus packed indexes into it
+//biomes are looked up by their vanilla numbers (see addBiome), since the server offers no way to look them up by number
+//a biome number this doesn't know (from a newer version, or a mod), or a chunk saved without biomes, answers null for the biome and 0.5 for its temperature
+//from 1.15 on biomes vary with height too, and like the server's own snapshots, this answers for the bottom of the world
+class AnvilChunkSnapshot implements ChunkSnapshot
+{
+    private static final int CHUNK_SIZE = 16;
+    private static final int SECTION_COUNT = 16;
+    private static final int BLOCKS_PER_SECTION = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+
+    //from 1.16 (data version 2529) on, packed values no longer span two longs
+    private static final int FIRST_UNSPANNED_DATA_VERSION = 2529;
+
+    //block names to materials, shared by every snapshot since there are only so many block types
+    private static final ConcurrentHashMap<String, Material> materialsByName = new ConcurrentHashMap<String, Material>();
+
+    //vanilla biome numbers to biomes and their temperatures, null and NaN where a number isn't used or the server has no such biome
+    private static final Biome[] biomesByNumber = new Biome[256];
+    private static final double[] temperaturesByNumber = new double[256];
+
+    //the temperature of a biome this doesn't know, the same as the server's default
+    private static final double DEFAULT_TEMPERATURE = 0.5;
+
+    static
+    {
+        Arrays.fill(temperaturesByNumber, Double.NaN);
+
+        addBiome(0, 0.5, "OCEAN");
+        addBiome(1, 0.8, "PLAINS");
+        addBiome(2, 2.0, "DESERT");
+        addBiome(3, 0.2, "MOUNTAINS");
+        addBiome(4, 0.7, "FOREST");
+        addBiome(5, 0.25, "TAIGA");
+        addBiome(6, 0.8, "SWAMP");
+        addBiome(7, 0.5, "RIVER");
+        addBiome(8, 2.0, "NETHER", "NETHER_WASTES");
+        addBiome(9, 0.5, "THE_END");
+        addBiome(10, 0.0, "FROZEN_OCEAN");
+        addBiome(11, 0.0, "FROZEN_RIVER");
+        addBiome(12, 0.0, "SNOWY_TUNDRA");
+        addBiome(13, 0.0, "SNOWY_MOUNTAINS");
+        addBiome(14, 0.9, "MUSHROOM_FIELDS");
+        addBiome(15, 0.9, "MUSHROOM_FIELD_SHORE");
+        addBiome(16, 0.8, "BEACH");
+        addBiome(17, 2.0, "DESERT_HILLS");
+        addBiome(18, 0.7, "WOODED_HILLS");
+        addBiome(19, 0.25, "TAIGA_HILLS");
+        addBiome(20, 0.2, "MOUNTAIN_EDGE");
+        addBiome(21, 0.95, "JUNGLE");
+        addBiome(22, 0.95, "JUNGLE_HILLS");
+        addBiome(23, 0.95, "JUNGLE_EDGE");
+        addBiome(24, 0.5, "DEEP_OCEAN");
+        addBiome(25, 0.2, "STONE_SHORE");
+        addBiome(26, 0.05, "SNOWY_BEACH");
+        addBiome(27, 0.6, "BIRCH_FOREST");
+        addBiome(28, 0.6, "BIRCH_FOREST_HILLS");
+        addBiome(29, 0.7, "DARK_FOREST");
+        addBiome(30, -0.5, "SNOWY_TAIGA");
+        addBiome(31, -0.5, "SNOWY_TAIGA_HILLS");
+        addBiome(32, 0.3, "GIANT_TREE_TAIGA");
+        addBiome(33, 0.3, "GIANT_TREE_TAIGA_HILLS");
+        addBiome(34, 0.2, "WOODED_MOUNTAINS");
+        addBiome(35, 1.2, "SAVANNA");
+        addBiome(36, 1.0, "SAVANNA_PLATEAU");
+        addBiome(37, 2.0, "BADLANDS");
+        addBiome(38, 2.0, "WOODED_BADLANDS_PLATEAU");
+        addBiome(39, 2.0, "BADLANDS_PLATEAU");
+        addBiome(40, 0.5, "SMALL_END_ISLANDS");
+        addBiome(41, 0.5, "END_MIDLANDS");
+        addBiome(42, 0.5, "END_HIGHLANDS");
+        addBiome(43, 0.5, "END_BARRENS");
+        addBiome(44, 0.5, "WARM_OCEAN");
+        addBiome(45, 0.5, "LUKEWARM_OCEAN");
+        addBiome(46, 0.5, "COLD_OCEAN");
+        addBiome(47, 0.5, "DEEP_WARM_OCEAN");
+        addBiome(48, 0.5, "DEEP_LUKEWARM_OCEAN");
+        addBiome(49, 0.5, "DEEP_COLD_OCEAN");
+        addBiome(50, 0.5, "DEEP_FROZEN_OCEAN");
+        addBiome(127, 0.5, "THE_VOID");
+        addBiome(129, 0.8, "SUNFLOWER_PLAINS");
+        addBiome(130, 2.0, "DESERT_LAKES");
+        addBiome(131, 0.2, "GRAVELLY_MOUNTAINS");
+        addBiome(132, 0.7, "FLOWER_FOREST");
+        addBiome(133, 0.25, "TAIGA_MOUNTAINS");
+        addBiome(134, 0.8, "SWAMP_HILLS");
+        addBiome(140, 0.0, "ICE_SPIKES");
+        addBiome(149, 0.95, "MODIFIED_JUNGLE");
+        addBiome(151, 0.95, "MODIFIED_JUNGLE_EDGE");
+        addBiome(155, 0.6, "TALL_BIRCH_FOREST");
+        addBiome(156, 0.6, "TALL_BIRCH_HILLS");
+        addBiome(157, 0.7, "DARK_FOREST_HILLS");
+        addBiome(158, -0.5, "SNOWY_TAIGA_MOUNTAINS");
+        addBiome(160, 0.25, "GIANT_SPRUCE_TAIGA");
+        addBiome(161, 0.25, "GIANT_SPRUCE_TAIGA_HILLS");
+        addBiome(162, 0.2, "MODIFIED_GRAVELLY_MOUNTAINS");
+        addBiome(163, 1.1, "SHATTERED_SAVANNA");
+        addBiome(164, 1.0, "SHATTERED_SAVANNA_PLATEAU");
+        addBiome(165, 2.0, "ERODED_BADLANDS");
+        addBiome(166, 2.0, "MODIFIED_WOODED_BADLANDS_PLATEAU");
+        addBiome(167, 2.0, "MODIFIED_BADLANDS_PLATEAU");
+        addBiome(168, 0.95, "BAMBOO_JUNGLE");
+        addBiome(169, 0.95, "BAMBOO_JUNGLE_HILLS");
+        addBiome(170, 2.0, "SOUL_SAND_VALLEY");
+        addBiome(171, 2.0, "CRIMSON_FOREST");
+        addBiome(172, 2.0, "WARPED_FOREST");
+        addBiome(173, 2.0, "BASALT_DELTAS");
+    }
+
+    private final String worldName;
+    private final int x;
+    private final int z;
+    private final long captureTime;
+
+    //per section (null where a section is missing, which means it's all air): the palette and the palette index of each block, indexed y << 8 | z << 4 | x
+    private final Material[][] paletteMaterials = new Material[SECTION_COUNT][];
+    private final String[][] paletteStates = new String[SECTION_COUNT][];
+    private final short[][] blockIndexes = new short[SECTION_COUNT][];
+    private final byte[][] skyLight = new byte[SECTION_COUNT][];
+    private final byte[][] blockLight = new byte[SECTION_COUNT][];
+
+    //the first free y in each column, indexed z << 4 | x
+    private final int[] heights = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+    //biome numbers, one per column (indexed z << 4 | x) before 1.15, one per 4x4x4 cell (indexed y << 4 | z << 2 | x) since, or null if the chunk has none
+    private int[] biomes = null;
+
+    private AnvilChunkSnapshot(String worldName, int x, int z, long captureTime)
+    {
+        this.worldName = worldName;
+        this.x = x;
+        this.z = z;
+        this.captureTime = captureTime;
+    }
+
+    //decodes a chunk's root compound, or returns null if the chunk isn't fully generated yet or isn't in a format this understands
+    @SuppressWarnings("unchecked")
+    static AnvilChunkSnapshot fromNbt(String worldName, int chunkX, int chunkZ, Map<String, Object> root) throws IOException
+    {
+        //1.18 dropped the Level compound, along with the layout below
+        Object levelTag = root.get("Level");
+        if (!(levelTag instanceof Map)) return null;
+        Map<String, Object> level = (Map<String, Object>)levelTag;
+
+        if (!isFullyGenerated(level.get("Status"))) return null;
+
+        boolean spanning = !(root.get("DataVersion") instanceof Integer) || (Integer)root.get("DataVersion") < FIRST_UNSPANNED_DATA_VERSION;
+        long captureTime = level.get("LastUpdate") instanceof Long ? (Long)level.get("LastUpdate") : 0;
+        AnvilChunkSnapshot snapshot = new AnvilChunkSnapshot(worldName, chunkX, chunkZ, captureTime);
+
+        //the same height map live snapshots answer from
+        Object heightMapsTag = level.get("Heightmaps");
+        if (!(heightMapsTag instanceof Map)) return null;
+        Object motionBlocking = ((Map<String, Object>)heightMapsTag).get("MOTION_BLOCKING");
+        if (!(motionBlocking instanceof long[])) return null;
+        unpack((long[])motionBlocking, 9, spanning, snapshot.heights);
+
+        Object biomesTag = level.get("Biomes");
+        if (biomesTag instanceof int[] && (((int[])biomesTag).length == CHUNK_SIZE * CHUNK_SIZE || ((int[])biomesTag).length == 1024))
+        {
+            snapshot.biomes = (int[])biomesTag;
+        }
+
+        Object sectionsTag = level.get("Sections");
+        if (sectionsTag instanceof List)
+        {
+            for (Object sectionTag : (List<Object>)sectionsTag)
+            {
+                snapshot.addSection((Map<String, Object>)sectionTag, spanning);
+            }
+        }
+
+        return snapshot;
+    }
+
+    //1.14 and later call a finished chunk "full", 1.13 had a few names for it
+    private static boolean isFullyGenerated(Object status)
+    {
+        if (!(status instanceof String)) return false;
+
+        String name = (String)status;
+        if (name.startsWith("minecraft:")) name = name.substring("minecraft:".length());
+        return name.equals("full") || name.equals("postprocessed") || name.equals("fullchunk") || name.equals("mobs_spawned");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addSection(Map<String, Object> section, boolean spanning) throws IOException
+    {
+        //sections just below and above the world only hold light
+        if (!(section.get("Y") instanceof Byte)) return;
+        int sectionY = (Byte)section.get("Y");
+        if (sectionY < 0 || sectionY >= SECTION_COUNT) return;
+
+        if (section.get("SkyLight") instanceof byte[]) this.skyLight[sectionY] = (byte[])section.get("SkyLight");
+        if (section.get("BlockLight") instanceof byte[]) this.blockLight[sectionY] = (byte[])section.get("BlockLight");
+
+        Object paletteTag = section.get("Palette");
+        Object blockStatesTag = section.get("BlockStates");
+        if (!(paletteTag instanceof List) || !(blockStatesTag instanceof long[])) return;
+
+        List<Object> palette = (List<Object>)paletteTag;
+        if (palette.isEmpty()) return;
+
+        Material[] materials = new Material[palette.size()];
+        String[] states = new String[palette.size()];
+        for (int i = 0; i < palette.size(); i++)
+        {
+            Map<String, Object> entry = (Map<String, Object>)palette.get(i);
+            String name = (String)entry.get("Name");
+            materials[i] = getMaterial(name);
+            states[i] = getStateString(name, entry.get("Properties"));
+        }
+
+        //at least 4 bits per block, more if the palette needs them
+        int bits = 4;
+        while ((1 << bits) < palette.size()) bits++;
+
+        int[] indexes = new int[BLOCKS_PER_SECTION];
+        unpack((long[])blockStatesTag, bits, spanning, indexes);
+
+        short[] blockIndexes = new short[BLOCKS_PER_SECTION];
+        for (int i = 0; i < BLOCKS_PER_SECTION; i++)
+        {
+            if (indexes[i] >= palette.size()) throw new IOException("block palette index out of range in chunk " + this.x + " " + this.z);
+            blockIndexes[i] = (short)indexes[i];
+        }
+
+        this.paletteMaterials[sectionY] = materials;
+        this.paletteStates[sectionY] = states;
+        this.blockIndexes[sectionY] = blockIndexes;
+    }
+
+    //reads values of the given width from an array of longs, packed from the lowest bits up
+    private static void unpack(long[] data, int bits, boolean spanning, int[] values) throws IOException
+    {
+        long mask = (1L << bits) - 1;
+        int valuesPerLong = 64 / bits;
+        int expectedLength = spanning ? (values.length * bits + 63) / 64 : (values.length + valuesPerLong - 1) / valuesPerLong;
+        if (data.length != expectedLength) throw new IOException("expected " + expectedLength + " longs of packed data, found " + data.length);
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (spanning)
+            {
+                int bitIndex = i * bits;
+                int longIndex = bitIndex >> 6;
+                int offset = bitIndex & 63;
+                long value = data[longIndex] >>> offset;
+                if (offset + bits > 64) value |= data[longIndex + 1] << (64 - offset);
+                values[i] = (int)(value & mask);
+            } else
+            {
+                values[i] = (int)((data[i / valuesPerLong] >>> ((i % valuesPerLong) * bits)) & mask);
+            }
+        }
+    }
+
+    //unknown blocks (from a newer version, or a mod) count as air
+    private static Material getMaterial(String name)
+    {
+        if (name == null) return Material.AIR;
+
+        Material material = materialsByName.get(name);
+        if (material == null)
+        {
+            material = Material.matchMaterial(name);
+            if (material == null) material = Material.AIR;
+            materialsByName.put(name, material);
+        }
+
+        return material;
+    }
+
+    //biomes the server doesn't have (like the 1.16 ones on an older server) stay unknown
+    private static void addBiome(int number, double temperature, String... names)
+    {
+        for (String name : names)
+        {
+            try
+            {
+                biomesByNumber[number] = Biome.valueOf(name);
+                temperaturesByNumber[number] = temperature;
+                return;
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    //the biome number at the bottom of a column, or -1 if there isn't one
+    private int getBiomeNumber(int x, int z)
+    {
+        if (this.biomes == null) return -1;
+
+        int number = this.biomes.length == CHUNK_SIZE * CHUNK_SIZE ? this.biomes[z << 4 | x] : this.biomes[(z >> 2) << 2 | (x >> 2)];
+        return number >= 0 && number < biomesByNumber.length ? number : -1;
+    }
+
+    //the same form the server's block data strings take, like minecraft:oak_log[axis=y]
+    @SuppressWarnings("unchecked")
+    private static String getStateString(String name, Object properties)
+    {
+        if (name == null) return "minecraft:air";
+        if (!(properties instanceof Map) || ((Map<String, Object>)properties).isEmpty()) return name;
+
+        StringBuilder builder = new StringBuilder(name).append('[');
+        boolean first = true;
+        for (Map.Entry<String, Object> property : ((Map<String, Object>)properties).entrySet())
+        {
+            if (!first) builder.append(',');
+            builder.append(property.getKey()).append('=').append(property.getValue());
+            first = false;
+        }
+
+        return builder.append(']').toString();
+    }
+
+    private static int getBlockIndex(int x, int y, int z)
+    {
+        return (y & 15) << 8 | z << 4 | x;
+    }
+
+    private static int getNibble(byte[] nibbles, int index)
+    {
+        int value = nibbles[index >> 1];
+        return (index & 1) == 0 ? value & 15 : (value >> 4) & 15;
+    }
+
+    private static boolean inWorld(int y)
+    {
+        return y >= 0 && y < SECTION_COUNT * CHUNK_SIZE;
+    }
+
+    @Override
+    public int getX()
+    {
+        return this.x;
+    }
+
+    @Override
+    public int getZ()
+    {
+        return this.z;
+    }
+
+    @Override
+    public String getWorldName()
+    {
+        return this.worldName;
+    }
+
+    @Override
+    public Material getBlockType(int x, int y, int z)
+    {
+        if (!inWorld(y) || this.blockIndexes[y >> 4] == null) return Material.AIR;
+
+        return this.paletteMaterials[y >> 4][this.blockIndexes[y >> 4][getBlockIndex(x, y, z)]];
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z)
+    {
+        if (!inWorld(y) || this.blockIndexes[y >> 4] == null) return Bukkit.createBlockData(Material.AIR);
+
+        return Bukkit.createBlockData(this.paletteStates[y >> 4][this.blockIndexes[y >> 4][getBlockIndex(x, y, z)]]);
+    }
+
+    //region files don't have the old numeric data values
+    @Override
+    @Deprecated
+    public int getData(int x, int y, int z)
+    {
+        return 0;
+    }
+
+    @Override
+    public int getBlockSkyLight(int x, int y, int z)
+    {
+        if (!inWorld(y) || this.skyLight[y >> 4] == null) return 15;
+
+        return getNibble(this.skyLight[y >> 4], getBlockIndex(x, y, z));
+    }
+
+    @Override
+    public int getBlockEmittedLight(int x, int y, int z)
+    {
+        if (!inWorld(y) || this.blockLight[y >> 4] == null) return 0;
+
+        return getNibble(this.blockLight[y >> 4], getBlockIndex(x, y, z));
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z)
+    {
+        return this.heights[z << 4 | x];
+    }
+
+    @Override
+    public Biome getBiome(int x, int z)
+    {
+        int number = this.getBiomeNumber(x, z);
+        return number == -1 ? null : biomesByNumber[number];
+    }
+
+    //the biome's base temperature, which is what the server answers below sea level
+    @Override
+    public double getRawBiomeTemperature(int x, int z)
+    {
+        int number = this.getBiomeNumber(x, z);
+        return number == -1 || Double.isNaN(temperaturesByNumber[number]) ? DEFAULT_TEMPERATURE : temperaturesByNumber[number];
+    }
+
+    //the world time the chunk was last saved, rather than captured
+    @Override
+    public long getCaptureFullTime()
+    {
+        return this.captureTime;
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sy)
+    {
+        if (sy < 0 || sy >= SECTION_COUNT || this.paletteMaterials[sy] == null) return true;
+
+        for (Material material : this.paletteMaterials[sy])
+        {
+            if (material != Material.AIR && material != Material.CAVE_AIR) return false;
+        }
+
+        return true;
+    }
+}
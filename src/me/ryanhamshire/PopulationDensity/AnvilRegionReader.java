@@ -0,0 +1,253 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+//reads chunks for scans straight from the world's region files (region/r.X.Z.mca), without loading them into the server
+//files are memory mapped, and only the requested chunk is inflated and decoded, on a background thread
+//only for chunks which aren't loaded: a loaded chunk may be newer in memory than on disk, so those still go through the server (see ScanChunkFeed)
+//a snapshot is null when the chunk isn't in the region files, isn't fully generated, or is stored in a format this doesn't understand (1.18 and later),
+//in which case the chunk should be loaded through the server instead
+//one reader per scan, close() it when the scan is done with it
+class AnvilRegionReader
+{
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+
+    private static ExecutorService executor = null;
+
+    private final File regionFolder;
+    private final String worldName;
+
+    //reader thread only, mapped files by name
+    private final HashMap<String, MappedByteBuffer> regionFiles = new HashMap<String, MappedByteBuffer>();
+    private boolean reportedFailure = false;
+
+    AnvilRegionReader(World world)
+    {
+        this.worldName = world.getName();
+
+        //the nether and the end keep their chunks in a subfolder, like vanilla's dimension folders
+        File worldFolder = world.getWorldFolder();
+        if (world.getEnvironment() == World.Environment.NETHER)
+        {
+            worldFolder = new File(worldFolder, "DIM-1");
+        } else if (world.getEnvironment() == World.Environment.THE_END)
+        {
+            worldFolder = new File(worldFolder, "DIM1");
+        }
+
+        this.regionFolder = new File(worldFolder, "region");
+    }
+
+    //reads the chunk on the reader thread, and passes its snapshot (or null) to the callback there
+    void readLater(final int chunkX, final int chunkZ, final Consumer<ChunkSnapshot> callback)
+    {
+        getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                callback.accept(read(chunkX, chunkZ));
+            }
+        });
+    }
+
+    //lets go of the mapped files once any reads still waiting are done
+    void close()
+    {
+        getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                regionFiles.clear();
+            }
+        });
+    }
+
+    //reader thread only
+    private ChunkSnapshot read(int chunkX, int chunkZ)
+    {
+        try
+        {
+            Map<String, Object> root = this.readChunkData(chunkX, chunkZ);
+            if (root == null) return null;
+
+            return AnvilChunkSnapshot.fromNbt(this.worldName, chunkX, chunkZ, root);
+        }
+
+        //the server may be writing the same chunk right now, or the file may be damaged, either way the server can load it instead
+        catch (Exception e)
+        {
+            if (!this.reportedFailure)
+            {
+                this.reportedFailure = true;
+                PopulationDensity.AddLogEntry("Unable to read chunk " + chunkX + " " + chunkZ + " from its region file, loading it through the server instead: " + e.toString());
+            }
+
+            return null;
+        }
+    }
+
+    //the chunk's root compound, or null if it isn't in the region file
+    private Map<String, Object> readChunkData(int chunkX, int chunkZ) throws IOException
+    {
+        String fileName = "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca";
+        MappedByteBuffer mappedFile = this.regionFiles.get(fileName);
+        if (mappedFile == null)
+        {
+            mappedFile = this.map(fileName);
+            if (mappedFile == null) return null;
+        }
+
+        //the header says where each chunk is, in 4KiB sectors: 3 bytes of offset and 1 byte of length
+        ByteBuffer buffer = mappedFile.duplicate();
+        int location = buffer.getInt(4 * ((chunkX & 31) + (chunkZ & 31) * 32));
+        int sectorOffset = location >>> 8;
+        if (sectorOffset == 0) return null;
+
+        long chunkStart = (long)sectorOffset * SECTOR_SIZE;
+
+        //the server appends to region files as it saves, so the mapping may be out of date
+        if (chunkStart + 5 > buffer.capacity())
+        {
+            mappedFile = this.map(fileName);
+            if (mappedFile == null) return null;
+            buffer = mappedFile.duplicate();
+            if (chunkStart + 5 > buffer.capacity()) return null;
+        }
+
+        int length = buffer.getInt((int)chunkStart);
+        int compression = buffer.get((int)chunkStart + 4);
+        if (length <= 1) return null;
+        if (chunkStart + 4 + length > buffer.capacity()) throw new IOException("chunk data runs past the end of " + fileName);
+
+        //the data itself, after the length and the compression type
+        buffer.position((int)chunkStart + 5);
+        buffer.limit((int)chunkStart + 4 + length);
+        byte[] data = new byte[length - 1];
+        buffer.get(data);
+
+        InputStream input = new ByteArrayInputStream(data);
+        switch (compression)
+        {
+            case COMPRESSION_GZIP:
+                input = new GZIPInputStream(input);
+                break;
+            case COMPRESSION_ZLIB:
+                input = new InflaterInputStream(input);
+                break;
+            case COMPRESSION_NONE:
+                break;
+            default:
+                //includes chunks too big for the region file, which are kept in a file of their own
+                return null;
+        }
+
+        DataInputStream dataInput = new DataInputStream(input);
+        try
+        {
+            return NbtReader.readRoot(dataInput);
+        }
+        finally
+        {
+            dataInput.close();
+        }
+    }
+
+    //maps the whole file, or returns null if it doesn't exist yet
+    private MappedByteBuffer map(String fileName) throws IOException
+    {
+        this.regionFiles.remove(fileName);
+
+        File file = new File(this.regionFolder, fileName);
+        if (!file.exists() || file.length() < HEADER_SIZE) return null;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.regionFiles.put(fileName, mappedFile);
+            return mappedFile;
+        }
+
+        //the mapping stays valid after the file is closed
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            //one thread is plenty, most of the time goes to the disk anyway, and this keeps the scan threads free to examine what it reads
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "PopulationDensity Region File Reader");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    //stops the reader thread, if it was started
+    static synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
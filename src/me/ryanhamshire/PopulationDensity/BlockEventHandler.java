@@ -111,6 +111,10 @@ public class BlockEventHandler implements Listener
         //if the player is not in managed world, do nothing (let vanilla code and other plugins do whatever)
         if (!player.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 
+        //any cached scan results for this chunk are out of date now
+        ScanChunkCache scanChunkCache = PopulationDensity.instance.scanChunkCache;
+        if (scanChunkCache != null) scanChunkCache.markDirty(block);
+
         //otherwise figure out which region that block is in
         Location blockLocation = block.getLocation();
 
@@ -135,6 +139,27 @@ public class BlockEventHandler implements Listener
         }
     }
 
+    //once nothing (this plugin included) has cancelled a break, the scan bookkeeping hears about it
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBroken(BlockBreakEvent breakEvent)
+    {
+        if (!breakEvent.getPlayer().getWorld().equals(PopulationDensity.ManagedWorld)) return;
+
+        Block block = breakEvent.getBlock();
+
+        //the more the open region changes, the sooner it's scanned again
+        ScanScheduler scanScheduler = PopulationDensity.instance.scanScheduler;
+        if (scanScheduler != null) scanScheduler.recordBlockChange(block);
+
+        //mining comes off the open region's estimated resources
+        ResourceLedger resourceLedger = PopulationDensity.instance.resourceLedger;
+        if (resourceLedger != null) resourceLedger.recordBreak(block);
+
+        //and makes any pristine resource counts out of date
+        PristineResources pristineResources = PopulationDensity.instance.pristineResources;
+        if (pristineResources != null) pristineResources.recordBreak(block);
+    }
+
     private Location lastLocation = null;
     private Boolean lastResult = null;
 
@@ -182,6 +207,10 @@ public class BlockEventHandler implements Listener
         //if not in managed world, do nothing
         if (!player.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 
+        //any cached scan results for this chunk are out of date now
+        ScanChunkCache scanChunkCache = PopulationDensity.instance.scanChunkCache;
+        if (scanChunkCache != null) scanChunkCache.markDirty(block);
+
         Location blockLocation = block.getLocation();
 
         //if over hopper limit for chunk, send error message
@@ -236,6 +265,27 @@ public class BlockEventHandler implements Listener
         }
     }
 
+    //once nothing (this plugin included) has cancelled a placement, the scan bookkeeping hears about it
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlaced(BlockPlaceEvent placeEvent)
+    {
+        if (!placeEvent.getPlayer().getWorld().equals(PopulationDensity.ManagedWorld)) return;
+
+        Block block = placeEvent.getBlock();
+
+        //the more the open region changes, the sooner it's scanned again
+        ScanScheduler scanScheduler = PopulationDensity.instance.scanScheduler;
+        if (scanScheduler != null) scanScheduler.recordBlockChange(block);
+
+        //player blocks count towards the open region's estimated crowding
+        ResourceLedger resourceLedger = PopulationDensity.instance.resourceLedger;
+        if (resourceLedger != null) resourceLedger.recordPlace(block);
+
+        //and rules out judging the region by its pristine resource counts
+        PristineResources pristineResources = PopulationDensity.instance.pristineResources;
+        if (pristineResources != null) pristineResources.recordPlace(block);
+    }
+
     //when a player damages a block...
     @EventHandler(ignoreCancelled = true)
     public void onBlockDamage(BlockDamageEvent damageEvent)
@@ -260,6 +310,9 @@ public class BlockEventHandler implements Listener
 
         if (!pistonBlock.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 
+        //the moved blocks may cross into the next chunk over, so any cached scan results for either are out of date
+        markMovedBlocksDirty(pistonBlock, event.getBlocks(), event.getDirection());
+
         RegionCoordinates pistonRegion = RegionCoordinates.fromLocation(pistonBlock.getLocation());
         if (this.nearRegionPost(pistonBlock.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius + 12))
         {
@@ -282,6 +335,9 @@ public class BlockEventHandler implements Listener
 
         if (!pistonBlock.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 
+        //the moved blocks may cross into the next chunk over, so any cached scan results for either are out of date
+        markMovedBlocksDirty(pistonBlock, event.getBlocks(), event.getDirection());
+
         RegionCoordinates pistonRegion = RegionCoordinates.fromLocation(pistonBlock.getLocation());
         if (this.nearRegionPost(pistonBlock.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius + 12))
         {
@@ -297,6 +353,21 @@ public class BlockEventHandler implements Listener
         }
     }
 
+    private static void markMovedBlocksDirty(Block pistonBlock, List<Block> blocks, BlockFace direction)
+    {
+        ScanChunkCache scanChunkCache = PopulationDensity.instance.scanChunkCache;
+        if (scanChunkCache == null) return;
+
+        //the piston head moves too
+        scanChunkCache.markDirty(pistonBlock.getRelative(direction));
+
+        for (Block block : blocks)
+        {
+            scanChunkCache.markDirty(block);
+            scanChunkCache.markDirty(block.getRelative(direction));
+        }
+    }
+
     //determines whether or not you're "near" a region post
     private boolean nearRegionPost(Location location, RegionCoordinates region, int howClose)
     {
@@ -0,0 +1,374 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+//what a region scan learns from one chunk on its own, without looking at any other chunk
+//the pass-through blocks are split into connected pieces ("components"), and every counted block is attributed to the component(s) it touches
+//ParallelRegionScanner stitches these together across chunk borders to find out which components the region scan would actually reach
+//depends only on the snapshot and the scan settings, never on where the chunk sits in the region
+class ChunkScanResult
+{
+    static final int CHUNK_SIZE = 16;
+
+    //chunk sides, for the border faces
+    static final int WEST = 0;   //x == 0
+    static final int EAST = 1;   //x == 15
+    static final int NORTH = 2;  //z == 0
+    static final int SOUTH = 3;  //z == 15
+
+    //face values which aren't component labels
+    static final char NONE = 0;
+    static final char SKY = 0xFFFF;
+    private static final int MAX_LABELS = SKY - 1;
+
+    //cell kinds which aren't material categories
+    private static final byte DEAD = -1;       //below the depth boundary, the scan never walks or counts it
+    private static final byte OPEN_SKY = -2;   //above the terrain in surface-seeded mode
+
+    //the settings this result was worked out with
+    final int height;
+    final int minY;
+    final boolean seedFromSurface;
+    final byte[] categories;
+
+    //number of components, labelled 1 through labelCount
+    int labelCount;
+
+    //blocks touching exactly one component and no other chunk, indexed label * CATEGORY_COUNT + category
+    int[] tallies;
+
+    //whether each component touches the open sky inside this chunk (surface-seeded mode only)
+    boolean[] skyAdjacent;
+
+    //blocks which sit right beside the open sky inside this chunk, so the scan always counts them (surface-seeded mode only)
+    final int[] skyTally = new int[ScanMaterials.CATEGORY_COUNT];
+
+    //what's in each position along the four chunk sides, indexed (side * 16 + i) * height + y
+    //NONE, SKY, or a component label
+    char[] faces;
+
+    //blocks which touch more than one component or sit on a chunk side, packed as category, reference count, references...
+    //a positive reference is a local label, a negative one is -(1 + (side * 16 + i) * height + y) for the neighboring chunk's position across that side
+    int[] contacts = new int[64];
+    int contactsLength = 0;
+    int contactCount = 0;
+
+    //for each x, the first z with air at the very top of the chunk and that position's label (for the single start position mode)
+    final int[] topAirZ = new int[CHUNK_SIZE];
+    final int[] topAirLabel = new int[CHUNK_SIZE];
+
+    private ChunkScanResult(int height, int minY, boolean seedFromSurface, byte[] categories)
+    {
+        this.height = height;
+        this.minY = minY;
+        this.seedFromSurface = seedFromSurface;
+        this.categories = categories;
+        this.faces = new char[4 * CHUNK_SIZE * height];
+        Arrays.fill(this.topAirZ, -1);
+    }
+
+    //examines every block in a snapshot
+    static ChunkScanResult scan(ChunkSnapshot snapshot, int height, int minY, boolean seedFromSurface)
+    {
+        byte[] categories = ScanMaterials.getCategories();
+        ChunkScanResult result = new ChunkScanResult(height, minY, seedFromSurface, categories);
+
+        //positions are packed as (y * 16 + z) * 16 + x, so neighbors are +-1, +-16 and +-256 away
+        int layer = CHUNK_SIZE * CHUNK_SIZE;
+        int cellCount = layer * height;
+        byte[] kinds = new byte[cellCount];
+        int[] labels = new int[cellCount];
+
+        //in surface-seeded mode, the first y above the terrain in each column (indexed z * 16 + x), the same way ScanRegionTask finds it
+        int[] surfaceHeights = null;
+        if (seedFromSurface)
+        {
+            surfaceHeights = new int[layer];
+            for (int z = 0; z < CHUNK_SIZE; z++)
+            {
+                for (int x = 0; x < CHUNK_SIZE; x++)
+                {
+                    surfaceHeights[z * CHUNK_SIZE + x] = Math.max(0, Math.min(height, snapshot.getHighestBlockYAt(x, z)));
+                }
+            }
+        }
+
+        //sort every block into a category
+        for (int y = 0; y < height; y++)
+        {
+            for (int z = 0; z < CHUNK_SIZE; z++)
+            {
+                for (int x = 0; x < CHUNK_SIZE; x++)
+                {
+                    int cell = (y * CHUNK_SIZE + z) * CHUNK_SIZE + x;
+                    Material material = snapshot.getBlockType(x, y, z);
+
+                    if (y == height - 1 && material == Material.AIR && result.topAirZ[x] < 0)
+                    {
+                        result.topAirZ[x] = z;
+                    }
+
+                    if (surfaceHeights != null && y >= surfaceHeights[z * CHUNK_SIZE + x])
+                    {
+                        kinds[cell] = OPEN_SKY;
+                    } else if (y < minY || material == null)
+                    {
+                        kinds[cell] = DEAD;
+                    } else
+                    {
+                        kinds[cell] = categories[material.ordinal()];
+                    }
+                }
+            }
+        }
+
+        //label the connected pieces of pass-through blocks
+        ScanFrontierQueue queue = new ScanFrontierQueue(layer);
+        boolean[] skyAdjacent = new boolean[16];
+        int labelCount = 0;
+        for (int start = 0; start < cellCount; start++)
+        {
+            if (kinds[start] != ScanMaterials.PASS_THROUGH || labels[start] != 0) continue;
+
+            if (labelCount == MAX_LABELS) throw new IllegalStateException("Too many separate open spaces in one chunk to label.");
+            int label = ++labelCount;
+            boolean touchesSky = false;
+
+            labels[start] = label;
+            queue.add(start);
+            while (!queue.isEmpty())
+            {
+                int cell = queue.remove();
+                int x = cell % CHUNK_SIZE;
+                int z = (cell / CHUNK_SIZE) % CHUNK_SIZE;
+                int y = cell / layer;
+
+                if (surfaceHeights != null && !touchesSky && isBesideSky(surfaceHeights, x, y, z)) touchesSky = true;
+
+                if (x > 0) visit(kinds, labels, queue, cell - 1, label);
+                if (x < CHUNK_SIZE - 1) visit(kinds, labels, queue, cell + 1, label);
+                if (z > 0) visit(kinds, labels, queue, cell - CHUNK_SIZE, label);
+                if (z < CHUNK_SIZE - 1) visit(kinds, labels, queue, cell + CHUNK_SIZE, label);
+                if (y > 0) visit(kinds, labels, queue, cell - layer, label);
+                if (y < height - 1) visit(kinds, labels, queue, cell + layer, label);
+            }
+
+            if (label >= skyAdjacent.length) skyAdjacent = Arrays.copyOf(skyAdjacent, skyAdjacent.length * 2);
+            skyAdjacent[label] = touchesSky;
+        }
+
+        result.labelCount = labelCount;
+        result.skyAdjacent = Arrays.copyOf(skyAdjacent, labelCount + 1);
+        result.tallies = new int[(labelCount + 1) * ScanMaterials.CATEGORY_COUNT];
+
+        for (int x = 0; x < CHUNK_SIZE; x++)
+        {
+            if (result.topAirZ[x] >= 0) result.topAirLabel[x] = labels[((height - 1) * CHUNK_SIZE + result.topAirZ[x]) * CHUNK_SIZE + x];
+        }
+
+        //attribute every counted block to the component(s) it touches
+        int[] references = new int[6];
+        for (int cell = 0; cell < cellCount; cell++)
+        {
+            int category = kinds[cell];
+            if (category < ScanMaterials.WOOD) continue;
+
+            int x = cell % CHUNK_SIZE;
+            int z = (cell / CHUNK_SIZE) % CHUNK_SIZE;
+            int y = cell / layer;
+
+            //blocks beside the open sky are where a surface-seeded scan starts, so they always count
+            if (surfaceHeights != null && isBesideSky(surfaceHeights, x, y, z))
+            {
+                result.skyTally[category]++;
+                continue;
+            }
+
+            int referenceCount = 0;
+            boolean onBorder = false;
+
+            if (x > 0) referenceCount = addReference(references, referenceCount, labels[cell - 1]);
+            else
+            {
+                references[referenceCount++] = -(1 + (WEST * CHUNK_SIZE + z) * height + y);
+                onBorder = true;
+            }
+
+            if (x < CHUNK_SIZE - 1) referenceCount = addReference(references, referenceCount, labels[cell + 1]);
+            else
+            {
+                references[referenceCount++] = -(1 + (EAST * CHUNK_SIZE + z) * height + y);
+                onBorder = true;
+            }
+
+            if (z > 0) referenceCount = addReference(references, referenceCount, labels[cell - CHUNK_SIZE]);
+            else
+            {
+                references[referenceCount++] = -(1 + (NORTH * CHUNK_SIZE + x) * height + y);
+                onBorder = true;
+            }
+
+            if (z < CHUNK_SIZE - 1) referenceCount = addReference(references, referenceCount, labels[cell + CHUNK_SIZE]);
+            else
+            {
+                references[referenceCount++] = -(1 + (SOUTH * CHUNK_SIZE + x) * height + y);
+                onBorder = true;
+            }
+
+            if (y > 0) referenceCount = addReference(references, referenceCount, labels[cell - layer]);
+            if (y < height - 1) referenceCount = addReference(references, referenceCount, labels[cell + layer]);
+
+            if (referenceCount == 0) continue;
+
+            if (referenceCount == 1 && !onBorder)
+            {
+                result.tallies[references[0] * ScanMaterials.CATEGORY_COUNT + category]++;
+            } else
+            {
+                result.addContact(category, references, referenceCount);
+            }
+        }
+
+        //results may be kept around for a while, so don't hold on to spare room
+        result.contacts = Arrays.copyOf(result.contacts, result.contactsLength);
+
+        //record the four sides for stitching to the neighboring chunks
+        for (int y = 0; y < height; y++)
+        {
+            for (int i = 0; i < CHUNK_SIZE; i++)
+            {
+                result.faces[(WEST * CHUNK_SIZE + i) * height + y] = faceValue(kinds, labels, (y * CHUNK_SIZE + i) * CHUNK_SIZE);
+                result.faces[(EAST * CHUNK_SIZE + i) * height + y] = faceValue(kinds, labels, (y * CHUNK_SIZE + i) * CHUNK_SIZE + CHUNK_SIZE - 1);
+                result.faces[(NORTH * CHUNK_SIZE + i) * height + y] = faceValue(kinds, labels, (y * CHUNK_SIZE) * CHUNK_SIZE + i);
+                result.faces[(SOUTH * CHUNK_SIZE + i) * height + y] = faceValue(kinds, labels, (y * CHUNK_SIZE + CHUNK_SIZE - 1) * CHUNK_SIZE + i);
+            }
+        }
+
+        return result;
+    }
+
+    char getFace(int side, int i, int y)
+    {
+        return this.faces[(side * CHUNK_SIZE + i) * this.height + y];
+    }
+
+    //what a surface-seeded scan of this chunk alone would count, for estimating a region's totals from a sample of its chunks
+    //blocks which the scan could only reach through a neighboring chunk aren't counted, since the neighbors aren't known
+    int[] getCountsReachedFromSky()
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+        if (!this.seedFromSurface) return counts;
+
+        for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+        {
+            counts[category] += this.skyTally[category];
+        }
+
+        for (int label = 1; label <= this.labelCount; label++)
+        {
+            if (!this.skyAdjacent[label]) continue;
+
+            for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+            {
+                counts[category] += this.tallies[label * ScanMaterials.CATEGORY_COUNT + category];
+            }
+        }
+
+        int i = 0;
+        while (i < this.contactsLength)
+        {
+            int category = this.contacts[i++];
+            int referenceCount = this.contacts[i++];
+            for (int r = 0; r < referenceCount; r++)
+            {
+                int reference = this.contacts[i + r];
+                if (reference > 0 && this.skyAdjacent[reference])
+                {
+                    counts[category]++;
+                    break;
+                }
+            }
+            i += referenceCount;
+        }
+
+        return counts;
+    }
+
+    //approximate memory held by this result, for the scan log
+    long getSizeInBytes()
+    {
+        return this.faces.length * 2L + this.tallies.length * 4L + this.skyAdjacent.length + this.contacts.length * 4L + 256;
+    }
+
+    //true when a position in a non-sky column is where a surface-seeded scan would start: right under the sky, or beside another column's sky
+    private static boolean isBesideSky(int[] surfaceHeights, int x, int y, int z)
+    {
+        int column = z * CHUNK_SIZE + x;
+        if (y == surfaceHeights[column] - 1) return true;
+        if (x > 0 && y >= surfaceHeights[column - 1]) return true;
+        if (x < CHUNK_SIZE - 1 && y >= surfaceHeights[column + 1]) return true;
+        if (z > 0 && y >= surfaceHeights[column - CHUNK_SIZE]) return true;
+        if (z < CHUNK_SIZE - 1 && y >= surfaceHeights[column + CHUNK_SIZE]) return true;
+        return false;
+    }
+
+    private static void visit(byte[] kinds, int[] labels, ScanFrontierQueue queue, int cell, int label)
+    {
+        if (kinds[cell] != ScanMaterials.PASS_THROUGH || labels[cell] != 0) return;
+
+        labels[cell] = label;
+        queue.add(cell);
+    }
+
+    //adds a local label to a reference list unless it's zero or already there
+    private static int addReference(int[] references, int referenceCount, int label)
+    {
+        if (label == 0) return referenceCount;
+        for (int i = 0; i < referenceCount; i++)
+        {
+            if (references[i] == label) return referenceCount;
+        }
+
+        references[referenceCount] = label;
+        return referenceCount + 1;
+    }
+
+    private static char faceValue(byte[] kinds, int[] labels, int cell)
+    {
+        if (kinds[cell] == OPEN_SKY) return SKY;
+        return (char)labels[cell];
+    }
+
+    private void addContact(int category, int[] references, int referenceCount)
+    {
+        int needed = this.contactsLength + 2 + referenceCount;
+        if (needed > this.contacts.length) this.contacts = Arrays.copyOf(this.contacts, Math.max(needed, this.contacts.length * 2));
+
+        this.contacts[this.contactsLength++] = category;
+        this.contacts[this.contactsLength++] = referenceCount;
+        System.arraycopy(references, 0, this.contacts, this.contactsLength, referenceCount);
+        this.contactsLength += referenceCount;
+        this.contactCount++;
+    }
+}
@@ -49,8 +49,10 @@ import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
@@ -64,9 +66,26 @@ public class DataStore implements TabCompleter
     //path information, for where stuff stored on disk is well...  stored
     private final static String dataLayerFolderPath = "plugins" + File.separator + "PopulationDensityData";
     private final static String playerDataFolderPath = dataLayerFolderPath + File.separator + "PlayerData";
+    private final static String playerDataLogFilePath = dataLayerFolderPath + File.separator + "playerData.log";
     private final static String regionDataFolderPath = dataLayerFolderPath + File.separator + "RegionData";
     public final static String configFilePath = dataLayerFolderPath + File.separator + "config.yml";
     final static String messagesFilePath = dataLayerFolderPath + File.separator + "messages.yml";
+    private final static String scanHistoryFolderPath = dataLayerFolderPath + File.separator + "ScanHistory";
+    private final static String prefilterRejectionsFilePath = dataLayerFolderPath + File.separator + "prefilterRejections.txt";
+    final static String censusFolderPath = dataLayerFolderPath + File.separator + "Census";
+    final static String pristineResourcesFilePath = dataLayerFolderPath + File.separator + "pristineResources.txt";
+
+    //results of past region scans
+    final ScanHistory scanHistory = new ScanHistory(scanHistoryFolderPath);
+
+    //player data files are written in the background
+    final PlayerDataWriter playerDataWriter;
+
+    //all the players' data in one file instead of one file each, if configured (see PlayerDataLog)
+    private final PlayerDataLog playerDataLog;
+
+    //regions ruled out for new players without a scan
+    final RegionPrefilter regionPrefilter = new RegionPrefilter(prefilterRejectionsFilePath);
 
     //in-memory cache for messages
     private String[] messages;
@@ -82,12 +101,16 @@ public class DataStore implements TabCompleter
     private ConcurrentHashMap<RegionCoordinates, String> coordsToNameMap = new ConcurrentHashMap<RegionCoordinates, String>();
 
     //initialization!
-    public DataStore(List<String> regionNames)
+    public DataStore(List<String> regionNames, boolean usePlayerDataLog)
     {
         //ensure data folders exist
         new File(playerDataFolderPath).mkdirs();
         new File(regionDataFolderPath).mkdirs();
 
+        //the log imports the player files in the background the first time (see PlayerDataWriter)
+        this.playerDataLog = usePlayerDataLog ? new PlayerDataLog(playerDataLogFilePath, playerDataFolderPath) : null;
+        this.playerDataWriter = new PlayerDataWriter(playerDataFolderPath, this.playerDataLog);
+
         this.regionNamesList = regionNames.toArray(new String[]{});
 
         this.loadMessages();
@@ -130,67 +153,131 @@ public class DataStore implements TabCompleter
         PopulationDensity.AddLogEntry("Open region: \"" + this.getRegionName(this.getOpenRegion()) + "\" at " + this.getOpenRegion().toString() + ".");
     }
 
-    //used in the spiraling code below (see findNextRegion())
+    //used in the spiraling code below (see RegionSpiral)
     private enum Direction
     {
         left, right, up, down
     }
 
-    //starts at region 0,0 and spirals outward until it finds a region which hasn't been initialized
-    //sets private variables for openRegion and nextRegion when it's done
+    //walks region coordinates from 0,0 outward in a spiral, one region at a time, forever
     //this may look like black magic, but seriously, it produces a tight spiral on a grid
     //coding this made me reminisce about seemingly pointless computer science exercises in college
-    public int findNextRegion()
+    private static class RegionSpiral implements Iterator<RegionCoordinates>
     {
-        //spiral out from region coordinates 0, 0 until we find coordinates for an uninitialized region
-        int x = 0;
-        int z = 0;
+        private int x = 0;
+        private int z = 0;
+        private boolean started = false;
 
-        //keep count of the regions encountered
-        int regionCount = 0;
+        private Direction direction = Direction.down;   //direction to search
+        private int sideLength = 1;                    //maximum number of regions to move in this direction before changing directions
+        private int stepsOnSide = 0;                     //regions moved so far in this direction
+        private int side = 0;                            //increments each time we change directions.  this tells us when to add length to each side
 
-        //initialization
-        Direction direction = Direction.down;   //direction to search
-        int sideLength = 1;                    //maximum number of regions to move in this direction before changing directions
-        int side = 0;                            //increments each time we change directions.  this tells us when to add length to each side
-        this.openRegionCoordinates = new RegionCoordinates(0, 0);
-        this.nextRegionCoordinates = new RegionCoordinates(0, 0);
+        @Override
+        public boolean hasNext()
+        {
+            return true;
+        }
 
-        //while the next region coordinates are taken, walk the spiral
-        while (this.getRegionName(this.nextRegionCoordinates) != null)
+        @Override
+        public RegionCoordinates next()
         {
-            //loop for one side of the spiral
-            for (int i = 0; i < sideLength && this.getRegionName(this.nextRegionCoordinates) != null; i++)
+            //the spiral starts at 0,0 itself
+            if (!this.started)
             {
-                regionCount++;
+                this.started = true;
+                return new RegionCoordinates(0, 0);
+            }
 
-                //converts a direction to a change in X or Z
-                if (direction == Direction.down) z++;
-                else if (direction == Direction.left) x--;
-                else if (direction == Direction.up) z--;
-                else x++;
+            //converts a direction to a change in X or Z
+            if (this.direction == Direction.down) this.z++;
+            else if (this.direction == Direction.left) this.x--;
+            else if (this.direction == Direction.up) this.z--;
+            else this.x++;
 
-                this.openRegionCoordinates = this.nextRegionCoordinates;
-                this.nextRegionCoordinates = new RegionCoordinates(x, z);
+            //after finishing a side, change directions
+            this.stepsOnSide++;
+            if (this.stepsOnSide == this.sideLength)
+            {
+                this.stepsOnSide = 0;
+
+                if (this.direction == Direction.down) this.direction = Direction.left;
+                else if (this.direction == Direction.left) this.direction = Direction.up;
+                else if (this.direction == Direction.up) this.direction = Direction.right;
+                else this.direction = Direction.down;
+
+                //keep count of the completed sides
+                this.side++;
+
+                //on even-numbered sides starting with side == 2, increase the length of each side
+                if (this.side % 2 == 0) this.sideLength++;
             }
 
-            //after finishing a side, change directions
-            if (direction == Direction.down) direction = Direction.left;
-            else if (direction == Direction.left) direction = Direction.up;
-            else if (direction == Direction.up) direction = Direction.right;
-            else direction = Direction.down;
+            return new RegionCoordinates(this.x, this.z);
+        }
 
-            //keep count of the completed sides
-            side++;
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    //starts at region 0,0 and spirals outward until it finds a region which hasn't been initialized
+    //sets private variables for openRegion and nextRegion when it's done
+    public int findNextRegion()
+    {
+        //keep count of the regions encountered
+        int regionCount = 0;
+
+        RegionSpiral spiral = new RegionSpiral();
+        this.nextRegionCoordinates = spiral.next();
+        this.openRegionCoordinates = this.nextRegionCoordinates;
 
-            //on even-numbered sides starting with side == 2, increase the length of each side
-            if (side % 2 == 0) sideLength++;
+        //while the next region coordinates are taken, walk the spiral
+        while (this.getRegionName(this.nextRegionCoordinates) != null)
+        {
+            regionCount++;
+            this.openRegionCoordinates = this.nextRegionCoordinates;
+            this.nextRegionCoordinates = spiral.next();
         }
 
         //return total number of regions seen
         return regionCount;
     }
 
+    //lists the coordinates addRegion() would use next, in order, without naming any of them
+    //walks the same spiral as findNextRegion(), skipping coordinates which already have a name
+    public List<RegionCoordinates> getUpcomingRegions(int count)
+    {
+        ArrayList<RegionCoordinates> upcoming = new ArrayList<RegionCoordinates>();
+
+        RegionSpiral spiral = new RegionSpiral();
+        while (upcoming.size() < count)
+        {
+            RegionCoordinates coordinates = spiral.next();
+            if (this.getRegionName(coordinates) == null) upcoming.add(coordinates);
+        }
+
+        return upcoming;
+    }
+
+    //every named region, sorted by coordinates so the order is the same every time
+    List<RegionCoordinates> getNamedRegions()
+    {
+        ArrayList<RegionCoordinates> regions = new ArrayList<RegionCoordinates>(this.coordsToNameMap.keySet());
+        Collections.sort(regions, new Comparator<RegionCoordinates>()
+        {
+            @Override
+            public int compare(RegionCoordinates a, RegionCoordinates b)
+            {
+                return a.x != b.x ? Integer.compare(a.x, b.x) : Integer.compare(a.z, b.z);
+            }
+        });
+
+        return regions;
+    }
+
     //picks a region at random (sort of)
     public RegionCoordinates getRandomRegion(RegionCoordinates regionToAvoid)
     {
@@ -218,41 +305,8 @@ public class DataStore implements TabCompleter
         //save that data in memory
         this.playerNameToPlayerDataMap.put(player.getUniqueId().toString(), data);
 
-        BufferedWriter outStream = null;
-        try
-        {
-            //open the player's file
-            File playerFile = new File(playerDataFolderPath + File.separator + player.getUniqueId().toString());
-            playerFile.createNewFile();
-            outStream = new BufferedWriter(new FileWriter(playerFile));
-
-            //first line is home region coordinates
-            outStream.write(data.homeRegion.toString());
-            outStream.newLine();
-
-            //second line is last disconnection date,
-            //note use of the ROOT locale to avoid problems related to regional settings on the server being updated
-            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.FULL, DateFormat.FULL, Locale.ROOT);
-            outStream.write(dateFormat.format(data.lastDisconnect));
-            outStream.newLine();
-
-            //third line is login priority
-            outStream.write(String.valueOf(data.loginPriority));
-            outStream.newLine();
-        }
-
-        //if any problem, log it
-        catch (Exception e)
-        {
-            PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + player.getName() + "\": " + e.getMessage());
-        }
-
-        try
-        {
-            //close the file
-            if (outStream != null) outStream.close();
-        }
-        catch (IOException exception) {}
+        //the file is written in the background (see PlayerDataWriter)
+        this.playerDataWriter.save(player.getUniqueId().toString(), player.getName(), data);
     }
 
     public PlayerData getPlayerData(OfflinePlayer player)
@@ -262,13 +316,34 @@ public class DataStore implements TabCompleter
 
         if (data != null) return data;
 
-        //if not there, try to load the player from file using UUID
-        loadPlayerDataFromFile(player.getUniqueId().toString(), player.getUniqueId().toString());
+        //a save which hasn't reached the file yet is newer than the file
+        data = this.playerDataWriter.getPending(player.getUniqueId().toString());
+        if (data != null)
+        {
+            this.playerNameToPlayerDataMap.put(player.getUniqueId().toString(), data);
+            return data;
+        }
 
-        //check again
-        data = this.playerNameToPlayerDataMap.get(player.getUniqueId().toString());
+        //then the log, if it's in use and has finished importing the player files
+        //(every file named after a UUID is in the log by then, so there's no need to look for one)
+        if (this.playerDataLog != null && this.playerDataLog.isReady())
+        {
+            data = this.playerDataLog.load(player.getUniqueId());
+            if (data != null)
+            {
+                this.playerNameToPlayerDataMap.put(player.getUniqueId().toString(), data);
+                return data;
+            }
+        } else
+        {
+            //if not there, try to load the player from file using UUID
+            loadPlayerDataFromFile(player.getUniqueId().toString(), player.getUniqueId().toString());
 
-        if (data != null) return data;
+            //check again
+            data = this.playerNameToPlayerDataMap.get(player.getUniqueId().toString());
+
+            if (data != null) return data;
+        }
 
         //if still not there, try player name
         loadPlayerDataFromFile(player.getName(), player.getUniqueId().toString());
@@ -284,12 +359,21 @@ public class DataStore implements TabCompleter
     private void loadPlayerDataFromFile(String source, String dest)
     {
         //load player data into memory
-        File playerFile = new File(playerDataFolderPath + File.separator + source);
+        PlayerData playerData = readPlayerDataFile(new File(playerDataFolderPath + File.separator + source));
 
+        //shove into memory for quick access
+        if (playerData != null) this.playerNameToPlayerDataMap.put(dest, playerData);
+    }
+
+    //reads one player's file, or returns null if there's no file (or it can't be read)
+    //also used to import the files into the player data log (see PlayerDataLog)
+    static PlayerData readPlayerDataFile(File playerFile)
+    {
+        PlayerData playerData = null;
         BufferedReader inStream = null;
         try
         {
-            PlayerData playerData = new PlayerData();
+            playerData = new PlayerData();
             inStream = new BufferedReader(new FileReader(playerFile.getAbsolutePath()));
 
             //first line is home region coordinates
@@ -332,21 +416,19 @@ public class DataStore implements TabCompleter
                     playerData.loginPriority = 0;
                 }
             }
-
-            //shove into memory for quick access
-            this.playerNameToPlayerDataMap.put(dest, playerData);
         }
 
         //if the file isn't found, just don't do anything (probably a new-to-server player)
         catch (FileNotFoundException e)
         {
-            return;
+            return null;
         }
 
         //if there's any problem with the file's content, log an error message and skip it
         catch (Exception e)
         {
-            PopulationDensity.AddLogEntry("Unable to load data for player \"" + source + "\": " + e.getMessage());
+            PopulationDensity.AddLogEntry("Unable to load data for player \"" + playerFile.getName() + "\": " + e.getMessage());
+            playerData = null;
         }
 
         try
@@ -354,6 +436,8 @@ public class DataStore implements TabCompleter
             if (inStream != null) inStream.close();
         }
         catch (IOException exception) {}
+
+        return playerData;
     }
 
     //adds a new region, assigning it a name and updating local variables accordingly
@@ -780,6 +864,23 @@ public class DataStore implements TabCompleter
         this.addDefault(defaults, Messages.HopperLimitReached, "To prevent server lag, hoppers are limited to {0} per chunk.", "0: maximum hoppers per chunk");
         this.addDefault(defaults, Messages.OutsideWorldBorder, "The region you are attempting to teleport to is outside the world border.", null);
         this.addDefault(defaults, Messages.Wilderness, "Wilderness", null);
+        this.addDefault(defaults, Messages.RegionNotFound, "There's no region named \"{0}\".  Use /ListRegions to list all regions.", "0: specified region name");
+        this.addDefault(defaults, Messages.NoScanHistory, "The {0} region hasn't been scanned yet.", "0: region name");
+        this.addDefault(defaults, Messages.ScanHistoryHeader, "Most recent resource scans of the {0} region:", "0: region name");
+        this.addDefault(defaults, Messages.ScanHistoryLine, "{0}: {1}.  Wood {2}, resource score {3}, player blocks {4}.", "0: date and time, 1: verdict, 2: wood count, 3: resource score, 4: player block count");
+        this.addDefault(defaults, Messages.ScanVerdictSuitable, "suitable for new players", null);
+        this.addDefault(defaults, Messages.ScanVerdictInsufficientResources, "insufficient resources", null);
+        this.addDefault(defaults, Messages.ScanVerdictOvercrowded, "overcrowded", null);
+        this.addDefault(defaults, Messages.NoScansRunning, "No region scans are running or waiting to start.", null);
+        this.addDefault(defaults, Messages.ScanStatusHeader, "Region scans: {0} running (at most {1} at once), {2} waiting.", "0: running scans, 1: maximum concurrent scans, 2: waiting scans");
+        this.addDefault(defaults, Messages.ScanStatusRunning, "{0}: {1}% done, {2} seconds so far, {3} in use.", "0: region name, 1: percent done, 2: elapsed seconds, 3: memory used by the scan");
+        this.addDefault(defaults, Messages.ScanStatusWaiting, "{0}: waiting to start.", "0: region name");
+        this.addDefault(defaults, Messages.ScansCancelled, "Cancelled {0} region scan(s).", "0: number of scans cancelled");
+        this.addDefault(defaults, Messages.CensusStarted, "Started a census of every named region: {0} to scan, {1} already done.  Results go to {2}.", "0: regions left to scan, 1: regions already done, 2: output file");
+        this.addDefault(defaults, Messages.CensusAlreadyRunning, "A census is already running.  Use /PDCensus status to check on it.", null);
+        this.addDefault(defaults, Messages.CensusStopped, "Stopped the census after {0} of {1} regions.  /PDCensus start picks up where it left off.", "0: regions done, 1: regions in the census");
+        this.addDefault(defaults, Messages.CensusNotRunning, "No census is running.  /PDCensus start begins one, or continues the last one.", null);
+        this.addDefault(defaults, Messages.CensusStatus, "Census: {0} of {1} regions done, {2}.", "0: regions done, 1: regions in the census, 2: what it's doing now");
 
         //load the config file
         FileConfiguration config = YamlConfiguration.loadConfiguration(new File(messagesFilePath));
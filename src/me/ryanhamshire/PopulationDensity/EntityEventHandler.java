@@ -97,6 +97,16 @@ public class EntityEventHandler implements Listener
             explodeEvent.blockList().clear(); //All the noise and terror, none of the destruction (whew!).
         }
 
+        //any cached scan results for the chunks with destroyed blocks are out of date now
+        ScanChunkCache scanChunkCache = PopulationDensity.instance.scanChunkCache;
+        if (scanChunkCache != null)
+        {
+            for (Block block : explodeEvent.blockList())
+            {
+                scanChunkCache.markDirty(block);
+            }
+        }
+
         //NOTE!  Why not distance?  Because distance squared is cheaper and will be good enough for this.
     }
 
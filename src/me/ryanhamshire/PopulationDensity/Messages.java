@@ -65,5 +65,22 @@ public enum Messages
     RegionAlreadyNamed,
     HopperLimitReached,
     OutsideWorldBorder,
-    Wilderness
+    Wilderness,
+    RegionNotFound,
+    NoScanHistory,
+    ScanHistoryHeader,
+    ScanHistoryLine,
+    ScanVerdictSuitable,
+    ScanVerdictInsufficientResources,
+    ScanVerdictOvercrowded,
+    NoScansRunning,
+    ScanStatusHeader,
+    ScanStatusRunning,
+    ScanStatusWaiting,
+    ScansCancelled,
+    CensusStarted,
+    CensusAlreadyRunning,
+    CensusStopped,
+    CensusNotRunning,
+    CensusStatus
 }
@@ -0,0 +1,130 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//reads Minecraft's NBT format (as stored in region files) into plain Java objects
+//compounds become maps, lists become lists, arrays stay arrays, and numbers and strings are boxed
+//just enough to read chunks for scans (see AnvilRegionReader), so there's no writing
+class NbtReader
+{
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    //files are a single named compound
+    static Map<String, Object> readRoot(DataInput input) throws IOException
+    {
+        int type = input.readUnsignedByte();
+        if (type != TAG_COMPOUND) throw new IOException("NBT data doesn't start with a compound (tag type " + type + ")");
+
+        input.readUTF();
+        return readCompound(input);
+    }
+
+    private static Map<String, Object> readCompound(DataInput input) throws IOException
+    {
+        HashMap<String, Object> compound = new HashMap<String, Object>();
+        int type;
+        while ((type = input.readUnsignedByte()) != TAG_END)
+        {
+            String name = input.readUTF();
+            compound.put(name, readPayload(input, type));
+        }
+
+        return compound;
+    }
+
+    private static Object readPayload(DataInput input, int type) throws IOException
+    {
+        switch (type)
+        {
+            case TAG_BYTE:
+                return input.readByte();
+            case TAG_SHORT:
+                return input.readShort();
+            case TAG_INT:
+                return input.readInt();
+            case TAG_LONG:
+                return input.readLong();
+            case TAG_FLOAT:
+                return input.readFloat();
+            case TAG_DOUBLE:
+                return input.readDouble();
+            case TAG_BYTE_ARRAY:
+            {
+                byte[] array = new byte[readLength(input)];
+                input.readFully(array);
+                return array;
+            }
+            case TAG_STRING:
+                return input.readUTF();
+            case TAG_LIST:
+            {
+                int elementType = input.readUnsignedByte();
+                int length = readLength(input);
+                List<Object> list = new ArrayList<Object>(length);
+                for (int i = 0; i < length; i++)
+                {
+                    list.add(readPayload(input, elementType));
+                }
+                return list;
+            }
+            case TAG_COMPOUND:
+                return readCompound(input);
+            case TAG_INT_ARRAY:
+            {
+                int[] array = new int[readLength(input)];
+                for (int i = 0; i < array.length; i++) array[i] = input.readInt();
+                return array;
+            }
+            case TAG_LONG_ARRAY:
+            {
+                long[] array = new long[readLength(input)];
+                for (int i = 0; i < array.length; i++) array[i] = input.readLong();
+                return array;
+            }
+            default:
+                throw new IOException("unknown NBT tag type " + type);
+        }
+    }
+
+    private static int readLength(DataInput input) throws IOException
+    {
+        int length = input.readInt();
+        if (length < 0) throw new IOException("negative NBT length " + length);
+        return length;
+    }
+}
@@ -0,0 +1,565 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+//counts the same blocks as ScanRegionTask's flood fill, but examines the chunks on several threads at once
+//each chunk is labelled on its own (see ChunkScanResult), then the pieces are joined across chunk borders with a union-find
+//and only the pieces connected to the scan's start position(s) are added up
+class ParallelRegionScanner
+{
+    private static final int CHUNK_SIZE = ChunkScanResult.CHUNK_SIZE;
+
+    //shared by all scans, recreated only when the configured parallelism changes
+    private static ForkJoinPool pool = null;
+
+    private final ChunkSnapshot[][] chunks;
+    private final int maxHeight;
+    private final int minY;
+    private final boolean seedFromSurface;
+    private final int parallelism;
+
+    private final int chunksX;
+    private final int chunksZ;
+    private final ChunkScanResult[] results;
+
+    //where chunk results are remembered between scans, if anywhere
+    private final ScanChunkCache cache;
+    private final int firstChunkX;
+    private final int firstChunkZ;
+    private final long capturedTime;
+    private int cachedChunkCount = 0;
+
+    //where snapshots come from when they're handed over one at a time instead of all up front (see ScanChunkFeed), if anywhere
+    private final ScanChunkFeed feed;
+    private int peakSnapshotsHeld = 0;
+
+    //where progress is reported and cancellation is checked, if anywhere
+    private ScanJob job = null;
+
+    //union-find over every component in the region, with id 0 standing for the open sky
+    private int[] parents;
+    private int[] firstIds;
+
+    ParallelRegionScanner(ChunkSnapshot[][] chunks, int maxHeight, int minY, boolean seedFromSurface, int parallelism)
+    {
+        this(chunks, new ChunkScanResult[chunks.length][chunks[0].length], null, 0, 0, 0, null, maxHeight, minY, seedFromSurface, parallelism);
+    }
+
+    //cachedResults holds results remembered from earlier scans for the chunks which weren't snapshotted again
+    //new results are added to the cache (if any), keyed by chunk coordinates counted from the first chunk's
+    //with a feed, chunks is all nulls and the snapshots are taken from the feed as they arrive
+    ParallelRegionScanner(ChunkSnapshot[][] chunks, ChunkScanResult[][] cachedResults, ScanChunkCache cache, int firstChunkX, int firstChunkZ, long capturedTime,
+                          ScanChunkFeed feed, int maxHeight, int minY, boolean seedFromSurface, int parallelism)
+    {
+        this.chunks = chunks;
+        this.maxHeight = maxHeight;
+        this.minY = minY;
+        this.seedFromSurface = seedFromSurface;
+        this.parallelism = parallelism;
+
+        this.chunksX = chunks.length;
+        this.chunksZ = chunks[0].length;
+        this.results = new ChunkScanResult[this.chunksX * this.chunksZ];
+
+        this.cache = cache;
+        this.firstChunkX = firstChunkX;
+        this.firstChunkZ = firstChunkZ;
+        this.capturedTime = capturedTime;
+        this.feed = feed;
+
+        for (int cx = 0; cx < this.chunksX; cx++)
+        {
+            for (int cz = 0; cz < this.chunksZ; cz++)
+            {
+                ChunkScanResult cached = cachedResults[cx][cz];
+                if (cached == null) continue;
+
+                this.results[cx * this.chunksZ + cz] = cached;
+                this.cachedChunkCount++;
+            }
+        }
+    }
+
+    void setJob(ScanJob job)
+    {
+        this.job = job;
+    }
+
+    //returns counts indexed by ScanMaterials' categories, adding a few lines of statistics for the scan log
+    int[] scan(ArrayList<String> statistics) throws InterruptedException
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+
+        //examine every chunk
+        long startTime = System.nanoTime();
+        int examinedChunkCount;
+        if (this.feed != null)
+        {
+            if (this.job != null) this.job.setWorkTotal(this.feed.getNeededCount());
+            examinedChunkCount = this.examineFedChunks();
+        } else
+        {
+            examinedChunkCount = 0;
+            for (ChunkSnapshot[] row : this.chunks)
+            {
+                for (ChunkSnapshot snapshot : row)
+                {
+                    if (snapshot != null) examinedChunkCount++;
+                }
+            }
+
+            if (this.job != null) this.job.setWorkTotal(examinedChunkCount);
+            getPool(this.parallelism).invoke(new ExamineChunksAction(0, this.results.length));
+        }
+        long examinedTime = System.nanoTime();
+
+        //give every component a region-wide id
+        this.firstIds = new int[this.results.length];
+        int nextId = 1;
+        int componentCount = 0;
+        int contactCount = 0;
+        long resultBytes = 0;
+        for (int i = 0; i < this.results.length; i++)
+        {
+            ChunkScanResult result = this.results[i];
+            this.firstIds[i] = nextId;
+            if (result == null) continue;
+
+            nextId += result.labelCount;
+            componentCount += result.labelCount;
+            contactCount += result.contactCount;
+            resultBytes += result.getSizeInBytes();
+        }
+
+        this.parents = new int[nextId];
+        for (int id = 0; id < nextId; id++) this.parents[id] = id;
+
+        //join components which touch across chunk borders (and the open sky, when seeding from the surface)
+        for (int cx = 0; cx < this.chunksX; cx++)
+        {
+            for (int cz = 0; cz < this.chunksZ; cz++)
+            {
+                ChunkScanResult result = this.getResult(cx, cz);
+                if (result == null) continue;
+
+                if (this.seedFromSurface)
+                {
+                    for (int label = 1; label <= result.labelCount; label++)
+                    {
+                        if (result.skyAdjacent[label]) this.union(this.getId(cx, cz, label), 0);
+                    }
+                }
+
+                this.joinFaces(cx, cz, ChunkScanResult.EAST, cx + 1, cz, ChunkScanResult.WEST);
+                this.joinFaces(cx, cz, ChunkScanResult.SOUTH, cx, cz + 1, ChunkScanResult.NORTH);
+            }
+        }
+
+        //figure out which component the scan reaches
+        int reachedRoot = -1;
+        if (this.seedFromSurface)
+        {
+            reachedRoot = this.find(0);
+        } else
+        {
+            //find a reasonable start position, the same one the flood fill would pick
+            boolean foundStart = false;
+            for (int x = 0; x < this.chunksX * CHUNK_SIZE && !foundStart; x++)
+            {
+                for (int cz = 0; cz < this.chunksZ && !foundStart; cz++)
+                {
+                    ChunkScanResult result = this.getResult(x / CHUNK_SIZE, cz);
+                    if (result == null || result.topAirZ[x % CHUNK_SIZE] < 0) continue;
+
+                    foundStart = true;
+                    int label = result.topAirLabel[x % CHUNK_SIZE];
+                    if (label != 0) reachedRoot = this.find(this.getId(x / CHUNK_SIZE, cz, label));
+                }
+            }
+
+            if (!foundStart)
+            {
+                statistics.add("Unexpected Exception: no open air found at the top of the region to start scanning from.");
+            }
+        }
+
+        //add up the blocks touching the reached component
+        if (reachedRoot >= 0)
+        {
+            for (int cx = 0; cx < this.chunksX; cx++)
+            {
+                for (int cz = 0; cz < this.chunksZ; cz++)
+                {
+                    ChunkScanResult result = this.getResult(cx, cz);
+                    if (result == null) continue;
+
+                    for (int label = 1; label <= result.labelCount; label++)
+                    {
+                        if (this.find(this.getId(cx, cz, label)) != reachedRoot) continue;
+
+                        for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+                        {
+                            counts[category] += result.tallies[label * ScanMaterials.CATEGORY_COUNT + category];
+                        }
+                    }
+
+                    if (this.seedFromSurface)
+                    {
+                        for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+                        {
+                            counts[category] += result.skyTally[category];
+                        }
+                    }
+
+                    this.countContacts(cx, cz, result, reachedRoot, counts);
+                }
+            }
+        }
+
+        long endTime = System.nanoTime();
+
+        //only count chunks examined by this scan, not the ones remembered from earlier scans
+        long positions = (long)examinedChunkCount * CHUNK_SIZE * CHUNK_SIZE * this.maxHeight;
+
+        statistics.add("Scan Mode: " + (this.seedFromSurface ? "seeded from the surface" : "single start position") + ", parallel on " + this.parallelism + " threads, " + this.results.length + " chunks" +
+                (this.feed != null ? ", streamed" : ""));
+        statistics.add("Positions Examined: " + positions + " (" + ScanRegionTask.perSecond(positions, examinedTime - startTime) + " per second), " + componentCount + " open spaces, " + contactCount +
+                " blocks shared between them, " + ScanRegionTask.formatMillis(endTime - examinedTime) + " to join chunks");
+        statistics.add("Scan Memory: " + ScanRegionTask.formatMegabytes(resultBytes + this.parents.length * 4L) + " of chunk results");
+        if (this.cache != null)
+        {
+            statistics.add("Chunk Cache: " + this.cachedChunkCount + " of " + this.results.length + " chunks reused (" + percent(this.cachedChunkCount, this.results.length) + "), " +
+                    this.cache.size() + " of " + this.cache.getMaxEntries() + " cache slots used, " + String.format("%.1f%%", this.cache.getHitRatio() * 100) + " hit ratio overall");
+        }
+        if (this.feed != null)
+        {
+            statistics.add("Snapshot Window: at most " + this.peakSnapshotsHeld + " snapshots held at once (" + this.feed.getPeakQueued() + " of " + this.feed.getWindowSize() + " queued), " +
+                    ScanRegionTask.formatMillis(this.feed.getCaptureNanos()) + " of main thread time over " + this.feed.getTicks() + " ticks to take them, at most " +
+                    ScanRegionTask.formatMillis(this.feed.getMaxTickNanos()) + " in one tick" + (this.feed.getPausedTicks() > 0 ? ", paused for " + this.feed.getPausedTicks() + " ticks of lag" : ""));
+        }
+
+        return counts;
+    }
+
+    //examines snapshots as the main thread hands them over, dropping each one as soon as its result is recorded
+    //with more than one thread, up to one chunk per thread is examined in the background while the next snapshot is taken from the feed
+    //returns how many snapshots were examined
+    private int examineFedChunks() throws InterruptedException
+    {
+        ArrayDeque<ExamineSnapshotAction> inProgress = new ArrayDeque<ExamineSnapshotAction>();
+        ForkJoinPool pool = this.parallelism > 1 ? getPool(this.parallelism) : null;
+        int examinedChunkCount = 0;
+        try
+        {
+            for (int received = 0; received < this.feed.getNeededCount(); received++)
+            {
+                ScanChunkFeed.FedChunk fedChunk = this.feed.take();
+                if (this.job != null) this.job.checkCancelled();
+                if (fedChunk.snapshot == null)
+                {
+                    if (this.job != null) this.job.addWorkDone(1);
+                    continue;
+                }
+                examinedChunkCount++;
+
+                if (pool == null)
+                {
+                    this.peakSnapshotsHeld = Math.max(this.peakSnapshotsHeld, this.feed.getQueuedCount() + 1);
+                    this.examine(fedChunk.index, fedChunk.snapshot);
+                    continue;
+                }
+
+                //don't let snapshots pile up behind busy workers
+                if (inProgress.size() >= this.parallelism) inProgress.removeFirst().join();
+
+                ExamineSnapshotAction action = new ExamineSnapshotAction(fedChunk.index, fedChunk.snapshot);
+                pool.execute(action);
+                inProgress.addLast(action);
+                this.peakSnapshotsHeld = Math.max(this.peakSnapshotsHeld, this.feed.getQueuedCount() + inProgress.size());
+            }
+
+            while (!inProgress.isEmpty()) inProgress.removeFirst().join();
+        }
+
+        //stop the main thread from taking snapshots nobody will examine
+        catch (RuntimeException e)
+        {
+            this.feed.cancel();
+            throw e;
+        }
+        catch (InterruptedException e)
+        {
+            this.feed.cancel();
+            throw e;
+        }
+
+        return examinedChunkCount;
+    }
+
+    //labels one chunk and remembers the result
+    private void examine(int index, ChunkSnapshot snapshot)
+    {
+        if (this.job != null) this.job.checkCancelled();
+
+        int cx = index / this.chunksZ;
+        int cz = index % this.chunksZ;
+        this.results[index] = ChunkScanResult.scan(snapshot, this.maxHeight, this.minY, this.seedFromSurface);
+        if (this.cache != null) this.cache.put(this.firstChunkX + cx, this.firstChunkZ + cz, this.results[index], this.capturedTime);
+
+        if (this.job != null)
+        {
+            this.job.addWorkDone(1);
+            this.job.addMemoryBytes(this.results[index].getSizeInBytes());
+        }
+    }
+
+    //adds the blocks which touch several components or another chunk, counting each once if any of its neighbors is reached
+    private void countContacts(int cx, int cz, ChunkScanResult result, int reachedRoot, int[] counts)
+    {
+        int i = 0;
+        while (i < result.contactsLength)
+        {
+            int category = result.contacts[i++];
+            int referenceCount = result.contacts[i++];
+            boolean reached = false;
+            for (int r = 0; r < referenceCount && !reached; r++)
+            {
+                int reference = result.contacts[i + r];
+                if (reference > 0)
+                {
+                    reached = this.find(this.getId(cx, cz, reference)) == reachedRoot;
+                } else
+                {
+                    //unpack the position on this chunk's side, then look at the neighboring chunk's matching position
+                    int packed = -reference - 1;
+                    int y = packed % result.height;
+                    int side = packed / result.height / CHUNK_SIZE;
+                    int along = (packed / result.height) % CHUNK_SIZE;
+
+                    int neighborX = cx;
+                    int neighborZ = cz;
+                    int neighborSide;
+                    if (side == ChunkScanResult.WEST)
+                    {
+                        neighborX--;
+                        neighborSide = ChunkScanResult.EAST;
+                    } else if (side == ChunkScanResult.EAST)
+                    {
+                        neighborX++;
+                        neighborSide = ChunkScanResult.WEST;
+                    } else if (side == ChunkScanResult.NORTH)
+                    {
+                        neighborZ--;
+                        neighborSide = ChunkScanResult.SOUTH;
+                    } else
+                    {
+                        neighborZ++;
+                        neighborSide = ChunkScanResult.NORTH;
+                    }
+
+                    ChunkScanResult neighbor = this.getResult(neighborX, neighborZ);
+                    if (neighbor == null || y >= neighbor.height) continue;
+
+                    char face = neighbor.getFace(neighborSide, along, y);
+                    if (face == ChunkScanResult.SKY)
+                    {
+                        //beside the open sky, so it's where a surface-seeded scan starts
+                        reached = true;
+                    } else if (face != ChunkScanResult.NONE)
+                    {
+                        reached = this.find(this.getId(neighborX, neighborZ, face)) == reachedRoot;
+                    }
+                }
+            }
+
+            if (reached) counts[category]++;
+            i += referenceCount;
+        }
+    }
+
+    //joins the components on one chunk's side with those on the matching side of its neighbor
+    private void joinFaces(int cx, int cz, int side, int neighborX, int neighborZ, int neighborSide)
+    {
+        ChunkScanResult result = this.getResult(cx, cz);
+        ChunkScanResult neighbor = this.getResult(neighborX, neighborZ);
+        if (result == null || neighbor == null) return;
+
+        int height = Math.min(result.height, neighbor.height);
+        for (int along = 0; along < CHUNK_SIZE; along++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                char face = result.getFace(side, along, y);
+                char neighborFace = neighbor.getFace(neighborSide, along, y);
+                if (face == ChunkScanResult.NONE || neighborFace == ChunkScanResult.NONE) continue;
+                if (face == ChunkScanResult.SKY && neighborFace == ChunkScanResult.SKY) continue;
+
+                int id = face == ChunkScanResult.SKY ? 0 : this.getId(cx, cz, face);
+                int neighborId = neighborFace == ChunkScanResult.SKY ? 0 : this.getId(neighborX, neighborZ, neighborFace);
+                this.union(id, neighborId);
+            }
+        }
+    }
+
+    private static String percent(int part, int whole)
+    {
+        if (whole == 0) return "0.0%";
+        return String.format("%.1f%%", part * 100.0 / whole);
+    }
+
+    private ChunkScanResult getResult(int cx, int cz)
+    {
+        if (cx < 0 || cx >= this.chunksX || cz < 0 || cz >= this.chunksZ) return null;
+        return this.results[cx * this.chunksZ + cz];
+    }
+
+    private int getId(int cx, int cz, int label)
+    {
+        return this.firstIds[cx * this.chunksZ + cz] + label - 1;
+    }
+
+    private int find(int id)
+    {
+        int root = id;
+        while (this.parents[root] != root) root = this.parents[root];
+
+        //flatten the path so later lookups are quick
+        while (this.parents[id] != root)
+        {
+            int next = this.parents[id];
+            this.parents[id] = root;
+            id = next;
+        }
+
+        return root;
+    }
+
+    private void union(int a, int b)
+    {
+        int rootA = this.find(a);
+        int rootB = this.find(b);
+        if (rootA == rootB) return;
+
+        //keep the open sky as the root of its set
+        if (rootB == 0)
+        {
+            this.parents[rootA] = 0;
+        } else
+        {
+            this.parents[rootB] = rootA;
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool(int parallelism)
+    {
+        if (pool == null || pool.getParallelism() != parallelism)
+        {
+            if (pool != null) pool.shutdown();
+
+            pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+            {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                {
+                    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+                    thread.setName("PopulationDensity Scan Worker " + thread.getPoolIndex());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            }, null, false);
+        }
+
+        return pool;
+    }
+
+    //stops the worker threads, if any were started
+    static synchronized void shutdown()
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    //examines a range of chunks, splitting it in half until each piece is a single chunk
+    private class ExamineChunksAction extends RecursiveAction
+    {
+        private final int first;
+        private final int end;
+
+        ExamineChunksAction(int first, int end)
+        {
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.end - this.first <= 1)
+            {
+                for (int i = this.first; i < this.end; i++)
+                {
+                    //skip chunks remembered from an earlier scan
+                    if (results[i] != null) continue;
+
+                    ChunkSnapshot snapshot = chunks[i / chunksZ][i % chunksZ];
+                    if (snapshot == null) continue;
+
+                    examine(i, snapshot);
+                }
+                return;
+            }
+
+            int middle = (this.first + this.end) >>> 1;
+            invokeAll(new ExamineChunksAction(this.first, middle), new ExamineChunksAction(middle, this.end));
+        }
+    }
+
+    //examines a single snapshot handed over by the feed
+    private class ExamineSnapshotAction extends RecursiveAction
+    {
+        private final int index;
+        private ChunkSnapshot snapshot;
+
+        ExamineSnapshotAction(int index, ChunkSnapshot snapshot)
+        {
+            this.index = index;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected void compute()
+        {
+            examine(this.index, this.snapshot);
+
+            //the result has what's needed from the snapshot, so let it go even before this action is joined
+            this.snapshot = null;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+//every player's data in one file, for servers with so many players that a file each has become a burden (PopulationDensity.PlayerDataLog in the config)
+//each save appends a fixed size record to the end of the file, and an index in memory points to each player's latest record
+//once the file is mostly old records, it's compacted:  the latest records are copied to a new file which replaces the old one
+//the first time, the player data folder is imported before anything is written, and left as it was afterwards
+//(going back to a file per player doesn't export the log, so players saved since then would come back with their older files)
+//open(), append() and compaction are for the PlayerDataWriter's thread, load() is for any thread
+class PlayerDataLog
+{
+    //file header:  magic number, format version
+    private static final int MAGIC = 0x50444C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    //record:  UUID (16 bytes), flags (4), home region x and z packed into one long (8), last disconnect in milliseconds (8), login priority (4),
+    //and a CRC32 of all that (4), so a record cut short by a crash is recognized as such
+    private static final int RECORD_SIZE = 44;
+    private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+    private static final int FLAG_HAS_HOME_REGION = 1;
+
+    //compaction waits until the file has at least this many records, and more than this many per player
+    private static final int MIN_RECORDS_TO_COMPACT = 10000;
+    private static final int MAX_RECORDS_PER_PLAYER = 2;
+
+    //records are read and written this many at a time when going through the whole file
+    private static final int RECORDS_PER_BATCH = 1024;
+
+    private final File file;
+    private final File legacyFolder;
+
+    private FileChannel channel = null;
+    private HashMap<UUID, Long> index = new HashMap<UUID, Long>();
+    private long recordCount = 0;
+    private volatile boolean ready = false;
+
+    PlayerDataLog(String filePath, String legacyFolderPath)
+    {
+        this.file = new File(filePath);
+        this.legacyFolder = new File(legacyFolderPath);
+    }
+
+    //true once the player files are imported and the index is built
+    boolean isReady()
+    {
+        return this.ready;
+    }
+
+    void open() throws IOException
+    {
+        if (!this.file.exists()) this.importPlayerFiles();
+
+        FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        HashMap<UUID, Long> index = new HashMap<UUID, Long>();
+        long recordCount;
+        try
+        {
+            recordCount = readIndex(channel, index);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        synchronized (this)
+        {
+            this.channel = channel;
+            this.index = index;
+            this.recordCount = recordCount;
+        }
+
+        this.ready = true;
+        PopulationDensity.AddLogEntry("Player data log opened, " + index.size() + " players in " + recordCount + " records.");
+    }
+
+    //the player's latest record, or null if there isn't one
+    PlayerData load(UUID playerId)
+    {
+        if (!this.ready) return null;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        synchronized (this)
+        {
+            Long position = this.index.get(playerId);
+            if (position == null) return null;
+
+            try
+            {
+                readFully(this.channel, record, position);
+            }
+            catch (IOException e)
+            {
+                PopulationDensity.AddLogEntry("Unexpected exception reading the player data log: " + e.getMessage());
+                return null;
+            }
+        }
+
+        record.flip();
+        if (record.remaining() < RECORD_SIZE || !isIntact(record) || !readId(record).equals(playerId))
+        {
+            PopulationDensity.AddLogEntry("The player data log's record for " + playerId.toString() + " is damaged.");
+            return null;
+        }
+
+        return readData(record);
+    }
+
+    void append(UUID playerId, PlayerData data) throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        writeRecord(record, playerId, data);
+        record.flip();
+
+        boolean compact;
+        synchronized (this)
+        {
+            long position = this.channel.size();
+            writeFully(this.channel, record, position);
+            this.index.put(playerId, position);
+            this.recordCount++;
+
+            compact = this.recordCount >= MIN_RECORDS_TO_COMPACT && this.recordCount > (long)this.index.size() * MAX_RECORDS_PER_PLAYER;
+        }
+
+        if (compact) this.compact();
+    }
+
+    synchronized String getStatus()
+    {
+        if (!this.ready) return "player data log not open yet";
+
+        return "player data log has " + this.index.size() + " players in " + this.recordCount + " records";
+    }
+
+    synchronized void close()
+    {
+        this.ready = false;
+        if (this.channel == null) return;
+
+        try
+        {
+            this.channel.force(true);
+            this.channel.close();
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception closing the player data log: " + e.getMessage());
+        }
+
+        this.channel = null;
+    }
+
+    //builds the index from the whole file, and cuts off anything after the last intact record
+    //a damaged record with intact ones after it is skipped, since records are all the same size and the ones after it can still be found
+    //(it still counts as a record until the next compaction drops it)
+    private static long readIndex(FileChannel channel, HashMap<UUID, Long> index) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) throw new IOException("not a player data log");
+        int version = header.getInt();
+        if (version != VERSION) throw new IOException("unknown player data log version " + version);
+
+        long recordCount = 0;
+        long position = HEADER_SIZE;
+        long intactEnd = HEADER_SIZE;
+        long damagedCount = 0;
+        long size = channel.size();
+        ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_BATCH);
+        while (position + RECORD_SIZE <= size)
+        {
+            batch.clear();
+            readFully(channel, batch, position);
+            batch.flip();
+
+            while (batch.remaining() >= RECORD_SIZE)
+            {
+                ByteBuffer record = batch.slice();
+                record.limit(RECORD_SIZE);
+                if (isIntact(record))
+                {
+                    //anything damaged between the last intact record and this one stays, as a gap
+                    damagedCount += (position - intactEnd) / RECORD_SIZE;
+                    recordCount += (position - intactEnd) / RECORD_SIZE + 1;
+                    index.put(readId(record), position);
+                    intactEnd = position + RECORD_SIZE;
+                }
+
+                position += RECORD_SIZE;
+                batch.position(batch.position() + RECORD_SIZE);
+            }
+        }
+
+        if (damagedCount > 0)
+        {
+            PopulationDensity.AddLogEntry("Skipped " + damagedCount + " damaged records in the player data log.");
+        }
+
+        //a record cut short by a crash, or damaged records with nothing intact after them
+        if (intactEnd < size)
+        {
+            PopulationDensity.AddLogEntry("Discarded " + (size - intactEnd) + " bytes of damaged or incomplete records at the end of the player data log.");
+            channel.truncate(intactEnd);
+        }
+
+        return recordCount;
+    }
+
+    //writes a new log from the player data folder, one record per file named after a UUID
+    //files named after player names (from before UUIDs) aren't imported, since the name can't be matched to a UUID until the player logs in
+    private void importPlayerFiles() throws IOException
+    {
+        long startTime = System.currentTimeMillis();
+        File[] files = this.legacyFolder.listFiles();
+        if (files == null) files = new File[0];
+        PopulationDensity.AddLogEntry("Importing " + files.length + " player files into the player data log...");
+
+        File tempFile = new File(this.file.getPath() + ".tmp");
+        FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        int importedCount = 0;
+        try
+        {
+            ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_BATCH);
+            batch.putInt(MAGIC);
+            batch.putInt(VERSION);
+            long position = 0;
+
+            for (File playerFile : files)
+            {
+                //the server stopping part way through, in which case the import starts over next time
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("interrupted");
+
+                if (!playerFile.isFile()) continue;
+
+                UUID playerId;
+                try
+                {
+                    playerId = UUID.fromString(playerFile.getName());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    continue;
+                }
+
+                PlayerData data = DataStore.readPlayerDataFile(playerFile);
+                if (data == null) continue;
+
+                if (batch.remaining() < RECORD_SIZE)
+                {
+                    batch.flip();
+                    position += writeFully(out, batch, position);
+                    batch.clear();
+                }
+
+                writeRecord(batch, playerId, data);
+                importedCount++;
+            }
+
+            batch.flip();
+            writeFully(out, batch, position);
+            out.force(true);
+            out.close();
+        }
+        catch (IOException e)
+        {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+
+        moveReplacing(tempFile, this.file);
+        PopulationDensity.AddLogEntry("Imported " + importedCount + " players into the player data log in " + (System.currentTimeMillis() - startTime) / 1000 +
+                " seconds.  The player data folder isn't needed anymore, unless the log is turned off again.");
+    }
+
+    //copies each player's latest record to a new file, then swaps it in
+    //appends only come from this thread, so nothing is added while copying, and loads carry on from the old file until the swap
+    private void compact()
+    {
+        long startTime = System.currentTimeMillis();
+        ArrayList<Map.Entry<UUID, Long>> entries;
+        FileChannel in;
+        long oldRecordCount;
+        synchronized (this)
+        {
+            entries = new ArrayList<Map.Entry<UUID, Long>>(new HashMap<UUID, Long>(this.index).entrySet());
+            in = this.channel;
+            oldRecordCount = this.recordCount;
+        }
+
+        //in file order, so the old file is read from start to end
+        Collections.sort(entries, new Comparator<Map.Entry<UUID, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<UUID, Long> a, Map.Entry<UUID, Long> b)
+            {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+
+        File tempFile = new File(this.file.getPath() + ".tmp");
+        HashMap<UUID, Long> newIndex = new HashMap<UUID, Long>(entries.size() * 2);
+        try
+        {
+            FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            try
+            {
+                ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_BATCH);
+                batch.putInt(MAGIC);
+                batch.putInt(VERSION);
+                long position = 0;
+                long newPosition = HEADER_SIZE;
+
+                for (Map.Entry<UUID, Long> entry : entries)
+                {
+                    if (batch.remaining() < RECORD_SIZE)
+                    {
+                        batch.flip();
+                        position += writeFully(out, batch, position);
+                        batch.clear();
+                    }
+
+                    ByteBuffer record = batch.slice();
+                    record.limit(RECORD_SIZE);
+                    readFully(in, record, entry.getValue());
+                    batch.position(batch.position() + RECORD_SIZE);
+
+                    newIndex.put(entry.getKey(), newPosition);
+                    newPosition += RECORD_SIZE;
+                }
+
+                batch.flip();
+                writeFully(out, batch, position);
+                out.force(true);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            tempFile.delete();
+            PopulationDensity.AddLogEntry("Unexpected exception compacting the player data log: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this)
+        {
+            try
+            {
+                this.channel.close();
+                moveReplacing(tempFile, this.file);
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.index = newIndex;
+                this.recordCount = newIndex.size();
+            }
+            catch (IOException e)
+            {
+                PopulationDensity.AddLogEntry("Unexpected exception compacting the player data log: " + e.getMessage());
+                try
+                {
+                    //carry on with the old file, if the new one didn't replace it
+                    this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                catch (IOException reopenException)
+                {
+                    this.channel = null;
+                    this.ready = false;
+                    PopulationDensity.AddLogEntry("Unable to reopen the player data log, player data will be saved to player files until the next restart.");
+                }
+                return;
+            }
+        }
+
+        PopulationDensity.AddLogEntry("Compacted the player data log from " + oldRecordCount + " records to " + newIndex.size() + " in " + (System.currentTimeMillis() - startTime) + "ms.");
+    }
+
+    private static void writeRecord(ByteBuffer buffer, UUID playerId, PlayerData data)
+    {
+        int start = buffer.position();
+        buffer.putLong(playerId.getMostSignificantBits());
+        buffer.putLong(playerId.getLeastSignificantBits());
+
+        RegionCoordinates homeRegion = data.homeRegion;
+        buffer.putInt(homeRegion != null ? FLAG_HAS_HOME_REGION : 0);
+        buffer.putLong(homeRegion != null ? ((long)homeRegion.x << 32) | (homeRegion.z & 0xFFFFFFFFL) : 0);
+        buffer.putLong(data.lastDisconnect.getTime());
+        buffer.putInt(data.loginPriority);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, CHECKED_SIZE);
+        buffer.putInt((int)crc.getValue());
+    }
+
+    private static boolean isIntact(ByteBuffer record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), record.arrayOffset() + record.position(), CHECKED_SIZE);
+        return record.getInt(record.position() + CHECKED_SIZE) == (int)crc.getValue();
+    }
+
+    private static UUID readId(ByteBuffer record)
+    {
+        int start = record.position();
+        return new UUID(record.getLong(start), record.getLong(start + 8));
+    }
+
+    private static PlayerData readData(ByteBuffer record)
+    {
+        int start = record.position();
+        PlayerData data = new PlayerData();
+        if ((record.getInt(start + 16) & FLAG_HAS_HOME_REGION) != 0)
+        {
+            long packed = record.getLong(start + 20);
+            data.homeRegion = new RegionCoordinates((int)(packed >> 32), (int)packed);
+        }
+
+        data.lastDisconnect = new Date(record.getLong(start + 28));
+        data.loginPriority = record.getInt(start + 36);
+        return data;
+    }
+
+    //reads until the buffer is full or the file ends
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        int start = buffer.position();
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) break;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        int written = 0;
+        while (buffer.hasRemaining())
+        {
+            written += channel.write(buffer, position + written);
+        }
+
+        return written;
+    }
+
+    private static void moveReplacing(File source, File destination) throws IOException
+    {
+        try
+        {
+            Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
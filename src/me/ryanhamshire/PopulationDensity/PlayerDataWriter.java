@@ -0,0 +1,360 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+//writes player data files on a background thread, so a burst of logins after a restart doesn't mean a burst of file writes on the main thread
+//a save takes a copy of what goes in the file and queues it, and any saves for the same player which are still waiting become one write
+//each file is written to a temporary file first and then moved over the old one, so a crash part way through never leaves a half written file
+//close() writes everything still waiting, for onDisable()
+//with the player data log turned on, saves go to the log instead of the player's file (see PlayerDataLog)
+//only the background thread ever touches the log, and it closes the log itself once it's done
+class PlayerDataWriter
+{
+    //how long close() waits for the background thread to catch up before writing what's left itself
+    private static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+    private final String folderPath;
+    private final Thread thread;
+
+    //null when saving a file per player, or if the log couldn't be opened
+    private volatile PlayerDataLog log;
+
+    //waiting saves by player UUID, oldest first
+    private final LinkedHashMap<String, PendingSave> queued = new LinkedHashMap<String, PendingSave>();
+    private PendingSave writing = null;
+    private boolean closed = false;
+
+    //for /lag from the console
+    private long writeCount = 0;
+    private long coalescedCount = 0;
+    private long failureCount = 0;
+    private long totalWriteNanos = 0;
+    private long maxWriteNanos = 0;
+    private long totalDelayNanos = 0;
+
+    //what goes in a player's file, copied when the save is queued since PlayerData keeps changing on the main thread
+    private static class PendingSave
+    {
+        private final String playerId;
+        private final String playerName;
+        private final RegionCoordinates homeRegion;
+        private final long lastDisconnect;
+        private final int loginPriority;
+        private final long queuedNanos = System.nanoTime();
+
+        private PendingSave(String playerId, String playerName, PlayerData data)
+        {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.homeRegion = data.homeRegion;
+            this.lastDisconnect = data.lastDisconnect.getTime();
+            this.loginPriority = data.loginPriority;
+        }
+
+        private PlayerData toPlayerData()
+        {
+            PlayerData data = new PlayerData();
+            data.homeRegion = this.homeRegion;
+            data.lastDisconnect = new Date(this.lastDisconnect);
+            data.loginPriority = this.loginPriority;
+            return data;
+        }
+    }
+
+    PlayerDataWriter(String folderPath, PlayerDataLog log)
+    {
+        this.folderPath = folderPath;
+        this.log = log;
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                //opening the log may mean importing the player files first, and saves wait in the queue until it's done
+                if (PlayerDataWriter.this.log != null)
+                {
+                    try
+                    {
+                        PlayerDataWriter.this.log.open();
+                    }
+                    catch (IOException e)
+                    {
+                        PopulationDensity.AddLogEntry("Unable to open the player data log, saving player files instead: " + e.getMessage());
+                        PlayerDataWriter.this.log = null;
+                    }
+                }
+
+                writeQueued();
+
+                PlayerDataLog log = PlayerDataWriter.this.log;
+                if (log != null) log.close();
+            }
+        }, "PopulationDensity Player Data Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    //main thread
+    void save(String playerId, String playerName, PlayerData data)
+    {
+        PendingSave save = new PendingSave(playerId, playerName, data);
+        synchronized (this)
+        {
+            if (!this.closed)
+            {
+                //replacing a waiting save keeps its place in line
+                if (this.queued.put(playerId, save) != null) this.coalescedCount++;
+                this.notifyAll();
+                return;
+            }
+        }
+
+        //after close() there's nothing left to hand the save to, and the log may be closed already
+        this.writeFile(save);
+    }
+
+    //the data from a save which hasn't reached the player's file yet, since it's newer than what's in the file
+    synchronized PlayerData getPending(String playerId)
+    {
+        PendingSave save = this.queued.get(playerId);
+        if (save == null && this.writing != null && this.writing.playerId.equals(playerId)) save = this.writing;
+
+        return save == null ? null : save.toPlayerData();
+    }
+
+    synchronized int getQueueDepth()
+    {
+        return this.queued.size();
+    }
+
+    synchronized String getStatus()
+    {
+        long writes = Math.max(1, this.writeCount);
+        PlayerDataLog log = this.log;
+        return "Player data saves: " + this.queued.size() + " waiting, " + this.writeCount + " written (" + this.coalescedCount + " combined with a later save, " +
+                this.failureCount + " failed), average write " + formatMillis(this.totalWriteNanos / writes) + ", slowest " + formatMillis(this.maxWriteNanos) +
+                ", average wait before written " + formatMillis(this.totalDelayNanos / writes) + (log != null ? ", " + log.getStatus() : "") + ".";
+    }
+
+    //writes everything still waiting, then stops the background thread
+    void close()
+    {
+        synchronized (this)
+        {
+            this.closed = true;
+            this.notifyAll();
+        }
+
+        try
+        {
+            this.thread.join(CLOSE_TIMEOUT_MILLIS);
+
+            //most likely still importing player files into the log, which starts over next time
+            if (this.thread.isAlive())
+            {
+                this.thread.interrupt();
+                this.thread.join(CLOSE_TIMEOUT_MILLIS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        //if the thread couldn't finish in time, whatever it hasn't started on is written here instead
+        //as player files, since the thread may still be using the log (most likely importing, in which case these files are imported next time)
+        if (this.thread.isAlive() && this.getQueueDepth() > 0)
+        {
+            PopulationDensity.AddLogEntry("The player data writer didn't finish in time, saving " + this.getQueueDepth() + " players to player files instead.");
+        }
+
+        while (true)
+        {
+            PendingSave save = this.takeNext();
+            if (save == null) break;
+
+            this.writeFile(save);
+            this.finishedWriting();
+        }
+    }
+
+    private void writeQueued()
+    {
+        while (true)
+        {
+            synchronized (this)
+            {
+                while (this.queued.isEmpty() && !this.closed)
+                {
+                    try
+                    {
+                        this.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+
+            PendingSave save = this.takeNext();
+            if (save == null) return;
+
+            this.write(save);
+            this.finishedWriting();
+        }
+    }
+
+    private synchronized PendingSave takeNext()
+    {
+        Iterator<PendingSave> iterator = this.queued.values().iterator();
+        if (!iterator.hasNext()) return null;
+
+        PendingSave save = iterator.next();
+        iterator.remove();
+        this.writing = save;
+        return save;
+    }
+
+    private synchronized void finishedWriting()
+    {
+        this.writing = null;
+    }
+
+    //background thread only, since it may use the log
+    private void write(PendingSave save)
+    {
+        PlayerDataLog log = this.log;
+        if (log != null && log.isReady())
+        {
+            this.appendToLog(log, save);
+            return;
+        }
+
+        this.writeFile(save);
+    }
+
+    private void writeFile(PendingSave save)
+    {
+        long startTime = System.nanoTime();
+        File playerFile = new File(this.folderPath + File.separator + save.playerId);
+        File tempFile = new File(this.folderPath + File.separator + save.playerId + ".tmp");
+
+        boolean written = false;
+        BufferedWriter outStream = null;
+        try
+        {
+            outStream = new BufferedWriter(new FileWriter(tempFile));
+
+            //first line is home region coordinates
+            outStream.write(save.homeRegion.toString());
+            outStream.newLine();
+
+            //second line is last disconnection date,
+            //note use of the ROOT locale to avoid problems related to regional settings on the server being updated
+            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.FULL, DateFormat.FULL, Locale.ROOT);
+            outStream.write(dateFormat.format(new Date(save.lastDisconnect)));
+            outStream.newLine();
+
+            //third line is login priority
+            outStream.write(String.valueOf(save.loginPriority));
+            outStream.newLine();
+
+            outStream.close();
+            outStream = null;
+
+            try
+            {
+                Files.move(tempFile.toPath(), playerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tempFile.toPath(), playerFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            written = true;
+        }
+
+        //if any problem, log it
+        catch (Exception e)
+        {
+            PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + save.playerName + "\": " + e.getMessage());
+        }
+
+        try
+        {
+            //close the file
+            if (outStream != null) outStream.close();
+        }
+        catch (IOException exception) {}
+
+        this.recordWrite(save, startTime, written);
+    }
+
+    private void appendToLog(PlayerDataLog log, PendingSave save)
+    {
+        long startTime = System.nanoTime();
+        boolean written = false;
+        try
+        {
+            log.append(UUID.fromString(save.playerId), save.toPlayerData());
+            written = true;
+        }
+        catch (Exception e)
+        {
+            PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + save.playerName + "\" to the player data log: " + e.getMessage());
+        }
+
+        this.recordWrite(save, startTime, written);
+    }
+
+    private synchronized void recordWrite(PendingSave save, long startTime, boolean written)
+    {
+        if (!written)
+        {
+            this.failureCount++;
+            return;
+        }
+
+        long endTime = System.nanoTime();
+        this.writeCount++;
+        this.totalWriteNanos += endTime - startTime;
+        this.maxWriteNanos = Math.max(this.maxWriteNanos, endTime - startTime);
+        this.totalDelayNanos += endTime - save.queuedNanos;
+    }
+
+    private static String formatMillis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1000000.0);
+    }
+}
@@ -42,15 +42,20 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.Monster;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.Vector;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 public class PopulationDensity extends JavaPlugin
@@ -78,6 +83,26 @@ public class PopulationDensity extends JavaPlugin
     //this handles data storage, like player and region data
     public DataStore dataStore;
 
+    //remembers what region scans learned about each chunk (null unless enabled in the config)
+    ScanChunkCache scanChunkCache = null;
+
+    //runs region scans a few at a time
+    ScanService scanService = null;
+
+    //where scans get their chunks from (see ScanChunkProvider)
+    ScanChunkProvider scanChunkProvider = null;
+    ScanScheduler scanScheduler = null;
+    ResourceLedger resourceLedger = null;
+
+    //the latest scan results, for other plugins (see ScanReportService)
+    final ScanReports scanReports = new ScanReports();
+
+    //scans every named region on request (/PDCensus)
+    RegionCensus regionCensus = null;
+
+    //resources counted from chunks as they're generated, so far out regions can be judged without a scan
+    PristineResources pristineResources = null;
+
     //tracks server perforamnce
     static float serverTicksPerSecond = 20;
     static int minutesLagging = 0;
@@ -132,6 +157,44 @@ public class PopulationDensity extends JavaPlugin
     boolean config_launchAndDropPlayers;
     boolean config_launchAndDropNewPlayers;
     boolean config_teleportAnimals = true;
+    boolean config_scanOffHeapVisitedSet;
+    boolean config_scanSeedFromSurface;
+    int config_scanParallelism;
+    boolean config_scanCacheChunks;
+    int config_scanChunkCacheSize;
+    int config_scanChunkCacheMaxAgeMinutes;
+    int config_scanSkipHealthyRegionHours;
+    double config_scanHealthyMargin;
+    boolean config_scanStreamSnapshots;
+    int config_scanStreamWindowChunks;
+    int config_scanMaxConcurrentScans;
+    boolean config_scanVerdictOnlyWhenAutomatic;
+    boolean config_scanApproximateWhenAutomatic;
+    double config_scanSampleFraction;
+    int config_scanCandidateRegions;
+    boolean config_scanPickBestCandidate;
+    int config_scanCandidateResultMaxAgeHours;
+    boolean config_scanPrefilterCandidates;
+    double config_scanPrefilterMaxOceanShare;
+    double config_scanPrefilterMinShareInsideBorder;
+    int config_scanCaptureMillisPerTick;
+    double config_scanPauseCaptureBelowTPS;
+    boolean config_scanAsyncChunkLoading;
+    int config_scanMaxChunkRequestsInFlight;
+    ScanChunkPolicy config_scanChunkPolicy;
+    boolean config_scanReadRegionFiles;
+    int config_scanMinMinutesBetweenScans;
+    int config_scanBlockChangesPerScan;
+    double config_scanDeferBelowTPS;
+    double config_scanDeferAboveMillisPerTick;
+    int config_scanMaxDeferralMinutes;
+    boolean config_scanResourceLedger;
+    double config_scanLedgerMaxDrift;
+    int config_scanLedgerMaxAgeHours;
+    double config_censusMinimumTPS;
+    int config_censusChunkLoadsPerHour;
+    boolean config_scanPristineResources;
+    boolean config_playerDataLog;
 
     public int minimumRegionPostY;
 
@@ -229,6 +292,44 @@ public class PopulationDensity extends JavaPlugin
         this.config_launchAndDropPlayers = config.getBoolean("PopulationDensity.LaunchAndDropPlayers", true);
         this.config_launchAndDropNewPlayers = config.getBoolean("PopulationDensity.LaunchAndDropNewPlayers", config_launchAndDropPlayers);
         this.config_teleportAnimals = config.getBoolean("PopulationDensity.TeleportAnimals", config_teleportAnimals);
+        this.config_scanOffHeapVisitedSet = config.getBoolean("PopulationDensity.Scan.OffHeapVisitedSet", false);
+        this.config_scanSeedFromSurface = config.getBoolean("PopulationDensity.Scan.SeedFromSurface", false);
+        this.config_scanParallelism = Math.max(1, config.getInt("PopulationDensity.Scan.Parallelism", 1));
+        this.config_scanCacheChunks = config.getBoolean("PopulationDensity.Scan.CacheChunkResults", false);
+        this.config_scanChunkCacheSize = config.getInt("PopulationDensity.Scan.ChunkCacheSize", 2048);
+        this.config_scanChunkCacheMaxAgeMinutes = config.getInt("PopulationDensity.Scan.ChunkCacheMaxAgeMinutes", 1440);
+        this.config_scanSkipHealthyRegionHours = config.getInt("PopulationDensity.Scan.SkipRegionsScannedHealthyWithinHours", 0);
+        this.config_scanHealthyMargin = config.getDouble("PopulationDensity.Scan.HealthyMargin", 1.5);
+        this.config_scanStreamSnapshots = config.getBoolean("PopulationDensity.Scan.StreamSnapshots", false);
+        this.config_scanStreamWindowChunks = Math.max(1, config.getInt("PopulationDensity.Scan.StreamWindowChunks", 16));
+        this.config_scanMaxConcurrentScans = Math.max(1, config.getInt("PopulationDensity.Scan.MaxConcurrentScans", 1));
+        this.config_scanVerdictOnlyWhenAutomatic = config.getBoolean("PopulationDensity.Scan.VerdictOnlyForAutomaticScans", false);
+        this.config_scanApproximateWhenAutomatic = config.getBoolean("PopulationDensity.Scan.ApproximateForAutomaticScans", false);
+        this.config_scanSampleFraction = Math.max(0.01, Math.min(1, config.getDouble("PopulationDensity.Scan.SampleFraction", 0.1)));
+        this.config_scanCandidateRegions = Math.max(1, config.getInt("PopulationDensity.Scan.CandidateRegions", 1));
+        this.config_scanPickBestCandidate = config.getString("PopulationDensity.Scan.CandidatePick", "first").equalsIgnoreCase("best");
+        this.config_scanCandidateResultMaxAgeHours = Math.max(0, config.getInt("PopulationDensity.Scan.CandidateResultMaxAgeHours", 24));
+        this.config_scanPrefilterCandidates = config.getBoolean("PopulationDensity.Scan.PrefilterCandidates", true);
+        this.config_scanPrefilterMaxOceanShare = Math.max(0, Math.min(1, config.getDouble("PopulationDensity.Scan.PrefilterMaxOceanShare", 0.8)));
+        this.config_scanPrefilterMinShareInsideBorder = Math.max(0, Math.min(1, config.getDouble("PopulationDensity.Scan.PrefilterMinShareInsideWorldBorder", 0.5)));
+        this.config_scanCaptureMillisPerTick = Math.max(0, config.getInt("PopulationDensity.Scan.CaptureMillisPerTick", 5));
+        this.config_scanPauseCaptureBelowTPS = Math.max(0, Math.min(20, config.getDouble("PopulationDensity.Scan.PauseCaptureBelowTPS", 15)));
+        this.config_scanAsyncChunkLoading = config.getBoolean("PopulationDensity.Scan.AsyncChunkLoading", true);
+        this.config_scanMaxChunkRequestsInFlight = Math.max(1, config.getInt("PopulationDensity.Scan.MaxChunkRequestsInFlight", 8));
+        this.config_scanChunkPolicy = ScanChunkPolicy.fromConfig(config.getString("PopulationDensity.Scan.ChunkPolicy", ScanChunkPolicy.Generate.name()));
+        this.config_scanReadRegionFiles = config.getBoolean("PopulationDensity.Scan.ReadUnloadedChunksFromRegionFiles", false);
+        this.config_scanMinMinutesBetweenScans = Math.max(0, config.getInt("PopulationDensity.Scan.MinimumMinutesBetweenScans", 60));
+        this.config_scanBlockChangesPerScan = Math.max(0, config.getInt("PopulationDensity.Scan.BlockChangesBeforeEarlyScan", 5000));
+        this.config_scanDeferBelowTPS = Math.max(0, Math.min(20, config.getDouble("PopulationDensity.Scan.DeferScansBelowTPS", 18)));
+        this.config_scanDeferAboveMillisPerTick = Math.max(0, config.getDouble("PopulationDensity.Scan.DeferScansAboveMillisPerTick", 40));
+        this.config_scanMaxDeferralMinutes = Math.max(0, config.getInt("PopulationDensity.Scan.MaxDeferralMinutes", 120));
+        this.config_scanResourceLedger = config.getBoolean("PopulationDensity.Scan.ResourceLedger", true);
+        this.config_scanLedgerMaxDrift = Math.max(0, Math.min(1, config.getDouble("PopulationDensity.Scan.LedgerMaxDrift", 0.25)));
+        this.config_scanLedgerMaxAgeHours = Math.max(0, config.getInt("PopulationDensity.Scan.LedgerMaxAgeHours", 48));
+        this.config_censusMinimumTPS = Math.max(0, Math.min(20, config.getDouble("PopulationDensity.Census.MinimumTPS", 18)));
+        this.config_censusChunkLoadsPerHour = Math.max(0, config.getInt("PopulationDensity.Census.MaxChunkLoadsPerHour", 20000));
+        this.config_scanPristineResources = config.getBoolean("PopulationDensity.Scan.CountResourcesInNewChunks", true);
+        this.config_playerDataLog = config.getBoolean("PopulationDensity.PlayerDataLog", false);
 
         String top = config.getString("PopulationDensity.PostDesign.TopBlock", "GLOWSTONE");
         String midTop = config.getString("PopulationDensity.PostDesign.MidTopBlock", "GLOWSTONE");
@@ -416,6 +517,44 @@ public class PopulationDensity extends JavaPlugin
         outConfig.set("PopulationDensity.LaunchAndDropPlayers", this.config_launchAndDropPlayers);
         outConfig.set("PopulationDensity.LaunchAndDropNewPlayers", this.config_launchAndDropNewPlayers);
         outConfig.set("PopulationDensity.TeleportAnimals", this.config_teleportAnimals);
+        outConfig.set("PopulationDensity.Scan.OffHeapVisitedSet", this.config_scanOffHeapVisitedSet);
+        outConfig.set("PopulationDensity.Scan.SeedFromSurface", this.config_scanSeedFromSurface);
+        outConfig.set("PopulationDensity.Scan.Parallelism", this.config_scanParallelism);
+        outConfig.set("PopulationDensity.Scan.CacheChunkResults", this.config_scanCacheChunks);
+        outConfig.set("PopulationDensity.Scan.ChunkCacheSize", this.config_scanChunkCacheSize);
+        outConfig.set("PopulationDensity.Scan.ChunkCacheMaxAgeMinutes", this.config_scanChunkCacheMaxAgeMinutes);
+        outConfig.set("PopulationDensity.Scan.SkipRegionsScannedHealthyWithinHours", this.config_scanSkipHealthyRegionHours);
+        outConfig.set("PopulationDensity.Scan.HealthyMargin", this.config_scanHealthyMargin);
+        outConfig.set("PopulationDensity.Scan.StreamSnapshots", this.config_scanStreamSnapshots);
+        outConfig.set("PopulationDensity.Scan.StreamWindowChunks", this.config_scanStreamWindowChunks);
+        outConfig.set("PopulationDensity.Scan.MaxConcurrentScans", this.config_scanMaxConcurrentScans);
+        outConfig.set("PopulationDensity.Scan.VerdictOnlyForAutomaticScans", this.config_scanVerdictOnlyWhenAutomatic);
+        outConfig.set("PopulationDensity.Scan.ApproximateForAutomaticScans", this.config_scanApproximateWhenAutomatic);
+        outConfig.set("PopulationDensity.Scan.SampleFraction", this.config_scanSampleFraction);
+        outConfig.set("PopulationDensity.Scan.CandidateRegions", this.config_scanCandidateRegions);
+        outConfig.set("PopulationDensity.Scan.CandidatePick", this.config_scanPickBestCandidate ? "best" : "first");
+        outConfig.set("PopulationDensity.Scan.CandidateResultMaxAgeHours", this.config_scanCandidateResultMaxAgeHours);
+        outConfig.set("PopulationDensity.Scan.PrefilterCandidates", this.config_scanPrefilterCandidates);
+        outConfig.set("PopulationDensity.Scan.PrefilterMaxOceanShare", this.config_scanPrefilterMaxOceanShare);
+        outConfig.set("PopulationDensity.Scan.PrefilterMinShareInsideWorldBorder", this.config_scanPrefilterMinShareInsideBorder);
+        outConfig.set("PopulationDensity.Scan.CaptureMillisPerTick", this.config_scanCaptureMillisPerTick);
+        outConfig.set("PopulationDensity.Scan.PauseCaptureBelowTPS", this.config_scanPauseCaptureBelowTPS);
+        outConfig.set("PopulationDensity.Scan.AsyncChunkLoading", this.config_scanAsyncChunkLoading);
+        outConfig.set("PopulationDensity.Scan.MaxChunkRequestsInFlight", this.config_scanMaxChunkRequestsInFlight);
+        outConfig.set("PopulationDensity.Scan.ChunkPolicy", this.config_scanChunkPolicy.name());
+        outConfig.set("PopulationDensity.Scan.ReadUnloadedChunksFromRegionFiles", this.config_scanReadRegionFiles);
+        outConfig.set("PopulationDensity.Scan.MinimumMinutesBetweenScans", this.config_scanMinMinutesBetweenScans);
+        outConfig.set("PopulationDensity.Scan.BlockChangesBeforeEarlyScan", this.config_scanBlockChangesPerScan);
+        outConfig.set("PopulationDensity.Scan.DeferScansBelowTPS", this.config_scanDeferBelowTPS);
+        outConfig.set("PopulationDensity.Scan.DeferScansAboveMillisPerTick", this.config_scanDeferAboveMillisPerTick);
+        outConfig.set("PopulationDensity.Scan.MaxDeferralMinutes", this.config_scanMaxDeferralMinutes);
+        outConfig.set("PopulationDensity.Scan.ResourceLedger", this.config_scanResourceLedger);
+        outConfig.set("PopulationDensity.Scan.LedgerMaxDrift", this.config_scanLedgerMaxDrift);
+        outConfig.set("PopulationDensity.Scan.LedgerMaxAgeHours", this.config_scanLedgerMaxAgeHours);
+        outConfig.set("PopulationDensity.Census.MinimumTPS", this.config_censusMinimumTPS);
+        outConfig.set("PopulationDensity.Census.MaxChunkLoadsPerHour", this.config_censusChunkLoadsPerHour);
+        outConfig.set("PopulationDensity.Scan.CountResourcesInNewChunks", this.config_scanPristineResources);
+        outConfig.set("PopulationDensity.PlayerDataLog", this.config_playerDataLog);
         outConfig.set("PopulationDensity.MinimumRegionPostY", this.minimumRegionPostY);
         outConfig.set("PopulationDensity.PreciseWorldSpawn", this.preciseWorldSpawn);
         outConfig.set("PopulationDensity.MinimumWoodAvailableToPlaceNewPlayers", this.woodMinimum);
@@ -430,6 +569,9 @@ public class PopulationDensity extends JavaPlugin
         outConfig.set("PopulationDensity.PostDesign.PlatformInnerRing", innerPlat);
         outConfig.set("PopulationDensity.Region Name List", regionNames);
 
+        //materials the region scan counts, plus how much each ore is worth
+        ScanMaterials.load(config, outConfig);
+
         //this is a combination load/preprocess/save for custom signs on the region posts
         this.topSignContent = this.initializeSignContentConfig(config, outConfig, "PopulationDensity.Signs.Top", new String[]{"", "%regionName%", "Region", ""});
         this.sideSignContent = this.initializeSignContentConfig(config, outConfig, "PopulationDensity.Signs.Side", new String[]{"<--", "%regionName%", "Region", "<--"});
@@ -464,7 +606,19 @@ public class PopulationDensity extends JavaPlugin
         }
 
         //when datastore initializes, it loads player and region data, and posts some stats to the log
-        this.dataStore = new DataStore(this.config_regionNames);
+        this.dataStore = new DataStore(this.config_regionNames, this.config_playerDataLog);
+
+        if (this.config_scanCacheChunks)
+        {
+            this.scanChunkCache = new ScanChunkCache(this.config_scanChunkCacheSize, this.config_scanChunkCacheMaxAgeMinutes);
+        }
+
+        this.scanService = new ScanService(this.config_scanMaxConcurrentScans);
+        this.scanChunkProvider = ScanChunkProvider.create(this.config_scanAsyncChunkLoading, this.config_scanMaxChunkRequestsInFlight);
+        AddLogEntry("Chunks for region scans will be " + this.scanChunkProvider.getDescription() + ".");
+
+        //other plugins can look up scan results rather than scanning regions themselves
+        this.getServer().getServicesManager().register(ScanReportService.class, this.scanReports, this, ServicePriority.Normal);
 
         //register for events
         PluginManager pluginManager = this.getServer().getPluginManager();
@@ -505,8 +659,32 @@ public class PopulationDensity extends JavaPlugin
 
         //scan the open region for resources and open a new one as necessary
         //may open and close several regions before finally leaving an "acceptable" region open
-        //this will repeat every six hours
-        this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new ScanOpenRegionTask(), 5L, this.hoursBetweenScans * 60 * 60 * 20L);
+        //this will repeat at least every HoursBetweenScans hours, sooner if players are busy mining the open region
+        if (this.config_scanResourceLedger) this.resourceLedger = new ResourceLedger(this.config_scanLedgerMaxDrift, this.config_scanLedgerMaxAgeHours);
+        this.scanScheduler = new ScanScheduler(this.config_scanMinMinutesBetweenScans, this.hoursBetweenScans, this.config_scanBlockChangesPerScan,
+                this.config_scanDeferBelowTPS, this.config_scanDeferAboveMillisPerTick, this.config_scanMaxDeferralMinutes);
+        this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.scanScheduler, 5L, ScanScheduler.PERIOD_TICKS);
+
+        //new chunks are counted as they're generated, and the counts saved every few minutes
+        if (this.config_scanPristineResources)
+        {
+            this.pristineResources = new PristineResources(DataStore.pristineResourcesFilePath);
+            final PristineResources pristineResources = this.pristineResources;
+            this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    pristineResources.save();
+                }
+            }, 20L * 60 * 5, 20L * 60 * 5);
+        }
+
+        //a census which was running when the server stopped carries on where it left off
+        this.regionCensus = new RegionCensus(DataStore.censusFolderPath, this.config_censusMinimumTPS, this.config_censusChunkLoadsPerHour);
+        pluginManager.registerEvents(this.regionCensus, this);
+        this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.regionCensus, 100L, RegionCensus.PERIOD_TICKS);
+        this.regionCensus.resumeIfInterrupted();
 
         //start monitoring performance
         this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new MonitorPerformanceTask(), 1200L, 1200L);
@@ -904,6 +1082,44 @@ public class PopulationDensity extends JavaPlugin
             this.scanRegion(RegionCoordinates.fromLocation(player.getLocation()), false);
 
             return true;
+        } else if (cmd.getName().equalsIgnoreCase("scanhistory"))
+        {
+            return this.reportScanHistory(player, args);
+        } else if (cmd.getName().equalsIgnoreCase("scanstatus"))
+        {
+            this.reportScanStatus(player);
+
+            return true;
+        } else if (cmd.getName().equalsIgnoreCase("cancelscan"))
+        {
+            RegionCoordinates region = null;
+            if (args.length > 0 && !args[0].equalsIgnoreCase("all"))
+            {
+                region = this.dataStore.getRegionCoordinates(args[0]);
+                if (region == null)
+                {
+                    PopulationDensity.sendMessage(player, TextMode.Err, Messages.RegionNotFound, args[0]);
+                    return true;
+                }
+            } else if (args.length == 0)
+            {
+                if (player == null) return false;
+
+                region = RegionCoordinates.fromLocation(player.getLocation());
+                if (region == null)
+                {
+                    PopulationDensity.sendMessage(player, TextMode.Err, Messages.NotInRegion);
+                    return true;
+                }
+            }
+
+            int cancelledCount = this.scanService.cancel(region);
+            PopulationDensity.sendMessage(player, TextMode.Success, Messages.ScansCancelled, String.valueOf(cancelledCount));
+
+            return true;
+        } else if (cmd.getName().equalsIgnoreCase("pdcensus"))
+        {
+            return this.census(player, args);
         } else if (cmd.getName().equalsIgnoreCase("loginpriority"))
         {
             //requires exactly two parameters, the other player's name and the priority
@@ -984,6 +1200,140 @@ public class PopulationDensity extends JavaPlugin
         return false;
     }
 
+    //lists the most recent scans of a named region, or the region the player is standing in
+    private boolean reportScanHistory(Player player, String[] args)
+    {
+        RegionCoordinates region;
+        if (args.length > 0)
+        {
+            region = this.dataStore.getRegionCoordinates(args[0]);
+            if (region == null)
+            {
+                PopulationDensity.sendMessage(player, TextMode.Err, Messages.RegionNotFound, args[0]);
+                return true;
+            }
+        } else if (player != null)
+        {
+            region = RegionCoordinates.fromLocation(player.getLocation());
+            if (region == null)
+            {
+                PopulationDensity.sendMessage(player, TextMode.Err, Messages.NotInRegion);
+                return true;
+            }
+        } else
+        {
+            return false;
+        }
+
+        String regionName = this.getRegionDisplayName(region);
+
+        List<ScanHistoryEntry> entries = this.dataStore.scanHistory.getEntries(region);
+        if (entries.isEmpty())
+        {
+            PopulationDensity.sendMessage(player, TextMode.Info, Messages.NoScanHistory, regionName);
+            return true;
+        }
+
+        PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanHistoryHeader, regionName);
+
+        //newest first
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+        for (int i = entries.size() - 1; i >= 0 && i >= entries.size() - 10; i--)
+        {
+            ScanHistoryEntry entry = entries.get(i);
+
+            Messages verdictMessage = Messages.ScanVerdictSuitable;
+            if (entry.verdict == ScanVerdict.InsufficientResources) verdictMessage = Messages.ScanVerdictInsufficientResources;
+            else if (entry.verdict == ScanVerdict.Overcrowded) verdictMessage = Messages.ScanVerdictOvercrowded;
+
+            PopulationDensity.sendMessage(player, entry.verdict == ScanVerdict.Suitable ? TextMode.Success : TextMode.Warn, Messages.ScanHistoryLine,
+                    dateFormat.format(new Date(entry.timestamp)),
+                    this.dataStore.getMessage(verdictMessage),
+                    String.valueOf(entry.getWood()),
+                    String.valueOf(entry.resourceScore),
+                    String.valueOf(entry.getPlayerBlocks()));
+        }
+
+        return true;
+    }
+
+    private void reportScanStatus(Player player)
+    {
+        List<ScanJob> runningJobs = this.scanService.getRunningJobs();
+        List<ScanJob> pendingJobs = this.scanService.getPendingJobs();
+        if (runningJobs.isEmpty() && pendingJobs.isEmpty())
+        {
+            PopulationDensity.sendMessage(player, TextMode.Info, Messages.NoScansRunning);
+            return;
+        }
+
+        PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanStatusHeader, String.valueOf(runningJobs.size()), String.valueOf(this.scanService.getMaxConcurrentScans()),
+                String.valueOf(pendingJobs.size()));
+
+        for (ScanJob job : runningJobs)
+        {
+            PopulationDensity.sendMessage(player, job.isCancelled() ? TextMode.Warn : TextMode.Success, Messages.ScanStatusRunning,
+                    this.getRegionDisplayName(job.region),
+                    String.valueOf(job.getPercentDone()),
+                    String.valueOf(job.getElapsedNanos() / 1000000000L),
+                    ScanRegionTask.formatMegabytes(job.getMemoryBytes()));
+        }
+
+        for (ScanJob job : pendingJobs)
+        {
+            PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanStatusWaiting, this.getRegionDisplayName(job.region));
+        }
+    }
+
+    //PDCensus [start|restart|stop|status]
+    private boolean census(Player player, String[] args)
+    {
+        String action = args.length > 0 ? args[0].toLowerCase() : "status";
+        RegionCensus census = this.regionCensus;
+        if (action.equals("start") || action.equals("restart"))
+        {
+            if (!census.start(action.equals("restart")))
+            {
+                PopulationDensity.sendMessage(player, TextMode.Err, Messages.CensusAlreadyRunning);
+                return true;
+            }
+
+            PopulationDensity.sendMessage(player, TextMode.Success, Messages.CensusStarted, String.valueOf(census.getRegionCount() - census.getDoneCount()),
+                    String.valueOf(census.getDoneCount()), census.getOutputFile().getPath());
+        } else if (action.equals("stop"))
+        {
+            if (!census.stop())
+            {
+                PopulationDensity.sendMessage(player, TextMode.Err, Messages.CensusNotRunning);
+                return true;
+            }
+
+            PopulationDensity.sendMessage(player, TextMode.Success, Messages.CensusStopped, String.valueOf(census.getDoneCount()), String.valueOf(census.getRegionCount()));
+        } else if (action.equals("status"))
+        {
+            if (!census.isRunning())
+            {
+                PopulationDensity.sendMessage(player, TextMode.Info, Messages.CensusNotRunning);
+                return true;
+            }
+
+            PopulationDensity.sendMessage(player, TextMode.Info, Messages.CensusStatus, String.valueOf(census.getDoneCount()), String.valueOf(census.getRegionCount()),
+                    census.getActivity());
+        } else
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    private String getRegionDisplayName(RegionCoordinates region)
+    {
+        String regionName = this.dataStore.getRegionName(region);
+        if (regionName == null) return region.toString();
+        return capitalize(regionName);
+    }
+
     private boolean nameRegion(Player player, String[] args, boolean allowRename)
     {
         RegionCoordinates currentRegion = RegionCoordinates.fromLocation(player.getLocation());
@@ -1051,6 +1401,7 @@ public class PopulationDensity extends JavaPlugin
         } else
         {
             AddLogEntry(message);
+            AddLogEntry(this.dataStore.playerDataWriter.getStatus());
         }
     }
 
@@ -1092,6 +1443,12 @@ public class PopulationDensity extends JavaPlugin
 
     public void onDisable()
     {
+        if (this.scanService != null) this.scanService.shutdown();
+        ParallelRegionScanner.shutdown();
+        AnvilRegionReader.shutdown();
+        if (this.pristineResources != null) this.pristineResources.shutdown();
+        if (this.dataStore != null) this.dataStore.playerDataWriter.close();
+
         AddLogEntry("PopulationDensity disabled.");
     }
 
@@ -1230,9 +1587,85 @@ public class PopulationDensity extends JavaPlugin
 
     //scans the open region for resources and may close the region (and open a new one) if accessible resources are low
     //may repeat itself if the regions it opens are also not acceptably rich in resources
-    //TODO: use Paper API to get chunks async (with fallback to spigot/CB)
+    //the scan waits its turn if too many are running already (see ScanService)
     public void scanRegion(RegionCoordinates region, boolean openNewRegions)
     {
+        this.scanRegion(region, openNewRegions, ScanMode.Full);
+    }
+
+    //less thorough modes skip parts of the report (see ScanMode)
+    void scanRegion(RegionCoordinates region, boolean openNewRegions, ScanMode mode)
+    {
+        this.scanService.submit(region, openNewRegions, mode);
+    }
+
+    //scans a region the chain just opened in place of one which wasn't suitable (see ScanResultsTask)
+    //only these may be ruled out without a scan, never an open region players have been sent to already, or one an admin added with /AddRegion
+    void scanNewRegion(RegionCoordinates region)
+    {
+        //a hopeless region can be ruled out without loading anything (see RegionPrefilter)
+        if (this.config_scanPrefilterCandidates)
+        {
+            String rejectionReason = this.dataStore.regionPrefilter.getRejectionReason(region);
+            if (rejectionReason != null)
+            {
+                AddLogEntry("Region \"" + region.toString() + "\" isn't suitable for new players without a scan: " + rejectionReason + ".");
+                if (RegionPrefilter.isPastWorldBorder(region))
+                {
+                    AddLogEntry("Every region from here on is outside the world border, so no new region was opened.");
+                    return;
+                }
+
+                //move on to the next region, just like a scan with a bad result would
+                this.getServer().getScheduler().scheduleSyncDelayedTask(this, new ScanResultsTask(new ArrayList<String>(), true), 1L);
+                return;
+            }
+        }
+
+        //so can a region which was generated while the plugin was counting, sometimes (see PristineResources)
+        if (this.pristineResources != null)
+        {
+            ScanVerdict verdict = this.pristineResources.getVerdict(region);
+            if (verdict == ScanVerdict.Suitable)
+            {
+                AddLogEntry("Region \"" + region.toString() + "\" is suitable for new players without a scan, going by its resources when it was generated (resource score at least " +
+                        this.pristineResources.getResourceScore(region, verdict) + ").");
+                return;
+            }
+
+            if (verdict == ScanVerdict.InsufficientResources)
+            {
+                AddLogEntry("Region \"" + region.toString() + "\" isn't suitable for new players without a scan, going by its resources when it was generated (resource score at most " +
+                        this.pristineResources.getResourceScore(region, verdict) + ").");
+                this.getServer().getScheduler().scheduleSyncDelayedTask(this, new ScanResultsTask(new ArrayList<String>(), true), 1L);
+                return;
+            }
+        }
+
+        this.scanRegion(region, true, this.getAutomaticScanMode());
+    }
+
+    //how to scan when nobody asked for the report, like the timed open region scan and the scans of the regions it opens
+    ScanMode getAutomaticScanMode()
+    {
+        //a sample of chunks can only stand in for a scan seeded from the surface (see SampledRegionScanner)
+        if (this.config_scanApproximateWhenAutomatic && this.config_scanSeedFromSurface) return ScanMode.Approximate;
+        return this.getFallbackScanMode();
+    }
+
+    //how to rescan when an approximate scan can't decide
+    ScanMode getFallbackScanMode()
+    {
+        if (this.config_scanVerdictOnlyWhenAutomatic) return ScanMode.VerdictOnly;
+        return ScanMode.Full;
+    }
+
+    //takes the snapshots for a scan and hands it to the executor, called by the ScanService when it's the job's turn
+    void startScan(final ScanJob job, final Executor executor)
+    {
+        final RegionCoordinates region = job.region;
+        boolean openNewRegions = job.openNewRegions;
+
         AddLogEntry("Examining available resources in region \"" + region.toString() + "\"...");
 
         Location regionCenter = getRegionCenter(region, false);
@@ -1241,10 +1674,13 @@ public class PopulationDensity extends JavaPlugin
         int min_z = regionCenter.getBlockZ() - REGION_SIZE / 2;
         int max_z = regionCenter.getBlockZ() + REGION_SIZE / 2;
 
-        Chunk lesserBoundaryChunk = ManagedWorld.getChunkAt(new Location(ManagedWorld, min_x, 1, min_z));
-        Chunk greaterBoundaryChunk = ManagedWorld.getChunkAt(new Location(ManagedWorld, max_x, 1, max_z));
+        //chunk coordinates straight from the block coordinates, since asking the world for the chunks would load them
+        final int lesserChunkX = min_x >> 4;
+        final int lesserChunkZ = min_z >> 4;
+        int greaterChunkX = max_x >> 4;
+        int greaterChunkZ = max_z >> 4;
 
-        ChunkSnapshot[][] snapshots = new ChunkSnapshot[greaterBoundaryChunk.getX() - lesserBoundaryChunk.getX() + 1][greaterBoundaryChunk.getZ() - lesserBoundaryChunk.getZ() + 1];
+        final ChunkSnapshot[][] snapshots = new ChunkSnapshot[greaterChunkX - lesserChunkX + 1][greaterChunkZ - lesserChunkZ + 1];
         for (int x = 0; x < snapshots.length; x++)
         {
             for (int z = 0; z < snapshots[0].length; z++)
@@ -1253,6 +1689,26 @@ public class PopulationDensity extends JavaPlugin
             }
         }
 
+        //chunks which haven't changed since an earlier scan don't need to be loaded or snapshotted again
+        ScanChunkCache cache = this.scanChunkCache;
+        ChunkScanResult[][] cachedChunks = new ChunkScanResult[snapshots.length][snapshots[0].length];
+        int minY = this.minimumRegionPostY - 20;
+        long capturedTime = System.nanoTime();
+
+        //only note which chunks are needed here, and let a feed snapshot them (see ScanChunkFeed)
+        //when streaming, the scan examines them as they come, otherwise it waits for all of them
+        boolean stream = this.config_scanStreamSnapshots;
+        boolean[][] needed = new boolean[snapshots.length][snapshots[0].length];
+
+        //an approximate scan only needs snapshots of the chunks in its sample
+        SampledRegionScanner sampler = null;
+        if (job.mode == ScanMode.Approximate)
+        {
+            sampler = new SampledRegionScanner(snapshots.length, snapshots[0].length, this.config_scanSampleFraction, new Random());
+            cache = null;
+            stream = false;
+        }
+
         for (int x = 0; x < snapshots.length; x++)
         {
             for (int z = 0; z < snapshots[0].length; z++)
@@ -1260,23 +1716,84 @@ public class PopulationDensity extends JavaPlugin
                 //skip chunks that we already have snapshots for
                 if (snapshots[x][z] != null) continue;
 
-                //get the chunk, load it, generate it if necessary
-                Chunk chunk = ManagedWorld.getChunkAt(x + lesserBoundaryChunk.getX(), z + lesserBoundaryChunk.getZ());
-                if (chunk.isLoaded() || chunk.load(true))
+                if (sampler != null && !sampler.isSampled(x, z)) continue;
+
+                if (cache != null)
                 {
-                    //take a snapshot
-                    ChunkSnapshot snapshot = chunk.getChunkSnapshot();
-                    snapshots[x][z] = snapshot;
+                    cachedChunks[x][z] = cache.get(x + lesserChunkX, z + lesserChunkZ, ManagedWorld.getMaxHeight(), minY, this.config_scanSeedFromSurface);
+                    if (cachedChunks[x][z] != null) continue;
                 }
+
+                needed[x][z] = true;
             }
         }
 
         //create a new task with this information, which will more completely scan the content of all the snapshots
-        ScanRegionTask task = new ScanRegionTask(snapshots, openNewRegions);
-        task.setPriority(Thread.MIN_PRIORITY);
+        ScanChunkFeed feed = null;
+        if (stream)
+        {
+            feed = new ScanChunkFeed(ManagedWorld, lesserChunkX, lesserChunkZ, needed, this.config_scanStreamWindowChunks,
+                    this.config_scanCaptureMillisPerTick, this.config_scanPauseCaptureBelowTPS, this.scanChunkProvider, this.config_scanChunkPolicy);
+            if (this.config_scanReadRegionFiles) feed.setRegionReader(new AnvilRegionReader(ManagedWorld));
+            job.setFeed(feed);
+        }
+
+        final ScanRegionTask task;
+        if (cache != null || feed != null)
+        {
+            task = new ScanRegionTask(region, snapshots, cachedChunks, cache, lesserChunkX, lesserChunkZ, capturedTime, feed, openNewRegions);
+        } else
+        {
+            task = new ScanRegionTask(region, snapshots, openNewRegions);
+        }
+        task.setJob(job);
+        task.setSampler(sampler);
+
+        if (feed != null)
+        {
+            //run it on one of the scan service's threads
+            executor.execute(task);
 
-        //run it in a separate thread
-        task.start();
+            //start handing over snapshots, the task examines them as they come
+            feed.start();
+            return;
+        }
+
+        //take all the snapshots over as many ticks as it takes (all at once if there's no limit on main thread time and nothing loads asynchronously), then run the task
+        final ScanChunkFeed captureFeed = new ScanChunkFeed(ManagedWorld, lesserChunkX, lesserChunkZ, needed, snapshots.length * snapshots[0].length,
+                this.config_scanCaptureMillisPerTick, this.config_scanPauseCaptureBelowTPS, this.scanChunkProvider, this.config_scanChunkPolicy);
+        if (this.config_scanReadRegionFiles) captureFeed.setRegionReader(new AnvilRegionReader(ManagedWorld));
+        captureFeed.whenDone(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (job.isCancelled())
+                {
+                    AddLogEntry("Region scan of \"" + region.toString() + "\" cancelled.");
+                    scanService.finished(job);
+                    return;
+                }
+
+                captureFeed.drainTo(snapshots);
+                AddLogEntry("Took " + captureFeed.getNeededCount() + " chunk snapshots of region \"" + region.toString() + "\" over " + captureFeed.getTicks() + " ticks, " +
+                        ScanRegionTask.formatMillis(captureFeed.getCaptureNanos()) + " of main thread time, at most " + ScanRegionTask.formatMillis(captureFeed.getMaxTickNanos()) + " in one tick" +
+                        (captureFeed.getPausedTicks() > 0 ? ", paused for " + captureFeed.getPausedTicks() + " ticks of lag" : "") + ".");
+
+                //the executor refuses new work once the plugin is shutting down
+                try
+                {
+                    executor.execute(task);
+                }
+                catch (RuntimeException e)
+                {
+                    AddLogEntry("Unable to start the scan of region \"" + region.toString() + "\": " + e.toString());
+                    scanService.finished(job);
+                }
+            }
+        });
+        job.setFeed(captureFeed);
+        captureFeed.start();
     }
 
     //ensures a piece of the managed world is loaded into server memory
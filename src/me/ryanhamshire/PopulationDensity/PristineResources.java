@@ -0,0 +1,384 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.block.Block;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//resources in each region as the world generator left them, counted from chunks as they're generated
+//a new chunk is snapshotted on the main thread and counted on a background thread, and its counts are added to every region whose scan covers it
+//each region keeps two sets of counts:  what a surface seeded scan reaches within each chunk on its own, which is no more than a scan of the whole region finds,
+//and every block above the scan's depth limit, which is no less
+//once every chunk a scan would cover has been counted, a candidate for the next open region can be judged without loading anything (see getVerdict())
+//player changes are counted too, since they make the pristine counts out of date
+//saved to a file, one line per region, so regions generated long ago are still known after a restart
+//getVerdict() and the block change methods are for the main thread, counting happens on the background thread
+class PristineResources
+{
+    //a scan covers 26 by 26 chunks (see startScan()), so neighbouring regions share a row of chunks
+    private static final int CHUNKS_PER_REGION = PopulationDensity.REGION_SIZE / 16;
+    private static final int CHUNKS_PER_SCAN = CHUNKS_PER_REGION + 1;
+
+    //new chunks beyond this many waiting to be counted are skipped, which only means their regions are never complete
+    private static final int MAX_QUEUED_CHUNKS = 256;
+
+    private final String filePath;
+    private final HashMap<RegionCoordinates, RegionCounts> regions = new HashMap<RegionCoordinates, RegionCounts>();
+    private final AtomicInteger queuedChunks = new AtomicInteger();
+    private final ExecutorService executor;
+    private boolean dirty = false;
+
+    private static class RegionCounts
+    {
+        private final BitSet chunks = new BitSet(CHUNKS_PER_SCAN * CHUNKS_PER_SCAN);
+        private final int[] reachable = new int[ScanMaterials.CATEGORY_COUNT];
+        private final int[] total = new int[ScanMaterials.CATEGORY_COUNT];
+        private int blocksBroken = 0;
+        private int blocksPlaced = 0;
+
+        private boolean isComplete()
+        {
+            return this.chunks.cardinality() == CHUNKS_PER_SCAN * CHUNKS_PER_SCAN;
+        }
+    }
+
+    PristineResources(String filePath)
+    {
+        this.filePath = filePath;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "PopulationDensity Pristine Chunk Counter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        this.load();
+    }
+
+    //called on the main thread when the world generator has just made a chunk in the managed world
+    void chunkGenerated(Chunk chunk)
+    {
+        if (this.queuedChunks.get() >= MAX_QUEUED_CHUNKS) return;
+        this.queuedChunks.incrementAndGet();
+
+        //the highest block map is needed for seeding from the surface
+        final ChunkSnapshot snapshot = chunk.getChunkSnapshot();
+        final int maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
+        final int minY = PopulationDensity.instance.minimumRegionPostY - 20;
+        this.executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    count(snapshot, maxHeight, minY);
+                }
+                catch (Exception e)
+                {
+                    PopulationDensity.AddLogEntry("Unexpected exception counting the resources in a new chunk: " + e.getMessage());
+                }
+                finally
+                {
+                    queuedChunks.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void count(ChunkSnapshot snapshot, int maxHeight, int minY)
+    {
+        int[] reachable = ChunkScanResult.scan(snapshot, maxHeight, minY, true).getCountsReachedFromSky();
+
+        int[] total = new int[ScanMaterials.CATEGORY_COUNT];
+        byte[] categories = ScanMaterials.getCategories();
+        for (int x = 0; x < 16; x++)
+        {
+            for (int z = 0; z < 16; z++)
+            {
+                for (int y = Math.max(0, minY); y < maxHeight; y++)
+                {
+                    total[categories[snapshot.getBlockType(x, y, z).ordinal()]]++;
+                }
+            }
+        }
+
+        this.add(snapshot.getX(), snapshot.getZ(), reachable, total);
+    }
+
+    private synchronized void add(int chunkX, int chunkZ, int[] reachable, int[] total)
+    {
+        int regionX = Math.floorDiv(chunkX, CHUNKS_PER_REGION);
+        int regionZ = Math.floorDiv(chunkZ, CHUNKS_PER_REGION);
+
+        //the chunk is covered by its own region's scan, and by the scan of the region before if it's on the edge they share
+        for (int x = regionX; x >= regionX - 1; x--)
+        {
+            int offsetX = chunkX - x * CHUNKS_PER_REGION;
+            if (offsetX >= CHUNKS_PER_SCAN) continue;
+
+            for (int z = regionZ; z >= regionZ - 1; z--)
+            {
+                int offsetZ = chunkZ - z * CHUNKS_PER_REGION;
+                if (offsetZ >= CHUNKS_PER_SCAN) continue;
+
+                RegionCoordinates region = new RegionCoordinates(x, z);
+                RegionCounts counts = this.regions.get(region);
+                if (counts == null)
+                {
+                    counts = new RegionCounts();
+                    this.regions.put(region, counts);
+                }
+
+                //a chunk counted twice (say, after it was deleted and generated again) replaces nothing, so leave the totals alone
+                int index = offsetX * CHUNKS_PER_SCAN + offsetZ;
+                if (counts.chunks.get(index)) continue;
+                counts.chunks.set(index);
+
+                for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++)
+                {
+                    counts.reachable[category] += reachable[category];
+                    counts.total[category] += total[category];
+                }
+
+                this.dirty = true;
+            }
+        }
+    }
+
+    void recordBreak(Block block)
+    {
+        this.recordChange(block, true);
+    }
+
+    void recordPlace(Block block)
+    {
+        this.recordChange(block, false);
+    }
+
+    private synchronized void recordChange(Block block, boolean broken)
+    {
+        int chunkX = block.getX() >> 4;
+        int chunkZ = block.getZ() >> 4;
+        int regionX = Math.floorDiv(chunkX, CHUNKS_PER_REGION);
+        int regionZ = Math.floorDiv(chunkZ, CHUNKS_PER_REGION);
+
+        for (int x = regionX; x >= regionX - 1; x--)
+        {
+            if (chunkX - x * CHUNKS_PER_REGION >= CHUNKS_PER_SCAN) continue;
+
+            for (int z = regionZ; z >= regionZ - 1; z--)
+            {
+                if (chunkZ - z * CHUNKS_PER_REGION >= CHUNKS_PER_SCAN) continue;
+
+                //regions nobody has seen generated yet have nothing to go out of date
+                RegionCounts counts = this.regions.get(new RegionCoordinates(x, z));
+                if (counts == null) continue;
+
+                if (broken) counts.blocksBroken++;
+                else counts.blocksPlaced++;
+                this.dirty = true;
+            }
+        }
+    }
+
+    //the verdict a scan would reach, if it's certain from the pristine counts alone, otherwise null
+    //too few resources even counting every block means insufficient, as long as nobody has placed any since (mining only takes resources away)
+    //enough resources counting only what's reachable within each chunk means suitable, as long as nobody has changed anything since
+    synchronized ScanVerdict getVerdict(RegionCoordinates region)
+    {
+        RegionCounts counts = this.regions.get(region);
+        if (counts == null || !counts.isComplete()) return null;
+
+        PopulationDensity plugin = PopulationDensity.instance;
+        if (counts.blocksPlaced == 0 &&
+                (ScanMaterials.getResourceScore(counts.total) < plugin.resourceMinimum || counts.total[ScanMaterials.WOOD] < plugin.woodMinimum))
+        {
+            return ScanVerdict.InsufficientResources;
+        }
+
+        if (counts.blocksPlaced == 0 && counts.blocksBroken == 0 &&
+                ScanMaterials.getResourceScore(counts.reachable) >= plugin.resourceMinimum && counts.reachable[ScanMaterials.WOOD] >= plugin.woodMinimum &&
+                counts.total[ScanMaterials.PLAYER_BLOCK] <= 40000 * plugin.densityRatio)
+        {
+            return ScanVerdict.Suitable;
+        }
+
+        return null;
+    }
+
+    //the resource score to go with a verdict from getVerdict(), on the cautious side:  the most a scan could find if insufficient, the least if suitable
+    synchronized int getResourceScore(RegionCoordinates region, ScanVerdict verdict)
+    {
+        RegionCounts counts = this.regions.get(region);
+        if (counts == null) return 0;
+
+        return ScanMaterials.getResourceScore(verdict == ScanVerdict.Suitable ? counts.reachable : counts.total);
+    }
+
+    void shutdown()
+    {
+        this.executor.shutdownNow();
+        this.save();
+    }
+
+    //one line per region:  coordinates;counted chunks;reachable counts;total counts;blocks broken;blocks placed
+    synchronized void save()
+    {
+        if (!this.dirty) return;
+
+        BufferedWriter outStream = null;
+        try
+        {
+            outStream = new BufferedWriter(new FileWriter(this.filePath));
+            for (Map.Entry<RegionCoordinates, RegionCounts> entry : this.regions.entrySet())
+            {
+                RegionCounts counts = entry.getValue();
+                StringBuilder line = new StringBuilder();
+                line.append(entry.getKey().toString()).append(';');
+
+                long[] chunkWords = counts.chunks.toLongArray();
+                for (int i = 0; i < chunkWords.length; i++)
+                {
+                    if (i > 0) line.append(',');
+                    line.append(Long.toHexString(chunkWords[i]));
+                }
+
+                line.append(';').append(join(counts.reachable));
+                line.append(';').append(join(counts.total));
+                line.append(';').append(counts.blocksBroken);
+                line.append(';').append(counts.blocksPlaced);
+
+                outStream.write(line.toString());
+                outStream.newLine();
+            }
+
+            this.dirty = false;
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception saving the pristine resource counts: " + e.getMessage());
+        }
+
+        try
+        {
+            if (outStream != null) outStream.close();
+        }
+        catch (IOException exception) {}
+    }
+
+    private synchronized void load()
+    {
+        File file = new File(this.filePath);
+        if (!file.exists()) return;
+
+        BufferedReader inStream = null;
+        try
+        {
+            inStream = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = inStream.readLine()) != null)
+            {
+                if (line.trim().isEmpty()) continue;
+
+                try
+                {
+                    String[] parts = line.split(";", -1);
+                    RegionCounts counts = new RegionCounts();
+
+                    if (!parts[1].isEmpty())
+                    {
+                        String[] words = parts[1].split(",");
+                        long[] chunkWords = new long[words.length];
+                        for (int i = 0; i < words.length; i++)
+                        {
+                            chunkWords[i] = Long.parseUnsignedLong(words[i], 16);
+                        }
+                        counts.chunks.or(BitSet.valueOf(chunkWords));
+                    }
+
+                    split(parts[2], counts.reachable);
+                    split(parts[3], counts.total);
+                    counts.blocksBroken = Integer.parseInt(parts[4]);
+                    counts.blocksPlaced = Integer.parseInt(parts[5]);
+
+                    this.regions.put(new RegionCoordinates(parts[0]), counts);
+                }
+
+                //skip anything unreadable, rather than losing the rest of the file
+                catch (Exception e)
+                {
+                    PopulationDensity.AddLogEntry("Skipped an unreadable line in the pristine resource counts: " + line);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception reading the pristine resource counts: " + e.getMessage());
+        }
+
+        try
+        {
+            if (inStream != null) inStream.close();
+        }
+        catch (IOException exception) {}
+    }
+
+    private static String join(int[] values)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0) builder.append(' ');
+            builder.append(values[i]);
+        }
+
+        return builder.toString();
+    }
+
+    //categories added since the file was written are left at zero
+    private static void split(String text, int[] values)
+    {
+        String[] parts = text.split(" ");
+        for (int i = 0; i < parts.length && i < values.length; i++)
+        {
+            values[i] = Integer.parseInt(parts[i]);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.List;
+
+//picks the next region to open by scanning several upcoming spots on the region spiral at once, instead of opening and scanning them one at a time
+//the scans go through the ScanService, so they run in the background (as many at once as it allows) and are recorded in the scan history
+//once they're all done, the first (or the best) suitable candidate is opened, along with the ones before it on the spiral, exactly as the one-at-a-time chain would have
+//candidates past the chosen one stay unopened, and their recent scans are reused the next time around
+//candidates which were generated while the plugin was counting may not need a scan at all (see PristineResources)
+//main thread only
+class RegionCandidateEvaluator
+{
+    private final int candidateCount;
+    private final boolean pickBest;
+    private final long maxResultAgeMillis;
+
+    private List<RegionCoordinates> candidates;
+    private ScanVerdict[] verdicts;
+    private int[] resourceScores;
+    private boolean[] failed;
+    private int remaining;
+    private boolean cancelled = false;
+
+    RegionCandidateEvaluator(int candidateCount, boolean pickBest, int maxResultAgeHours)
+    {
+        this.candidateCount = Math.max(1, candidateCount);
+        this.pickBest = pickBest;
+        this.maxResultAgeMillis = maxResultAgeHours * 60L * 60 * 1000;
+    }
+
+    //scans the candidates which don't have a recent enough result
+    void start()
+    {
+        PopulationDensity plugin = PopulationDensity.instance;
+        this.candidates = plugin.dataStore.getUpcomingRegions(this.candidateCount);
+        this.verdicts = new ScanVerdict[this.candidates.size()];
+        this.resourceScores = new int[this.candidates.size()];
+        this.failed = new boolean[this.candidates.size()];
+        this.remaining = this.candidates.size();
+
+        StringBuilder candidateList = new StringBuilder();
+        for (RegionCoordinates candidate : this.candidates)
+        {
+            if (candidateList.length() > 0) candidateList.append(", ");
+            candidateList.append(candidate.toString());
+        }
+        PopulationDensity.AddLogEntry("Evaluating " + this.candidates.size() + " candidates for the next open region: " + candidateList.toString() + ".");
+
+        for (int i = 0; i < this.candidates.size(); i++)
+        {
+            final int index = i;
+            RegionCoordinates candidate = this.candidates.get(i);
+
+            //no need to scan candidates which are hopeless anyway
+            if (plugin.config_scanPrefilterCandidates)
+            {
+                String rejectionReason = plugin.dataStore.regionPrefilter.getRejectionReason(candidate);
+                if (rejectionReason != null)
+                {
+                    PopulationDensity.AddLogEntry("Candidate " + candidate.toString() + " ruled out without a scan: " + rejectionReason + ".");
+                    this.remaining--;
+                    continue;
+                }
+            }
+
+            //reuse a recent scan, probably from an earlier evaluation which picked a candidate before this one
+            ScanHistoryEntry latest = plugin.dataStore.scanHistory.getLatest(candidate);
+            if (latest != null && System.currentTimeMillis() - latest.timestamp < this.maxResultAgeMillis)
+            {
+                this.verdicts[index] = latest.verdict;
+                this.resourceScores[index] = latest.resourceScore;
+                this.remaining--;
+                continue;
+            }
+
+            //or its resources when it was generated, if they settle it (see PristineResources)
+            if (plugin.pristineResources != null)
+            {
+                ScanVerdict verdict = plugin.pristineResources.getVerdict(candidate);
+                if (verdict != null)
+                {
+                    this.verdicts[index] = verdict;
+                    this.resourceScores[index] = plugin.pristineResources.getResourceScore(candidate, verdict);
+                    PopulationDensity.AddLogEntry("Candidate " + candidate.toString() + " judged without a scan from its resources when it was generated: " + verdict.name() + ".");
+                    this.remaining--;
+                    continue;
+                }
+            }
+
+            //candidates aren't opened by their own scans, the evaluator decides once it has all the results
+            //(never approximate, since an approximate scan may not settle on a verdict)
+            final ScanJob job = plugin.scanService.submit(candidate, false, plugin.getFallbackScanMode());
+            job.whenFinished(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    candidateFinished(index, job);
+                }
+            });
+        }
+
+        if (this.remaining == 0) this.decide();
+    }
+
+    private void candidateFinished(int index, ScanJob job)
+    {
+        if (job.isCancelled()) this.cancelled = true;
+        this.verdicts[index] = job.getVerdict();
+
+        //a scan which failed or was abandoned says nothing about the candidate, which isn't the same as it being unsuitable
+        if (this.verdicts[index] == null) this.failed[index] = true;
+        this.resourceScores[index] = job.getResourceScore();
+
+        this.remaining--;
+        if (this.remaining == 0) this.decide();
+    }
+
+    private void decide()
+    {
+        //leave the open region alone if an admin stepped in
+        if (this.cancelled)
+        {
+            PopulationDensity.AddLogEntry("A candidate scan was cancelled, so no new region was opened.");
+            return;
+        }
+
+        int chosen = -1;
+        for (int i = 0; i < this.candidates.size(); i++)
+        {
+            if (this.verdicts[i] != ScanVerdict.Suitable) continue;
+
+            if (chosen == -1 || (this.pickBest && this.resourceScores[i] > this.resourceScores[chosen])) chosen = i;
+            if (!this.pickBest) break;
+        }
+
+        //opening a candidate means opening every one before it too, so none of those may be left without a verdict
+        int mustBeSettled = chosen == -1 ? this.candidates.size() : chosen;
+        for (int i = 0; i < mustBeSettled; i++)
+        {
+            if (this.failed[i])
+            {
+                PopulationDensity.AddLogEntry("The scan of candidate " + this.candidates.get(i).toString() + " didn't reach a verdict, so no new region was opened.");
+                return;
+            }
+        }
+
+        DataStore dataStore = PopulationDensity.instance.dataStore;
+        if (chosen == -1)
+        {
+            RegionCoordinates lastCandidate = this.candidates.get(this.candidates.size() - 1);
+            if (RegionPrefilter.isPastWorldBorder(lastCandidate))
+            {
+                PopulationDensity.AddLogEntry("None of the candidates is suitable for new players, and every region from here on is outside the world border, so no new region was opened.");
+                return;
+            }
+
+            //none of them will do, so open them all (just like scanning them one at a time would have) and try the next batch
+            PopulationDensity.AddLogEntry("None of the candidates is suitable for new players, trying the next " + this.candidateCount + ".");
+            for (int i = 0; i < this.candidates.size(); i++)
+            {
+                dataStore.addRegion();
+            }
+
+            new RegionCandidateEvaluator(this.candidateCount, this.pickBest, (int)(this.maxResultAgeMillis / 1000 / 60 / 60)).start();
+            return;
+        }
+
+        //open regions along the spiral until the chosen one is open, so the spiral stays compact
+        RegionCoordinates target = this.candidates.get(chosen);
+        for (int i = 0; i <= chosen && !target.equals(dataStore.getOpenRegion()); i++)
+        {
+            dataStore.addRegion();
+        }
+
+        if (target.equals(dataStore.getOpenRegion()))
+        {
+            PopulationDensity.AddLogEntry("Opened region \"" + dataStore.getRegionName(target) + "\" at " + target.toString() + ", candidate " + (chosen + 1) + " of " + this.candidates.size() +
+                    " (resource score " + this.resourceScores[chosen] + ").");
+        } else
+        {
+            //someone else opened or named regions in the meantime, so the spiral moved on
+            PopulationDensity.AddLogEntry("The region spiral changed while candidates were being scanned, scanning the open region \"" + dataStore.getOpenRegion().toString() + "\" instead.");
+            PopulationDensity.instance.scanRegion(dataStore.getOpenRegion(), true, PopulationDensity.instance.getAutomaticScanMode());
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+
+//scans every named region, one at a time, for a map of player block density and resources across the whole world (/PDCensus)
+//a region's scan only starts when no other scan is running or waiting, the server is keeping up, and the chunk load budget for the last hour isn't spent
+//each region is appended to census.csv as soon as it's done, and a census which was running when the server stopped picks up where it left off
+//once every region is done, the whole table is also written to census.json
+//main thread only
+class RegionCensus implements Runnable, Listener
+{
+    //how often run() is called
+    static final long PERIOD_TICKS = 20L;
+
+    private static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    //how long to wait for a finished scan's report before giving up on the region
+    private static final int MAX_REPORT_WAIT_RUNS = 30;
+
+    private static final String[] COLUMNS = {"region", "x", "z", "scanned", "verdict", "playerBlocks", "playerBlockMaximum", "density", "resourceScore",
+            "wood", "coal", "iron", "gold", "redstone", "lapis", "emerald", "diamond", "chunksLoaded"};
+
+    private final File csvFile;
+    private final File jsonFile;
+
+    //exists while a census is running, so it can be resumed after a restart
+    private final File runningFile;
+
+    private final double minimumTPS;
+    private final int chunkLoadsPerHour;
+
+    private boolean running = false;
+    private int regionCount = 0;
+    private final ArrayList<RegionCoordinates> remaining = new ArrayList<RegionCoordinates>();
+
+    //rows already written, kept for census.json
+    private final ArrayList<String[]> rows = new ArrayList<String[]>();
+
+    //the region being scanned, with its job and, once it arrives, its report
+    private RegionCoordinates currentRegion = null;
+    private ScanJob currentJob = null;
+    private boolean currentJobFinished = false;
+    private ScanReport currentReport = null;
+    private int reportWaitRuns = 0;
+
+    //(time, chunks loaded) for each region scanned in the last hour
+    private final ArrayDeque<long[]> chunkLoads = new ArrayDeque<long[]>();
+
+    //why the census isn't scanning anything right now, for /PDCensus status
+    private String waitingReason = null;
+
+    RegionCensus(String folderPath, double minimumTPS, int chunkLoadsPerHour)
+    {
+        File folder = new File(folderPath);
+        this.csvFile = new File(folder, "census.csv");
+        this.jsonFile = new File(folder, "census.json");
+        this.runningFile = new File(folder, "census.running");
+        this.minimumTPS = minimumTPS;
+        this.chunkLoadsPerHour = chunkLoadsPerHour;
+    }
+
+    //called when the plugin is enabled
+    void resumeIfInterrupted()
+    {
+        if (!this.runningFile.exists()) return;
+
+        PopulationDensity.AddLogEntry("Resuming the region census which was running when the server stopped.");
+        this.start(false);
+    }
+
+    //starts a census, or continues the last one unless fresh is set
+    //returns false if one is already running
+    boolean start(boolean fresh)
+    {
+        if (this.running) return false;
+
+        this.csvFile.getParentFile().mkdirs();
+        this.rows.clear();
+        this.remaining.clear();
+        this.chunkLoads.clear();
+
+        //a finished census isn't continued, there's nothing left to do
+        if (fresh || !this.csvFile.exists() || this.jsonFile.exists())
+        {
+            this.csvFile.delete();
+            this.jsonFile.delete();
+            this.appendLine(this.csvFile, join(COLUMNS));
+        } else
+        {
+            this.loadRows();
+        }
+
+        HashSet<RegionCoordinates> done = new HashSet<RegionCoordinates>();
+        for (String[] row : this.rows)
+        {
+            done.add(new RegionCoordinates(Integer.parseInt(row[1]), Integer.parseInt(row[2])));
+        }
+
+        for (RegionCoordinates region : PopulationDensity.instance.dataStore.getNamedRegions())
+        {
+            if (!done.contains(region)) this.remaining.add(region);
+        }
+
+        this.regionCount = this.rows.size() + this.remaining.size();
+        this.running = true;
+        this.waitingReason = null;
+        this.createRunningFile();
+
+        PopulationDensity.AddLogEntry("Region census started: " + this.remaining.size() + " regions to scan, " + this.rows.size() + " already done.");
+        return true;
+    }
+
+    //stops scanning, leaving census.csv as it is for a later start() to continue
+    //returns false if no census was running
+    boolean stop()
+    {
+        if (!this.running) return false;
+
+        if (this.currentJob != null && !this.currentJobFinished)
+        {
+            PopulationDensity.instance.scanService.cancel(this.currentRegion);
+        }
+
+        this.running = false;
+        this.clearCurrent();
+        this.runningFile.delete();
+
+        PopulationDensity.AddLogEntry("Region census stopped after " + this.rows.size() + " of " + this.regionCount + " regions.");
+        return true;
+    }
+
+    boolean isRunning()
+    {
+        return this.running;
+    }
+
+    int getDoneCount()
+    {
+        return this.rows.size();
+    }
+
+    int getRegionCount()
+    {
+        return this.regionCount;
+    }
+
+    //what the census is doing right now, in a few words
+    String getActivity()
+    {
+        if (this.currentRegion != null) return "scanning region " + this.currentRegion.toString();
+        if (this.waitingReason != null) return "waiting because " + this.waitingReason;
+        return "about to scan the next region";
+    }
+
+    File getOutputFile()
+    {
+        return this.csvFile;
+    }
+
+    @EventHandler
+    public void onRegionScanCompleted(RegionScanCompletedEvent event)
+    {
+        if (this.currentRegion != null && this.currentRegion.equals(event.getReport().getRegion()))
+        {
+            this.currentReport = event.getReport();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        if (!this.running) return;
+
+        if (this.currentJob != null)
+        {
+            this.checkCurrentScan();
+            return;
+        }
+
+        if (this.remaining.isEmpty())
+        {
+            this.finish();
+            return;
+        }
+
+        //census scans go last, after anything else which wants to scan
+        PopulationDensity plugin = PopulationDensity.instance;
+        if (!plugin.scanService.isIdle())
+        {
+            this.waitingReason = "other region scans are running";
+            return;
+        }
+
+        if (PopulationDensity.serverTicksPerSecond < this.minimumTPS)
+        {
+            this.waitingReason = "the server is running at " + Math.round(PopulationDensity.serverTicksPerSecond * 10) / 10.0 + " ticks per second";
+            return;
+        }
+
+        int recentChunkLoads = this.getRecentChunkLoads();
+        if (this.chunkLoadsPerHour > 0 && recentChunkLoads >= this.chunkLoadsPerHour)
+        {
+            this.waitingReason = recentChunkLoads + " chunks were loaded for it in the last hour";
+            return;
+        }
+
+        this.waitingReason = null;
+        this.currentRegion = this.remaining.get(0);
+        this.currentJob = plugin.scanService.submit(this.currentRegion, false, ScanMode.Full);
+        this.currentJob.whenFinished(new Runnable()
+        {
+            private final ScanJob job = currentJob;
+
+            @Override
+            public void run()
+            {
+                //a stopped census may have moved on already
+                if (currentJob == this.job) currentJobFinished = true;
+            }
+        });
+    }
+
+    private void checkCurrentScan()
+    {
+        if (!this.currentJobFinished) return;
+
+        RegionCoordinates region = this.currentRegion;
+        if (this.currentReport != null)
+        {
+            ScanReport report = this.currentReport;
+            if (report.getChunksLoaded() > 0) this.chunkLoads.add(new long[]{System.currentTimeMillis(), report.getChunksLoaded()});
+            this.record(region, report);
+            this.remaining.remove(0);
+            this.clearCurrent();
+            return;
+        }
+
+        if (this.currentJob.isCancelled())
+        {
+            PopulationDensity.AddLogEntry("The region census scan of \"" + region.toString() + "\" was cancelled, so the census is stopping too.");
+            this.stop();
+            return;
+        }
+
+        //the report follows the scan by a few ticks, unless the scan failed
+        if (this.currentJob.getVerdict() != null && ++this.reportWaitRuns < MAX_REPORT_WAIT_RUNS) return;
+
+        PopulationDensity.AddLogEntry("Region census skipped region \"" + region.toString() + "\" because its scan didn't finish.  It will be scanned again if the census is resumed.");
+        this.remaining.remove(0);
+        this.regionCount--;
+        this.clearCurrent();
+    }
+
+    private void clearCurrent()
+    {
+        this.currentRegion = null;
+        this.currentJob = null;
+        this.currentJobFinished = false;
+        this.currentReport = null;
+        this.reportWaitRuns = 0;
+    }
+
+    private int getRecentChunkLoads()
+    {
+        long cutoff = System.currentTimeMillis() - HOUR_MILLIS;
+        int total = 0;
+        Iterator<long[]> iterator = this.chunkLoads.iterator();
+        while (iterator.hasNext())
+        {
+            long[] entry = iterator.next();
+            if (entry[0] < cutoff)
+            {
+                iterator.remove();
+            } else
+            {
+                total += entry[1];
+            }
+        }
+
+        return total;
+    }
+
+    private void record(RegionCoordinates region, ScanReport report)
+    {
+        String name = PopulationDensity.instance.dataStore.getRegionName(region);
+
+        String[] row = {
+                name != null ? name.replace(',', ' ').replace('"', ' ').replace('\\', ' ') : "",
+                String.valueOf(region.x),
+                String.valueOf(region.z),
+                String.valueOf(report.getTimestamp()),
+                report.getVerdict().name(),
+                String.valueOf(report.getCount(ScanReport.Resource.PLAYER_BLOCKS)),
+                String.format(Locale.ROOT, "%.0f", report.getPlayerBlockMaximum()),
+                String.format(Locale.ROOT, "%.4f", report.getDensity()),
+                String.valueOf(report.getResourceScore()),
+                String.valueOf(report.getCount(ScanReport.Resource.WOOD)),
+                String.valueOf(report.getCount(ScanReport.Resource.COAL)),
+                String.valueOf(report.getCount(ScanReport.Resource.IRON)),
+                String.valueOf(report.getCount(ScanReport.Resource.GOLD)),
+                String.valueOf(report.getCount(ScanReport.Resource.REDSTONE)),
+                String.valueOf(report.getCount(ScanReport.Resource.LAPIS)),
+                String.valueOf(report.getCount(ScanReport.Resource.EMERALD)),
+                String.valueOf(report.getCount(ScanReport.Resource.DIAMOND)),
+                String.valueOf(Math.max(0, report.getChunksLoaded()))};
+
+        this.rows.add(row);
+        this.appendLine(this.csvFile, join(row));
+    }
+
+    //every region is done, so write out the whole table
+    private void finish()
+    {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < this.rows.size(); i++)
+        {
+            String[] row = this.rows.get(i);
+            json.append("  {");
+            for (int column = 0; column < COLUMNS.length; column++)
+            {
+                if (column > 0) json.append(", ");
+                json.append('"').append(COLUMNS[column]).append("\": ");
+
+                //the region name and verdict are the only text, the rest are numbers
+                if (column == 0 || column == 4)
+                {
+                    json.append('"').append(row[column]).append('"');
+                } else
+                {
+                    json.append(row[column]);
+                }
+            }
+            json.append(i < this.rows.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("]");
+
+        this.jsonFile.delete();
+        this.appendLine(this.jsonFile, json.toString());
+
+        this.running = false;
+        this.runningFile.delete();
+        PopulationDensity.AddLogEntry("Region census finished: " + this.rows.size() + " regions, written to " + this.csvFile.getPath() + " and " + this.jsonFile.getPath() + ".");
+    }
+
+    private void loadRows()
+    {
+        BufferedReader inStream = null;
+        try
+        {
+            inStream = new BufferedReader(new FileReader(this.csvFile));
+            String line = inStream.readLine();
+            while ((line = inStream.readLine()) != null)
+            {
+                if (line.trim().isEmpty()) continue;
+
+                String[] row = line.split(",", -1);
+                try
+                {
+                    if (row.length != COLUMNS.length) throw new IllegalArgumentException();
+                    Integer.parseInt(row[1]);
+                    Integer.parseInt(row[2]);
+                    this.rows.add(row);
+                }
+
+                //skip anything unreadable, that region will just be scanned again
+                catch (Exception e)
+                {
+                    PopulationDensity.AddLogEntry("Skipped an unreadable line in the region census: " + line);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception reading the region census: " + e.getMessage());
+        }
+
+        try
+        {
+            if (inStream != null) inStream.close();
+        }
+        catch (IOException exception) {}
+    }
+
+    private void createRunningFile()
+    {
+        try
+        {
+            this.runningFile.createNewFile();
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception marking the region census as running: " + e.getMessage());
+        }
+    }
+
+    private void appendLine(File file, String line)
+    {
+        BufferedWriter outStream = null;
+        try
+        {
+            outStream = new BufferedWriter(new FileWriter(file, true));
+            outStream.write(line);
+            outStream.newLine();
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception saving the region census: " + e.getMessage());
+        }
+
+        try
+        {
+            if (outStream != null) outStream.close();
+        }
+        catch (IOException exception) {}
+    }
+
+    private static String join(String[] fields)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < fields.length; i++)
+        {
+            if (i > 0) builder.append(',');
+            builder.append(fields[i]);
+        }
+
+        return builder.toString();
+    }
+}
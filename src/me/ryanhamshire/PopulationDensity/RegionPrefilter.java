@@ -0,0 +1,209 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.World;
+import org.bukkit.WorldBorder;
+import org.bukkit.block.Biome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+
+//rules out hopeless candidates for a new open region before any chunks are loaded for a scan
+//a region is rejected if too little of it is inside the world border, or if too much of it is ocean
+//biomes are sampled once per chunk, and for chunks which aren't loaded the server answers from the world generator's biome layout instead of loading them
+//rejections are remembered in a file, one line per region (coordinates;reason), so they're never checked again
+//delete the file to have every region considered again, for example after growing the world border
+//main thread only
+class RegionPrefilter
+{
+    private static final int CHUNK_SIZE = 16;
+
+    private final String filePath;
+    private HashMap<RegionCoordinates, String> rejections = null;
+
+    RegionPrefilter(String filePath)
+    {
+        this.filePath = filePath;
+    }
+
+    //returns why the region can't be opened for new players, or null if it's worth scanning
+    String getRejectionReason(RegionCoordinates region)
+    {
+        String reason = this.getRejections().get(region);
+        if (reason != null) return reason;
+
+        reason = this.check(region);
+        if (reason != null)
+        {
+            this.getRejections().put(region, reason);
+            this.append(region, reason);
+        }
+
+        return reason;
+    }
+
+    //true if this region, and every region after it on the spiral, lies entirely outside the world border
+    //the spiral goes around region 0 0 in square rings, so once a whole ring misses the border, so do all the rings outside it
+    static boolean isPastWorldBorder(RegionCoordinates region)
+    {
+        WorldBorder border = PopulationDensity.ManagedWorld.getWorldBorder();
+        double halfSize = border.getSize() / 2;
+        int ring = Math.max(Math.max(region.x, -region.x), Math.max(region.z, -region.z));
+        if (ring == 0) return false;
+
+        //the blocks covered by the rings inside this one
+        double innerMin = -(ring - 1) * (double)PopulationDensity.REGION_SIZE;
+        double innerMax = ring * (double)PopulationDensity.REGION_SIZE;
+
+        return border.getCenter().getX() - halfSize >= innerMin && border.getCenter().getX() + halfSize <= innerMax &&
+                border.getCenter().getZ() - halfSize >= innerMin && border.getCenter().getZ() + halfSize <= innerMax;
+    }
+
+    private String check(RegionCoordinates region)
+    {
+        PopulationDensity plugin = PopulationDensity.instance;
+        World world = PopulationDensity.ManagedWorld;
+        int minX = region.x * PopulationDensity.REGION_SIZE;
+        int minZ = region.z * PopulationDensity.REGION_SIZE;
+        int maxX = minX + PopulationDensity.REGION_SIZE;
+        int maxZ = minZ + PopulationDensity.REGION_SIZE;
+
+        //world border, which is a square
+        WorldBorder border = world.getWorldBorder();
+        double halfSize = border.getSize() / 2;
+        double borderMinX = border.getCenter().getX() - halfSize;
+        double borderMaxX = border.getCenter().getX() + halfSize;
+        double borderMinZ = border.getCenter().getZ() - halfSize;
+        double borderMaxZ = border.getCenter().getZ() + halfSize;
+
+        //players arrive at the center, and can't be sent there if it's outside the border (see TeleportPlayerToRegion())
+        int centerX = minX + PopulationDensity.REGION_SIZE / 2;
+        int centerZ = minZ + PopulationDensity.REGION_SIZE / 2;
+        if (centerX < borderMinX || centerX > borderMaxX || centerZ < borderMinZ || centerZ > borderMaxZ)
+        {
+            return "the region's center is outside the world border";
+        }
+
+        double insideX = Math.max(0, Math.min(maxX, borderMaxX) - Math.max(minX, borderMinX));
+        double insideZ = Math.max(0, Math.min(maxZ, borderMaxZ) - Math.max(minZ, borderMinZ));
+        double shareInside = insideX * insideZ / ((double)PopulationDensity.REGION_SIZE * PopulationDensity.REGION_SIZE);
+        if (shareInside < plugin.config_scanPrefilterMinShareInsideBorder)
+        {
+            return "only " + Math.round(shareInside * 100) + "% of the region is inside the world border";
+        }
+
+        //biomes, at the middle of each chunk which is inside the border
+        int sampleCount = 0;
+        int oceanCount = 0;
+        for (int x = minX + CHUNK_SIZE / 2; x < maxX; x += CHUNK_SIZE)
+        {
+            for (int z = minZ + CHUNK_SIZE / 2; z < maxZ; z += CHUNK_SIZE)
+            {
+                if (x < borderMinX || x > borderMaxX || z < borderMinZ || z > borderMaxZ) continue;
+
+                sampleCount++;
+                if (isOcean(world.getBiome(x, z))) oceanCount++;
+            }
+        }
+
+        if (sampleCount > 0 && oceanCount > sampleCount * plugin.config_scanPrefilterMaxOceanShare)
+        {
+            return Math.round(oceanCount * 100.0 / sampleCount) + "% of the region is ocean";
+        }
+
+        return null;
+    }
+
+    //all the ocean biomes, deep, frozen, warm or otherwise, are named *OCEAN
+    private static boolean isOcean(Biome biome)
+    {
+        return biome.name().endsWith("OCEAN");
+    }
+
+    private HashMap<RegionCoordinates, String> getRejections()
+    {
+        if (this.rejections != null) return this.rejections;
+
+        this.rejections = new HashMap<RegionCoordinates, String>();
+        File file = new File(this.filePath);
+        if (!file.exists()) return this.rejections;
+
+        BufferedReader inStream = null;
+        try
+        {
+            inStream = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = inStream.readLine()) != null)
+            {
+                if (line.trim().isEmpty()) continue;
+
+                try
+                {
+                    int separator = line.indexOf(';');
+                    this.rejections.put(new RegionCoordinates(line.substring(0, separator)), line.substring(separator + 1));
+                }
+
+                //skip anything unreadable, rather than losing the rest of the file
+                catch (Exception e)
+                {
+                    PopulationDensity.AddLogEntry("Skipped an unreadable line in the region prefilter rejections: " + line);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception reading the region prefilter rejections: " + e.getMessage());
+        }
+
+        try
+        {
+            if (inStream != null) inStream.close();
+        }
+        catch (IOException exception) {}
+
+        return this.rejections;
+    }
+
+    private void append(RegionCoordinates region, String reason)
+    {
+        BufferedWriter outStream = null;
+        try
+        {
+            outStream = new BufferedWriter(new FileWriter(this.filePath, true));
+            outStream.write(region.toString() + ";" + reason);
+            outStream.newLine();
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception saving the region prefilter rejections: " + e.getMessage());
+        }
+
+        try
+        {
+            if (outStream != null) outStream.close();
+        }
+        catch (IOException exception) {}
+    }
+}
@@ -0,0 +1,52 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+//called on the main thread whenever a region scan reaches a verdict, before any new region is opened because of it
+//scans which are cancelled, or which only lead to another scan, don't call it
+public class RegionScanCompletedEvent extends Event
+{
+    private static final HandlerList handlers = new HandlerList();
+
+    private final ScanReport report;
+
+    RegionScanCompletedEvent(ScanReport report)
+    {
+        this.report = report;
+    }
+
+    public ScanReport getReport()
+    {
+        return this.report;
+    }
+
+    @Override
+    public HandlerList getHandlers()
+    {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList()
+    {
+        return handlers;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+//keeps a running estimate of each recently scanned region's counts, so the open region doesn't have to be rescanned just to see whether it's still fine
+//seeded with the counts from a complete scan, then adjusted as blocks are broken (subtracted) and placed (added), by the same categories the scan uses
+//the scan only counts what it can reach from the surface, so this errs on the low side: ore mined from deep caves comes off an estimate which never included it
+//the estimate is trusted (see ScanScheduler) until it falls short of a threshold, until too much of what was seeded has been mined for it to be reliable, or until it's too old
+//main thread only, and not saved, so after a restart a region has no estimate until it's scanned again
+class ResourceLedger
+{
+    private final double maxDrift;
+    private final long maxAgeMillis;
+
+    private final HashMap<RegionCoordinates, Entry> entries = new HashMap<RegionCoordinates, Entry>();
+
+    ResourceLedger(double maxDrift, int maxAgeHours)
+    {
+        this.maxDrift = maxDrift;
+        this.maxAgeMillis = Math.max(0, maxAgeHours) * 60L * 60 * 1000;
+    }
+
+    //starts over from a scan's counts, which must be complete (not from a scan which stopped early or only sampled the region)
+    void seed(RegionCoordinates region, int[] counts, long timestamp)
+    {
+        //forget estimates too old to be trusted anyway, mostly from candidates which were never opened
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext())
+        {
+            if (timestamp - iterator.next().timestamp >= this.maxAgeMillis) iterator.remove();
+        }
+
+        this.entries.put(region, new Entry(counts, timestamp));
+    }
+
+    //drops the region's estimate, for example when it's about to be scanned again
+    void forget(RegionCoordinates region)
+    {
+        this.entries.remove(region);
+    }
+
+    //called for every block broken in the managed world, before it's gone
+    void recordBreak(Block block)
+    {
+        Entry entry = this.getEntry(block);
+        if (entry != null) entry.adjust(ScanMaterials.getCategory(block.getType()), -1);
+    }
+
+    //called for every block placed in the managed world
+    void recordPlace(Block block)
+    {
+        Entry entry = this.getEntry(block);
+        if (entry != null) entry.adjust(ScanMaterials.getCategory(block.getType()), 1);
+    }
+
+    private Entry getEntry(Block block)
+    {
+        if (this.entries.isEmpty()) return null;
+
+        RegionCoordinates region = RegionCoordinates.fromLocation(block.getLocation());
+        return region != null ? this.entries.get(region) : null;
+    }
+
+    //why the region should be scanned now according to its estimate, or null if the estimate is fine (or there isn't one)
+    String getScanReason(RegionCoordinates region)
+    {
+        Entry entry = this.entries.get(region);
+        if (entry == null) return null;
+
+        PopulationDensity plugin = PopulationDensity.instance;
+        int resourceScore = ScanMaterials.getResourceScore(entry.counts);
+        if (resourceScore < plugin.resourceMinimum)
+        {
+            return "its estimated resource score has dropped to " + resourceScore + " (minimum " + plugin.resourceMinimum + ")";
+        }
+
+        if (entry.counts[ScanMaterials.WOOD] < plugin.woodMinimum)
+        {
+            return "its estimated wood has dropped to " + entry.counts[ScanMaterials.WOOD] + " (minimum " + plugin.woodMinimum + ")";
+        }
+
+        if (entry.counts[ScanMaterials.PLAYER_BLOCK] > 40000 * plugin.densityRatio)
+        {
+            return "its estimated player blocks have risen to " + entry.counts[ScanMaterials.PLAYER_BLOCK] + " (maximum " + (40000 * plugin.densityRatio) + ")";
+        }
+
+        double drift = entry.getDrift();
+        if (drift > this.maxDrift)
+        {
+            return Math.round(drift * 100) + "% of the resources it was last scanned with have been mined since, too much to trust the estimate";
+        }
+
+        return null;
+    }
+
+    //true if the region's estimate is recent and healthy enough to stand in for a routine scan
+    boolean isTrusted(RegionCoordinates region)
+    {
+        Entry entry = this.entries.get(region);
+        return entry != null && System.currentTimeMillis() - entry.timestamp < this.maxAgeMillis && this.getScanReason(region) == null;
+    }
+
+    private static class Entry
+    {
+        final int[] counts;
+        final long timestamp;
+
+        //what the scan found, and how much of it has been mined since
+        final int seededScore;
+        final int seededWood;
+        int minedScore = 0;
+        int minedWood = 0;
+
+        Entry(int[] counts, long timestamp)
+        {
+            this.counts = counts.clone();
+            this.timestamp = timestamp;
+            this.seededScore = ScanMaterials.getResourceScore(counts);
+            this.seededWood = counts[ScanMaterials.WOOD];
+        }
+
+        void adjust(int category, int change)
+        {
+            this.counts[category] = Math.max(0, this.counts[category] + change);
+
+            if (change < 0)
+            {
+                this.minedScore += ScanMaterials.getResourceWeight(category);
+                if (category == ScanMaterials.WOOD) this.minedWood++;
+            }
+        }
+
+        //the larger share of the seeded resource score or wood which has been mined since
+        double getDrift()
+        {
+            double scoreDrift = this.seededScore > 0 ? (double)this.minedScore / this.seededScore : 0;
+            double woodDrift = this.seededWood > 0 ? (double)this.minedWood / this.seededWood : 0;
+            return Math.max(scoreDrift, woodDrift);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+//estimates a region's totals from a random sample of its chunks, instead of examining all of them
+//the region is split into a grid of strata, and a few chunks are picked at random from each, so the sample is spread over the whole region
+//each sampled chunk is counted on its own, the way a surface-seeded scan would count it if nothing reached it from neighboring chunks
+//totals come with a 95% confidence interval, which only covers the sampling error and not the blocks missed by looking at chunks alone
+//those blocks are only ever missed, never added, so the estimates lean low and only their lower ends are bounds a verdict can rest on
+//a scan from a single start position can't be sampled chunk by chunk at all, so with that seed mode the estimate is never complete
+class SampledRegionScanner
+{
+    //two-sided 95% confidence
+    private static final double Z_95 = 1.96;
+
+    //index used for the resource score alongside the material categories
+    private static final int SCORE = ScanMaterials.CATEGORY_COUNT;
+
+    private final int chunksX;
+    private final int chunksZ;
+    private final int strataPerSide;
+    private final boolean[][] sampled;
+    private int sampleSize = 0;
+
+    //results, filled in by scan()
+    private final double[] estimates = new double[SCORE + 1];
+    private final double[] margins = new double[SCORE + 1];
+    private boolean complete = true;
+
+    //picks the sample, fraction being the share of the region's chunks to examine
+    SampledRegionScanner(int chunksX, int chunksZ, double fraction, Random random)
+    {
+        this.chunksX = chunksX;
+        this.chunksZ = chunksZ;
+        this.sampled = new boolean[chunksX][chunksZ];
+
+        //at least two chunks per stratum, so each one's variance can be estimated
+        int chunkCount = chunksX * chunksZ;
+        int targetSize = Math.max(2, (int)Math.ceil(chunkCount * Math.max(0, Math.min(1, fraction))));
+        this.strataPerSide = Math.max(1, Math.min(Math.min(chunksX, chunksZ), (int)Math.sqrt(targetSize / 2)));
+
+        for (int stratum = 0; stratum < this.strataPerSide * this.strataPerSide; stratum++)
+        {
+            ArrayList<Integer> members = this.getMembers(stratum);
+            int stratumSampleSize = Math.min(members.size(), Math.max(2, (int)Math.round(targetSize * members.size() / (double)chunkCount)));
+
+            //a partial shuffle, picking chunks without replacement
+            for (int i = 0; i < stratumSampleSize; i++)
+            {
+                int j = i + random.nextInt(members.size() - i);
+                Integer picked = members.get(j);
+                members.set(j, members.get(i));
+                members.set(i, picked);
+
+                this.sampled[picked / chunksZ][picked % chunksZ] = true;
+                this.sampleSize++;
+            }
+        }
+    }
+
+    //whether a chunk needs a snapshot
+    boolean isSampled(int cx, int cz)
+    {
+        return this.sampled[cx][cz];
+    }
+
+    int getSampleSize()
+    {
+        return this.sampleSize;
+    }
+
+    //examines the sampled snapshots (the others may be null) and works out the estimates
+    void scan(ChunkSnapshot[][] chunks, int maxHeight, int minY, boolean seedFromSurface, ScanJob job, ArrayList<String> statistics)
+    {
+        //a chunk on its own has no blocks reached from a start position somewhere else in the region
+        if (!seedFromSurface)
+        {
+            this.complete = false;
+            statistics.add("Scan Mode: approximate, but a scan from a single start position can't be estimated from a sample of chunks");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        if (job != null) job.setWorkTotal(this.sampleSize);
+
+        int examinedCount = 0;
+        int stratumCount = this.strataPerSide * this.strataPerSide;
+        for (int stratum = 0; stratum < stratumCount; stratum++)
+        {
+            ArrayList<Integer> members = this.getMembers(stratum);
+
+            //per-chunk totals of the sampled chunks which could be loaded
+            ArrayList<double[]> values = new ArrayList<double[]>();
+            for (Integer member : members)
+            {
+                int cx = member / this.chunksZ;
+                int cz = member % this.chunksZ;
+                if (!this.sampled[cx][cz]) continue;
+
+                if (job != null) job.checkCancelled();
+
+                ChunkSnapshot snapshot = chunks[cx][cz];
+                if (snapshot != null)
+                {
+                    int[] counts = ChunkScanResult.scan(snapshot, maxHeight, minY, seedFromSurface).getCountsReachedFromSky();
+                    double[] value = new double[SCORE + 1];
+                    for (int category = 0; category < ScanMaterials.CATEGORY_COUNT; category++) value[category] = counts[category];
+                    value[SCORE] = ScanMaterials.getResourceScore(counts);
+                    values.add(value);
+                    examinedCount++;
+                }
+
+                if (job != null) job.addWorkDone(1);
+            }
+
+            //stratified estimate of the total and its variance
+            int populationSize = members.size();
+            int n = values.size();
+            if (n < 2 && n < populationSize)
+            {
+                //not enough loaded chunks to say how much this part of the region varies
+                this.complete = false;
+                if (n == 0) continue;
+            }
+
+            for (int index = 0; index <= SCORE; index++)
+            {
+                double sum = 0;
+                for (double[] value : values) sum += value[index];
+                double mean = sum / n;
+
+                double squares = 0;
+                for (double[] value : values) squares += (value[index] - mean) * (value[index] - mean);
+                double sampleVariance = n > 1 ? squares / (n - 1) : 0;
+
+                this.estimates[index] += populationSize * mean;
+                this.margins[index] += (double)populationSize * populationSize * (1 - n / (double)populationSize) * sampleVariance / n;
+            }
+        }
+
+        //turn the variances into confidence interval half widths
+        for (int index = 0; index <= SCORE; index++)
+        {
+            this.margins[index] = Z_95 * Math.sqrt(this.margins[index]);
+        }
+
+        long endTime = System.nanoTime();
+        long positions = (long)examinedCount * ChunkScanResult.CHUNK_SIZE * ChunkScanResult.CHUNK_SIZE * maxHeight;
+        statistics.add("Scan Mode: approximate, " + examinedCount + " of " + (this.chunksX * this.chunksZ) + " chunks sampled in " + stratumCount + " strata" +
+                (this.complete ? "" : " (some chunks couldn't be loaded, so the estimate is incomplete)"));
+        statistics.add("Positions Examined: " + positions + " (" + ScanRegionTask.perSecond(positions, endTime - startTime) + " per second)");
+    }
+
+    //false if too few sampled chunks could be loaded for the confidence intervals to mean anything
+    boolean isComplete()
+    {
+        return this.complete;
+    }
+
+    double getEstimate(int category)
+    {
+        return this.estimates[category];
+    }
+
+    double getMargin(int category)
+    {
+        return this.margins[category];
+    }
+
+    double getResourceScoreEstimate()
+    {
+        return this.estimates[SCORE];
+    }
+
+    double getResourceScoreMargin()
+    {
+        return this.margins[SCORE];
+    }
+
+    //the chunks in one stratum, as cx * chunksZ + cz
+    private ArrayList<Integer> getMembers(int stratum)
+    {
+        int stratumX = stratum / this.strataPerSide;
+        int stratumZ = stratum % this.strataPerSide;
+
+        ArrayList<Integer> members = new ArrayList<Integer>();
+        for (int cx = stratumX * this.chunksX / this.strataPerSide; cx < (stratumX + 1) * this.chunksX / this.strataPerSide; cx++)
+        {
+            for (int cz = stratumZ * this.chunksZ / this.strataPerSide; cz < (stratumZ + 1) * this.chunksZ / this.strataPerSide; cz++)
+            {
+                members.add(cx * this.chunksZ + cz);
+            }
+        }
+
+        return members;
+    }
+}
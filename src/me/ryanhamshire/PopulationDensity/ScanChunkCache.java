@@ -0,0 +1,166 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//remembers what region scans learned about each chunk of the managed world, so a rescan only has to look at chunks which changed
+//block events mark chunks dirty, which throws away what was remembered about them
+//shared between the main thread (events, taking snapshots) and the scan threads, so every method is synchronized
+class ScanChunkCache
+{
+    //how long to remember that a chunk was marked dirty, so a scan which snapshotted it just before the change doesn't cache the old contents
+    //(much longer than any scan takes)
+    private static final long DIRTY_MEMORY_NANOS = 10L * 60 * 1000000000L;
+
+    private final int maxEntries;
+    private final long maxAgeNanos;
+
+    //chunk results keyed by chunk coordinates, least recently used first
+    private final LinkedHashMap<Long, CachedChunk> entries;
+
+    //when each recently changed chunk was last marked dirty
+    private final HashMap<Long, Long> dirtyTimes = new HashMap<Long, Long>();
+
+    //lifetime statistics, for the scan log
+    private long hits = 0;
+    private long misses = 0;
+
+    ScanChunkCache(int maxEntries, int maxAgeMinutes)
+    {
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = maxAgeMinutes * 60L * 1000000000L;
+
+        final int limit = maxEntries;
+        this.entries = new LinkedHashMap<Long, CachedChunk>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedChunk> eldest)
+            {
+                return this.size() > limit;
+            }
+        };
+    }
+
+    //returns the remembered result for a chunk, or null if it has to be snapshotted and examined again
+    synchronized ChunkScanResult get(int chunkX, int chunkZ, int height, int minY, boolean seedFromSurface)
+    {
+        Long key = getKey(chunkX, chunkZ);
+        CachedChunk cached = this.entries.get(key);
+
+        ChunkScanResult result = null;
+        if (cached != null)
+        {
+            ChunkScanResult candidate = cached.result;
+            if (System.nanoTime() - cached.capturedTime > this.maxAgeNanos || candidate.height != height || candidate.minY != minY ||
+                    candidate.seedFromSurface != seedFromSurface || candidate.categories != ScanMaterials.getCategories())
+            {
+                this.entries.remove(key);
+            } else
+            {
+                result = candidate;
+            }
+        }
+
+        if (result != null) this.hits++;
+        else this.misses++;
+
+        return result;
+    }
+
+    //remembers a chunk's result, unless the chunk changed after its snapshot was taken
+    synchronized void put(int chunkX, int chunkZ, ChunkScanResult result, long capturedTime)
+    {
+        Long key = getKey(chunkX, chunkZ);
+        Long dirtyTime = this.dirtyTimes.get(key);
+        if (dirtyTime != null && dirtyTime - capturedTime >= 0) return;
+
+        this.entries.put(key, new CachedChunk(result, capturedTime));
+    }
+
+    //forgets what's known about the chunk containing a block
+    void markDirty(Block block)
+    {
+        this.markDirty(block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    synchronized void markDirty(int chunkX, int chunkZ)
+    {
+        Long key = getKey(chunkX, chunkZ);
+        this.entries.remove(key);
+
+        long now = System.nanoTime();
+        this.dirtyTimes.put(key, now);
+
+        //every so often, forget dirty marks which are too old to matter
+        if (this.dirtyTimes.size() > 1024)
+        {
+            Iterator<Long> iterator = this.dirtyTimes.values().iterator();
+            while (iterator.hasNext())
+            {
+                if (now - iterator.next() > DIRTY_MEMORY_NANOS) iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear()
+    {
+        this.entries.clear();
+    }
+
+    synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    int getMaxEntries()
+    {
+        return this.maxEntries;
+    }
+
+    //fraction of lookups which found a usable result, over the cache's whole lifetime
+    synchronized double getHitRatio()
+    {
+        long lookups = this.hits + this.misses;
+        if (lookups == 0) return 0;
+        return this.hits / (double)lookups;
+    }
+
+    private static Long getKey(int chunkX, int chunkZ)
+    {
+        return ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static class CachedChunk
+    {
+        final ChunkScanResult result;
+        final long capturedTime;
+
+        CachedChunk(ChunkScanResult result, long capturedTime)
+        {
+            this.result = result;
+            this.capturedTime = capturedTime;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+//hands chunk snapshots from the main thread to a scan thread through a small queue, instead of snapshotting a whole region up front
+//runs on the main thread every tick, requesting chunks until the queue would be full or the tick's time budget is spent, then waits for the next tick
+//requests go through a ScanChunkProvider, so they may be answered right away or a few ticks later, and chunks are handed over in whatever order they arrive
+//when chunks are loaded asynchronously, only their snapshots are taken on the main thread, outside of run() and its budget
+//chunks the policy rules out are handed over without a snapshot, and chunks the feed had to load are released again once they're snapshotted
+//with a region reader, chunks which aren't loaded are read from the region files instead (see AnvilRegionReader), and only the ones it can't read are loaded
+//the scan thread examines each snapshot as it arrives and drops it, so only a few snapshots are ever held at once
+//also used with a queue big enough for the whole region, just to spread the snapshots over several ticks before a scan which needs all of them (see whenDone())
+//while the server is running behind, it pauses rather than making the lag worse
+class ScanChunkFeed implements Runnable
+{
+    //how long the scan thread waits for the next snapshot before giving up (the server may be shutting down), not counting pauses
+    private static final long TAKE_TIMEOUT_SECONDS = 60;
+
+    //nanoseconds in one tick at full speed
+    private static final long TICK_NANOS = 50000000L;
+
+    private final World world;
+    private final int firstChunkX;
+    private final int firstChunkZ;
+    private final int chunksZ;
+
+    //which chunks to snapshot (indexed x * chunksZ + z), false for the ones the scan already has results for
+    private final boolean[] needed;
+    private final int neededCount;
+
+    private final ArrayBlockingQueue<FedChunk> queue;
+    private final ScanChunkProvider provider;
+    private final ScanChunkPolicy policy;
+
+    //main thread time allowed per tick (0 for no limit), and the ticks per second below which to pause (0 to never pause)
+    private final long budgetNanos;
+    private final double pauseBelowTPS;
+
+    //reads unloaded chunks from the region files, if set, answering on its own thread through the queue below
+    private AnvilRegionReader regionReader = null;
+    private final ConcurrentLinkedQueue<FedChunk> regionFileResults = new ConcurrentLinkedQueue<FedChunk>();
+
+    //main thread only
+    private int nextIndex = 0;
+    private int inFlight = 0;
+    private int handedOver = 0;
+    private boolean done = false;
+    private int taskID = -1;
+    private Runnable doneCallback = null;
+    private long lastRunTime = 0;
+    private double averageTickNanos = TICK_NANOS;
+
+    //written by the main thread, read by the scan thread for its statistics
+    private volatile boolean cancelled = false;
+    private volatile boolean paused = false;
+    private volatile int peakQueued = 0;
+    private volatile int ticks = 0;
+    private volatile int pausedTicks = 0;
+    private volatile long captureNanos = 0;
+    private volatile long maxTickNanos = 0;
+    private volatile int loadedCount = 0;
+    private volatile int generatedCount = 0;
+    private volatile int skippedCount = 0;
+    private volatile int releasedCount = 0;
+    private volatile int regionFileCount = 0;
+
+    ScanChunkFeed(World world, int firstChunkX, int firstChunkZ, boolean[][] needed, int windowSize, int budgetMillis, double pauseBelowTPS, ScanChunkProvider provider, ScanChunkPolicy policy)
+    {
+        this.world = world;
+        this.firstChunkX = firstChunkX;
+        this.firstChunkZ = firstChunkZ;
+        this.chunksZ = needed[0].length;
+
+        this.needed = new boolean[needed.length * this.chunksZ];
+        int count = 0;
+        for (int x = 0; x < needed.length; x++)
+        {
+            for (int z = 0; z < this.chunksZ; z++)
+            {
+                this.needed[x * this.chunksZ + z] = needed[x][z];
+                if (needed[x][z]) count++;
+            }
+        }
+        this.neededCount = count;
+
+        this.queue = new ArrayBlockingQueue<FedChunk>(Math.max(1, windowSize));
+        this.budgetNanos = Math.max(0, budgetMillis) * 1000000L;
+        this.pauseBelowTPS = pauseBelowTPS;
+        this.provider = provider;
+        this.policy = policy;
+    }
+
+    //main thread only, runs the callback (on the main thread) once every needed chunk has been handed over or the feed is cancelled
+    void whenDone(Runnable callback)
+    {
+        this.doneCallback = callback;
+    }
+
+    //main thread only, before start(): reads chunks which aren't loaded from the region files, and closes the reader once the feed is done
+    void setRegionReader(AnvilRegionReader regionReader)
+    {
+        this.regionReader = regionReader;
+    }
+
+    //takes the first batch of snapshots right away, then keeps going once per tick until every needed chunk has been handed over
+    void start()
+    {
+        this.run();
+        if (!this.done)
+        {
+            this.taskID = PopulationDensity.instance.getServer().getScheduler().scheduleSyncRepeatingTask(PopulationDensity.instance, this, 1L, 1L);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        if (this.cancelled || this.handedOver >= this.neededCount)
+        {
+            this.stop();
+            return;
+        }
+
+        long startTime = System.nanoTime();
+
+        //measure the server's speed from the time between runs, averaged over roughly the last second
+        //(the once a minute figure from MonitorPerformanceTask is too slow to react, and would include lag from earlier captures)
+        if (this.lastRunTime != 0) this.averageTickNanos = this.averageTickNanos * 0.95 + (startTime - this.lastRunTime) * 0.05;
+        this.lastRunTime = startTime;
+        if (this.pauseBelowTPS > 0 && this.getRecentTPS() < this.pauseBelowTPS)
+        {
+            this.paused = true;
+            this.pausedTicks++;
+            return;
+        }
+
+        this.paused = false;
+        this.ticks++;
+
+        //chunks read from the region files since the last tick, and the ones which have to be loaded after all
+        FedChunk regionFileResult;
+        while ((regionFileResult = this.regionFileResults.peek()) != null)
+        {
+            if (regionFileResult.snapshot == null && !this.provider.canRequest()) break;
+
+            this.regionFileResults.poll();
+            if (regionFileResult.snapshot != null)
+            {
+                this.regionFileCount++;
+                this.handOver(regionFileResult.index, regionFileResult.snapshot);
+            } else
+            {
+                this.request(regionFileResult.index, false);
+            }
+        }
+
+        //never wait on the main thread, just stop for this tick when the scan thread is behind, the provider is busy or the budget is spent
+        //at least one chunk is requested every tick, so the capture always makes progress
+        boolean requestedChunk = false;
+        while (this.nextIndex < this.needed.length && this.queue.remainingCapacity() > this.inFlight && this.provider.canRequest() &&
+                (!requestedChunk || this.budgetNanos == 0 || System.nanoTime() - startTime < this.budgetNanos))
+        {
+            int index = this.nextIndex++;
+            if (!this.needed[index]) continue;
+
+            this.inFlight++;
+            requestedChunk = true;
+            this.request(index, true);
+        }
+
+        long tickNanos = System.nanoTime() - startTime;
+        this.captureNanos += tickNanos;
+        this.maxTickNanos = Math.max(this.maxTickNanos, tickNanos);
+
+        if (this.handedOver >= this.neededCount) this.stop();
+    }
+
+    //main thread only, gets one chunk (already counted in flight) and hands it over whenever it arrives
+    private void request(final int index, boolean tryRegionFile)
+    {
+        final int chunkX = this.firstChunkX + index / this.chunksZ;
+        final int chunkZ = this.firstChunkZ + index % this.chunksZ;
+
+        //chunks which are loaded already are left alone, the rest may be read from disk, skipped, or generated
+        final boolean wasLoaded = this.world.isChunkLoaded(chunkX, chunkZ);
+        if (!wasLoaded)
+        {
+            //reading a region file doesn't load anything, so every policy allows it, and if the chunk isn't there it comes back to be dealt with below
+            if (tryRegionFile && this.regionReader != null)
+            {
+                this.regionReader.readLater(chunkX, chunkZ, new Consumer<ChunkSnapshot>()
+                {
+                    @Override
+                    public void accept(ChunkSnapshot snapshot)
+                    {
+                        regionFileResults.add(new FedChunk(index, snapshot));
+                    }
+                });
+                return;
+            }
+
+            boolean generated = this.world.isChunkGenerated(chunkX, chunkZ);
+            if (this.policy == ScanChunkPolicy.LoadedOnly || (this.policy == ScanChunkPolicy.GeneratedOnly && !generated))
+            {
+                this.skippedCount++;
+                this.handOver(index, null);
+                return;
+            }
+
+            this.loadedCount++;
+            if (!generated) this.generatedCount++;
+        }
+
+        this.provider.request(this.world, chunkX, chunkZ).thenAccept(new Consumer<ChunkSnapshot>()
+        {
+            @Override
+            public void accept(ChunkSnapshot snapshot)
+            {
+                //nobody needed this chunk before the scan, and the scan only needs the snapshot, so the server may unload it whenever it likes
+                //(released before handing it over, so the count is final by the time the scan reports it)
+                if (!wasLoaded && world.unloadChunkRequest(chunkX, chunkZ)) releasedCount++;
+
+                handOver(index, snapshot);
+            }
+        });
+    }
+
+    //main thread only, called when a requested chunk arrives
+    //chunks which can't be loaded are still handed over (without a snapshot), so the scan thread knows not to wait for them
+    private void handOver(int index, ChunkSnapshot snapshot)
+    {
+        this.inFlight--;
+        if (this.cancelled) return;
+
+        this.queue.offer(new FedChunk(index, snapshot));
+        this.peakQueued = Math.max(this.peakQueued, this.queue.size());
+        this.handedOver++;
+    }
+
+    private void stop()
+    {
+        this.done = true;
+        if (this.taskID != -1)
+        {
+            PopulationDensity.instance.getServer().getScheduler().cancelTask(this.taskID);
+            this.taskID = -1;
+        }
+
+        if (this.regionReader != null)
+        {
+            this.regionReader.close();
+            this.regionReader = null;
+        }
+
+        Runnable callback = this.doneCallback;
+        this.doneCallback = null;
+        if (callback != null) callback.run();
+    }
+
+    //ticks per second lately, as seen by this feed
+    private double getRecentTPS()
+    {
+        return Math.min(20, 1000000000.0 / this.averageTickNanos);
+    }
+
+    //main thread only, for use once the feed is done: moves every queued snapshot into place, indexed like the needed chunks
+    void drainTo(ChunkSnapshot[][] snapshots)
+    {
+        FedChunk fedChunk;
+        while ((fedChunk = this.queue.poll()) != null)
+        {
+            snapshots[fedChunk.index / this.chunksZ][fedChunk.index % this.chunksZ] = fedChunk.snapshot;
+        }
+    }
+
+    //scan thread only: waits for the next chunk, or throws if the feed was cancelled or nothing arrives in a reasonable amount of time
+    FedChunk take() throws InterruptedException
+    {
+        for (long waited = 0; waited < TAKE_TIMEOUT_SECONDS; waited++)
+        {
+            if (this.cancelled) throw new CancellationException("chunk feed cancelled");
+
+            FedChunk fedChunk = this.queue.poll(1, TimeUnit.SECONDS);
+            if (fedChunk != null) return fedChunk;
+
+            //a pause for lag doesn't count towards giving up
+            if (this.paused) waited = -1;
+        }
+
+        this.cancel();
+        throw new IllegalStateException("no chunk snapshot arrived for " + TAKE_TIMEOUT_SECONDS + " seconds");
+    }
+
+    //tells the main thread to stop taking snapshots, for when the scan has to be abandoned
+    void cancel()
+    {
+        this.cancelled = true;
+        this.queue.clear();
+    }
+
+    //how many chunks the scan thread should take()
+    int getNeededCount()
+    {
+        return this.neededCount;
+    }
+
+    int getQueuedCount()
+    {
+        return this.queue.size();
+    }
+
+    int getWindowSize()
+    {
+        return this.queue.size() + this.queue.remainingCapacity();
+    }
+
+    int getPeakQueued()
+    {
+        return this.peakQueued;
+    }
+
+    int getTicks()
+    {
+        return this.ticks;
+    }
+
+    long getCaptureNanos()
+    {
+        return this.captureNanos;
+    }
+
+    //the most main thread time taken in any one tick
+    long getMaxTickNanos()
+    {
+        return this.maxTickNanos;
+    }
+
+    int getPausedTicks()
+    {
+        return this.pausedTicks;
+    }
+
+    //chunks the feed had to load (including generated ones)
+    int getLoadedCount()
+    {
+        return this.loadedCount;
+    }
+
+    //chunks the policy ruled out, which were handed over without a snapshot
+    int getSkippedCount()
+    {
+        return this.skippedCount;
+    }
+
+    //chunk counts for the scan report: read from region files, loaded by the feed (including generated ones), generated, skipped by the policy, and released again
+    String getChunkLoadingSummary()
+    {
+        return this.policy.name() + " policy, " + this.regionFileCount + " chunks read from region files, " + this.loadedCount + " loaded for the scan (" + this.generatedCount + " of them generated), " +
+                this.skippedCount + " skipped, " + this.releasedCount + " released afterwards";
+    }
+
+    //one chunk's snapshot (null if it couldn't be loaded), with its position in the region, indexed x * chunksZ + z
+    static class FedChunk
+    {
+        final int index;
+        final ChunkSnapshot snapshot;
+
+        FedChunk(int index, ChunkSnapshot snapshot)
+        {
+            this.index = index;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+//which chunks a scan may load, skipped chunks are treated like chunks which couldn't be loaded
+//a full scan with any chunks skipped reports its counts but reaches no verdict, so it never closes a region or opens a new one
+enum ScanChunkPolicy
+{
+    //loads every chunk, generating the ones nobody has visited yet
+    Generate,
+
+    //loads chunks which have been generated already, and skips the rest
+    GeneratedOnly,
+
+    //only looks at chunks which are loaded already
+    LoadedOnly;
+
+    //reads the setting from the config file, where the names aren't case sensitive
+    static ScanChunkPolicy fromConfig(String name)
+    {
+        for (ScanChunkPolicy policy : values())
+        {
+            if (policy.name().equalsIgnoreCase(name)) return policy;
+        }
+
+        PopulationDensity.AddLogEntry("Unknown scan chunk policy \"" + name + "\", using " + Generate.name() + " instead.");
+        return Generate;
+    }
+}
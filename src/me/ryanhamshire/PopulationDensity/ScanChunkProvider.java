@@ -0,0 +1,180 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+//gets chunk snapshots for scans (see ScanChunkFeed)
+//on Paper, chunks are loaded (and generated if necessary) off the main thread with World.getChunkAtAsync, a limited number at a time
+//everywhere else, they're loaded right away on the main thread, like scans always did
+//a snapshot is null when its chunk couldn't be loaded
+//main thread only
+abstract class ScanChunkProvider
+{
+    //picks the best provider for this server
+    static ScanChunkProvider create(boolean allowAsync, int maxInFlight)
+    {
+        if (allowAsync)
+        {
+            try
+            {
+                //only in Paper's API, so it has to be found at runtime
+                Method getChunkAtAsync = World.class.getMethod("getChunkAtAsync", int.class, int.class, boolean.class);
+                return new AsyncProvider(getChunkAtAsync, maxInFlight);
+            }
+            catch (NoSuchMethodException e) {}
+        }
+
+        return new SyncProvider();
+    }
+
+    //true if another request can be made now
+    abstract boolean canRequest();
+
+    //true if requests may be answered a few ticks later, rather than right away
+    abstract boolean isAsynchronous();
+
+    abstract CompletableFuture<ChunkSnapshot> request(World world, int chunkX, int chunkZ);
+
+    //for the log
+    abstract String getDescription();
+
+    //loads and snapshots the chunk immediately, so the future is always complete
+    private static class SyncProvider extends ScanChunkProvider
+    {
+        @Override
+        boolean canRequest()
+        {
+            return true;
+        }
+
+        @Override
+        boolean isAsynchronous()
+        {
+            return false;
+        }
+
+        @Override
+        CompletableFuture<ChunkSnapshot> request(World world, int chunkX, int chunkZ)
+        {
+            //get the chunk, load it, generate it if necessary
+            ChunkSnapshot snapshot = null;
+            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+            if (chunk.isLoaded() || chunk.load(true))
+            {
+                snapshot = chunk.getChunkSnapshot();
+            }
+
+            return CompletableFuture.completedFuture(snapshot);
+        }
+
+        @Override
+        String getDescription()
+        {
+            return "loaded on the main thread";
+        }
+    }
+
+    //asks Paper for the chunk, and snapshots it on the main thread once it's ready
+    private static class AsyncProvider extends ScanChunkProvider
+    {
+        private final Method getChunkAtAsync;
+        private final int maxInFlight;
+        private int inFlight = 0;
+
+        AsyncProvider(Method getChunkAtAsync, int maxInFlight)
+        {
+            this.getChunkAtAsync = getChunkAtAsync;
+            this.maxInFlight = Math.max(1, maxInFlight);
+        }
+
+        @Override
+        boolean canRequest()
+        {
+            return this.inFlight < this.maxInFlight;
+        }
+
+        @Override
+        boolean isAsynchronous()
+        {
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        CompletableFuture<ChunkSnapshot> request(World world, int chunkX, int chunkZ)
+        {
+            final CompletableFuture<ChunkSnapshot> result = new CompletableFuture<ChunkSnapshot>();
+
+            CompletableFuture<Chunk> chunkFuture;
+            try
+            {
+                chunkFuture = (CompletableFuture<Chunk>)this.getChunkAtAsync.invoke(world, chunkX, chunkZ, true);
+            }
+            catch (Exception e)
+            {
+                PopulationDensity.AddLogEntry("Unable to load chunk " + chunkX + " " + chunkZ + " asynchronously: " + e.toString());
+                result.complete(null);
+                return result;
+            }
+
+            this.inFlight++;
+            chunkFuture.whenComplete(new BiConsumer<Chunk, Throwable>()
+            {
+                @Override
+                public void accept(final Chunk chunk, Throwable error)
+                {
+                    //Paper completes these on the main thread, but snapshots must be taken there, so make sure
+                    Runnable snapshotTask = new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            inFlight--;
+                            result.complete(chunk != null ? chunk.getChunkSnapshot() : null);
+                        }
+                    };
+
+                    if (Bukkit.isPrimaryThread())
+                    {
+                        snapshotTask.run();
+                    } else
+                    {
+                        Bukkit.getScheduler().runTask(PopulationDensity.instance, snapshotTask);
+                    }
+                }
+            });
+
+            return result;
+        }
+
+        @Override
+        String getDescription()
+        {
+            return "loaded asynchronously, at most " + this.maxInFlight + " at a time";
+        }
+    }
+}
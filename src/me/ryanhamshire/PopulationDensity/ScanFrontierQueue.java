@@ -0,0 +1,101 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.NoSuchElementException;
+
+//first-in-first-out queue of packed block positions for the region scan's flood fill
+//a plain int ring buffer which doubles when full, so queueing a position never allocates anything
+//not thread safe - each scan owns its own queue
+class ScanFrontierQueue
+{
+    private int[] elements;
+    private int head = 0;
+    private int tail = 0;
+    private int size = 0;
+
+    //largest number of positions waiting at once, for the scan log
+    private int peakSize = 0;
+
+    ScanFrontierQueue(int initialCapacity)
+    {
+        //keep the capacity a power of two so wrapping around is a cheap bit mask
+        int capacity = 16;
+        while (capacity < initialCapacity) capacity <<= 1;
+        this.elements = new int[capacity];
+    }
+
+    void add(int position)
+    {
+        if (this.size == this.elements.length) this.grow();
+
+        this.elements[this.tail] = position;
+        this.tail = (this.tail + 1) & (this.elements.length - 1);
+        this.size++;
+
+        if (this.size > this.peakSize) this.peakSize = this.size;
+    }
+
+    int remove()
+    {
+        if (this.size == 0) throw new NoSuchElementException();
+
+        int position = this.elements[this.head];
+        this.head = (this.head + 1) & (this.elements.length - 1);
+        this.size--;
+        return position;
+    }
+
+    boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    int size()
+    {
+        return this.size;
+    }
+
+    int getPeakSize()
+    {
+        return this.peakSize;
+    }
+
+    long getSizeInBytes()
+    {
+        return this.elements.length * 4L;
+    }
+
+    void clear()
+    {
+        this.head = this.tail = this.size = 0;
+    }
+
+    //doubles the buffer, unwrapping the contents so the head is at index zero again
+    private void grow()
+    {
+        int[] bigger = new int[this.elements.length * 2];
+        int firstPart = this.elements.length - this.head;
+        System.arraycopy(this.elements, this.head, bigger, 0, firstPart);
+        System.arraycopy(this.elements, 0, bigger, firstPart, this.head);
+        this.elements = bigger;
+        this.head = 0;
+        this.tail = this.size;
+    }
+}
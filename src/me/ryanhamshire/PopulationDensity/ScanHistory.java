@@ -0,0 +1,156 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+//keeps the results of past region scans on disk, one file per region named after its coordinates, one line per scan (oldest first)
+//written from the scan threads and read from the main thread, so every method is synchronized
+class ScanHistory
+{
+    //how many scans to keep per region
+    private static final int MAX_ENTRIES_PER_REGION = 50;
+
+    private final String folderPath;
+
+    //regions whose files have been read already
+    private final HashMap<RegionCoordinates, ArrayList<ScanHistoryEntry>> entriesByRegion = new HashMap<RegionCoordinates, ArrayList<ScanHistoryEntry>>();
+
+    ScanHistory(String folderPath)
+    {
+        this.folderPath = folderPath;
+        new File(folderPath).mkdirs();
+    }
+
+    //records a scan, trimming the oldest ones once there are too many
+    synchronized void add(RegionCoordinates region, ScanHistoryEntry entry)
+    {
+        ArrayList<ScanHistoryEntry> entries = this.load(region);
+        entries.add(entry);
+
+        if (entries.size() > MAX_ENTRIES_PER_REGION)
+        {
+            //rewrite the whole file, only every so often
+            while (entries.size() > MAX_ENTRIES_PER_REGION / 2) entries.remove(0);
+            this.write(region, entries, false);
+        } else
+        {
+            ArrayList<ScanHistoryEntry> newEntries = new ArrayList<ScanHistoryEntry>();
+            newEntries.add(entry);
+            this.write(region, newEntries, true);
+        }
+    }
+
+    //all the recorded scans for a region, oldest first
+    synchronized List<ScanHistoryEntry> getEntries(RegionCoordinates region)
+    {
+        return new ArrayList<ScanHistoryEntry>(this.load(region));
+    }
+
+    //the most recent scan of a region, or null if it's never been scanned
+    synchronized ScanHistoryEntry getLatest(RegionCoordinates region)
+    {
+        ArrayList<ScanHistoryEntry> entries = this.load(region);
+        if (entries.isEmpty()) return null;
+        return entries.get(entries.size() - 1);
+    }
+
+    private ArrayList<ScanHistoryEntry> load(RegionCoordinates region)
+    {
+        ArrayList<ScanHistoryEntry> entries = this.entriesByRegion.get(region);
+        if (entries != null) return entries;
+
+        entries = new ArrayList<ScanHistoryEntry>();
+        File file = this.getFile(region);
+        if (file.exists())
+        {
+            BufferedReader inStream = null;
+            try
+            {
+                inStream = new BufferedReader(new FileReader(file));
+                String line;
+                while ((line = inStream.readLine()) != null)
+                {
+                    if (line.trim().isEmpty()) continue;
+
+                    try
+                    {
+                        entries.add(ScanHistoryEntry.fromLine(line));
+                    }
+
+                    //skip anything unreadable, rather than losing the rest of the file
+                    catch (Exception e)
+                    {
+                        PopulationDensity.AddLogEntry("Skipped an unreadable line in the scan history for region " + region.toString() + ": " + line);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                PopulationDensity.AddLogEntry("Unexpected exception reading the scan history for region " + region.toString() + ": " + e.getMessage());
+            }
+
+            try
+            {
+                if (inStream != null) inStream.close();
+            }
+            catch (IOException exception) {}
+        }
+
+        this.entriesByRegion.put(region, entries);
+        return entries;
+    }
+
+    private void write(RegionCoordinates region, List<ScanHistoryEntry> entries, boolean append)
+    {
+        BufferedWriter outStream = null;
+        try
+        {
+            outStream = new BufferedWriter(new FileWriter(this.getFile(region), append));
+            for (ScanHistoryEntry entry : entries)
+            {
+                outStream.write(entry.toLine());
+                outStream.newLine();
+            }
+        }
+        catch (IOException e)
+        {
+            PopulationDensity.AddLogEntry("Unexpected exception saving the scan history for region " + region.toString() + ": " + e.getMessage());
+        }
+
+        try
+        {
+            if (outStream != null) outStream.close();
+        }
+        catch (IOException exception) {}
+    }
+
+    private File getFile(RegionCoordinates region)
+    {
+        return new File(this.folderPath + File.separator + region.toString());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.Arrays;
+
+//the outcome of one region scan, as kept in the scan history
+//stored as one line of text: timestamp;duration;verdict;resource score;counts by category, comma separated
+class ScanHistoryEntry
+{
+    final long timestamp;
+    final long durationMillis;
+    final ScanVerdict verdict;
+    final int resourceScore;
+
+    //indexed by ScanMaterials' categories
+    private final int[] counts;
+
+    ScanHistoryEntry(long timestamp, long durationMillis, ScanVerdict verdict, int resourceScore, int[] counts)
+    {
+        this.timestamp = timestamp;
+        this.durationMillis = durationMillis;
+        this.verdict = verdict;
+        this.resourceScore = resourceScore;
+        this.counts = Arrays.copyOf(counts, ScanMaterials.CATEGORY_COUNT);
+    }
+
+    int getCount(int category)
+    {
+        return this.counts[category];
+    }
+
+    int getWood()
+    {
+        return this.counts[ScanMaterials.WOOD];
+    }
+
+    int getPlayerBlocks()
+    {
+        return this.counts[ScanMaterials.PLAYER_BLOCK];
+    }
+
+    //true when this scan found the region suitable with room to spare on every threshold
+    //margin 1.5 means 50% more resources and wood than needed, and a third fewer player blocks than allowed
+    boolean isWellPastThresholds(double margin)
+    {
+        PopulationDensity plugin = PopulationDensity.instance;
+        return this.verdict == ScanVerdict.Suitable &&
+                this.resourceScore >= plugin.resourceMinimum * margin &&
+                this.getWood() >= plugin.woodMinimum * margin &&
+                this.getPlayerBlocks() * margin <= 40000 * plugin.densityRatio;
+    }
+
+    String toLine()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.timestamp).append(';');
+        builder.append(this.durationMillis).append(';');
+        builder.append(this.verdict.name()).append(';');
+        builder.append(this.resourceScore).append(';');
+        for (int i = 0; i < this.counts.length; i++)
+        {
+            if (i > 0) builder.append(',');
+            builder.append(this.counts[i]);
+        }
+
+        return builder.toString();
+    }
+
+    //throws an exception if the line can't be understood
+    static ScanHistoryEntry fromLine(String line)
+    {
+        String[] fields = line.split(";");
+        String[] countStrings = fields[4].split(",");
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+        for (int i = 0; i < countStrings.length && i < counts.length; i++)
+        {
+            counts[i] = Integer.parseInt(countStrings[i]);
+        }
+
+        return new ScanHistoryEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), ScanVerdict.valueOf(fields[2]), Integer.parseInt(fields[3]), counts);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+//one region scan requested through the ScanService, waiting for its turn or running
+//the scan thread reports progress here and checks for cancellation every so often, the main thread reads it for /ScanStatus
+class ScanJob
+{
+    final RegionCoordinates region;
+
+    //main thread only, may be switched on while the job is waiting for its turn
+    boolean openNewRegions;
+
+    //how thoroughly to scan, may be raised while the job is waiting for its turn
+    volatile ScanMode mode;
+
+    private volatile long startTime = 0;
+    private volatile boolean cancelled = false;
+
+    //how much work is done, in whatever units the scan counts (chunks, or positions for the flood fill)
+    private final AtomicLong workDone = new AtomicLong();
+    private volatile long workTotal = 0;
+
+    //bytes held by the scan's own data structures
+    private final AtomicLong memoryBytes = new AtomicLong();
+
+    //where the scan's snapshots come from, when they're streamed
+    private volatile ScanChunkFeed feed = null;
+
+    //the outcome, set by the scan thread when it settles on a verdict (stays null if it doesn't, for example when cancelled)
+    private volatile ScanVerdict verdict = null;
+    private volatile int resourceScore = 0;
+
+    //run on the main thread once the job is over, whether it finished, failed or was cancelled
+    private final ArrayList<Runnable> finishedCallbacks = new ArrayList<Runnable>();
+    private boolean finished = false;
+
+    ScanJob(RegionCoordinates region, boolean openNewRegions, ScanMode mode)
+    {
+        this.region = region;
+        this.openNewRegions = openNewRegions;
+        this.mode = mode;
+    }
+
+    void markStarted()
+    {
+        this.startTime = System.nanoTime();
+    }
+
+    boolean isStarted()
+    {
+        return this.startTime != 0;
+    }
+
+    long getElapsedNanos()
+    {
+        if (this.startTime == 0) return 0;
+        return System.nanoTime() - this.startTime;
+    }
+
+    void setResult(ScanVerdict verdict, int resourceScore)
+    {
+        this.resourceScore = resourceScore;
+        this.verdict = verdict;
+    }
+
+    ScanVerdict getVerdict()
+    {
+        return this.verdict;
+    }
+
+    int getResourceScore()
+    {
+        return this.resourceScore;
+    }
+
+    //main thread only
+    void whenFinished(Runnable callback)
+    {
+        if (this.finished)
+        {
+            callback.run();
+        } else
+        {
+            this.finishedCallbacks.add(callback);
+        }
+    }
+
+    //main thread only, called by the ScanService
+    void markFinished()
+    {
+        if (this.finished) return;
+        this.finished = true;
+
+        for (Runnable callback : this.finishedCallbacks)
+        {
+            callback.run();
+        }
+        this.finishedCallbacks.clear();
+    }
+
+    //null unless the snapshots were taken by a feed
+    ScanChunkFeed getFeed()
+    {
+        return this.feed;
+    }
+
+    void setFeed(ScanChunkFeed feed)
+    {
+        this.feed = feed;
+        if (this.cancelled) feed.cancel();
+    }
+
+    //asks the scan to stop at its next convenient point
+    void cancel()
+    {
+        this.cancelled = true;
+
+        ScanChunkFeed feed = this.feed;
+        if (feed != null) feed.cancel();
+    }
+
+    boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+
+    //called by the scan thread between pieces of work
+    void checkCancelled()
+    {
+        if (this.cancelled) throw new CancellationException("scan of region " + this.region.toString() + " cancelled");
+    }
+
+    void setWorkTotal(long total)
+    {
+        this.workTotal = total;
+    }
+
+    void setWorkDone(long done)
+    {
+        this.workDone.set(done);
+    }
+
+    void addWorkDone(long done)
+    {
+        this.workDone.addAndGet(done);
+    }
+
+    int getPercentDone()
+    {
+        long total = this.workTotal;
+        if (total <= 0) return 0;
+        return (int)Math.min(100, this.workDone.get() * 100 / total);
+    }
+
+    void setMemoryBytes(long bytes)
+    {
+        this.memoryBytes.set(bytes);
+    }
+
+    void addMemoryBytes(long bytes)
+    {
+        this.memoryBytes.addAndGet(bytes);
+    }
+
+    long getMemoryBytes()
+    {
+        return this.memoryBytes.get();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Arrays;
+import java.util.List;
+
+//sorts materials into the categories a region scan counts, and weighs the ores into a resource score
+//the lookup table is indexed by Material.ordinal(), built once from the defaults below plus any materials added in the config
+//materials are listed by name so that names from newer Minecraft versions are simply skipped on servers which don't have them
+class ScanMaterials
+{
+    //what the scan counts, in terms of categories of blocks
+    static final int PASS_THROUGH = 0;
+    static final int NATURAL = 1;
+    static final int WOOD = 2;
+    static final int COAL = 3;
+    static final int IRON = 4;
+    static final int GOLD = 5;
+    static final int REDSTONE = 6;
+    static final int LAPIS = 7;
+    static final int EMERALD = 8;
+    static final int DIAMOND = 9;
+    static final int PLAYER_BLOCK = 10;
+    static final int CATEGORY_COUNT = 11;
+
+    //config names for the categories which can be added to (anything not listed is a player block)
+    private static final String[] CATEGORY_NAMES = {"PassThrough", "Natural", "Wood", "Coal", "Iron", "Gold", "Redstone", "Lapis", "Emerald", "Diamond"};
+
+    // Pass-through-able blocks
+    private static final String[] DEFAULT_PASS_THROUGH = {
+            "AIR", "CAVE_AIR", "BUBBLE_COLUMN", "LADDER", "LIGHT",
+            "OAK_DOOR", "SPRUCE_DOOR", "BIRCH_DOOR", "JUNGLE_DOOR", "ACACIA_DOOR", "DARK_OAK_DOOR", "MANGROVE_DOOR", "CHERRY_DOOR", "BAMBOO_DOOR", "IRON_DOOR",
+            "OAK_TRAPDOOR", "SPRUCE_TRAPDOOR", "BIRCH_TRAPDOOR", "JUNGLE_TRAPDOOR", "ACACIA_TRAPDOOR", "DARK_OAK_TRAPDOOR", "MANGROVE_TRAPDOOR", "CHERRY_TRAPDOOR",
+            "BAMBOO_TRAPDOOR", "IRON_TRAPDOOR"};
+
+    // Logs
+    private static final String[] DEFAULT_WOOD = {"OAK_LOG", "SPRUCE_LOG", "BIRCH_LOG", "JUNGLE_LOG", "ACACIA_LOG", "DARK_OAK_LOG", "MANGROVE_LOG", "CHERRY_LOG"};
+
+    // Ores, including the deepslate variants from 1.17
+    private static final String[] DEFAULT_COAL = {"COAL_ORE", "DEEPSLATE_COAL_ORE"};
+    private static final String[] DEFAULT_IRON = {"IRON_ORE", "DEEPSLATE_IRON_ORE"};
+    private static final String[] DEFAULT_GOLD = {"GOLD_ORE", "DEEPSLATE_GOLD_ORE"};
+    private static final String[] DEFAULT_REDSTONE = {"REDSTONE_ORE", "DEEPSLATE_REDSTONE_ORE"};
+    private static final String[] DEFAULT_LAPIS = {"LAPIS_ORE", "DEEPSLATE_LAPIS_ORE"};
+    private static final String[] DEFAULT_EMERALD = {"EMERALD_ORE", "DEEPSLATE_EMERALD_ORE"};
+    private static final String[] DEFAULT_DIAMOND = {"DIAMOND_ORE", "DEEPSLATE_DIAMOND_ORE"};
+
+    // Blocks not placed by players
+    //copper isn't part of the resource score, but it's certainly not a player block either
+    private static final String[] DEFAULT_NATURAL = {
+            "STONE", "GRANITE", "DIORITE", "ANDESITE", "BEDROCK", "OBSIDIAN", "MOSSY_COBBLESTONE",
+            "DEEPSLATE", "TUFF", "CALCITE", "SMOOTH_BASALT", "DRIPSTONE_BLOCK", "POINTED_DRIPSTONE", "AMETHYST_BLOCK", "BUDDING_AMETHYST",
+            "COPPER_ORE", "DEEPSLATE_COPPER_ORE",
+            "WATER", "LAVA", "ICE", "PACKED_ICE", "BLUE_ICE", "SNOW", "POWDER_SNOW",
+            "DIRT", "COARSE_DIRT", "PODZOL", "ROOTED_DIRT", "GRASS_BLOCK", "MUD", "CLAY", "GRAVEL", "SAND", "SANDSTONE",
+            "TERRACOTTA", "WHITE_TERRACOTTA", "ORANGE_TERRACOTTA", "MAGENTA_TERRACOTTA", "LIGHT_BLUE_TERRACOTTA", "YELLOW_TERRACOTTA", "LIME_TERRACOTTA",
+            "PINK_TERRACOTTA", "GRAY_TERRACOTTA", "LIGHT_GRAY_TERRACOTTA", "CYAN_TERRACOTTA", "PURPLE_TERRACOTTA", "BLUE_TERRACOTTA", "BROWN_TERRACOTTA",
+            "GREEN_TERRACOTTA", "RED_TERRACOTTA", "BLACK_TERRACOTTA",
+            "OAK_LEAVES", "SPRUCE_LEAVES", "BIRCH_LEAVES", "JUNGLE_LEAVES", "ACACIA_LEAVES", "DARK_OAK_LEAVES", "MANGROVE_LEAVES", "CHERRY_LEAVES",
+            "AZALEA_LEAVES", "FLOWERING_AZALEA_LEAVES", "MANGROVE_ROOTS", "MUDDY_MANGROVE_ROOTS", "HANGING_ROOTS",
+            "GRASS", "SHORT_GRASS", "TALL_GRASS", "FERN", "LARGE_FERN", "DEAD_BUSH", "CACTUS", "SUGAR_CANE", "VINE", "LILY_PAD", "SWEET_BERRY_BUSH",
+            "MOSS_BLOCK", "MOSS_CARPET", "GLOW_LICHEN",
+            "BROWN_MUSHROOM", "RED_MUSHROOM", "RED_MUSHROOM_BLOCK", "BROWN_MUSHROOM_BLOCK",
+            "DANDELION", "POPPY", "BLUE_ORCHID", "ALLIUM", "AZURE_BLUET", "RED_TULIP", "ORANGE_TULIP", "PINK_TULIP", "WHITE_TULIP", "OXEYE_DAISY",
+            "CORNFLOWER", "LILY_OF_THE_VALLEY", "SUNFLOWER", "ROSE_BUSH", "LILAC", "PEONY",
+            "SEAGRASS", "TALL_SEAGRASS", "SEA_PICKLE", "KELP", "KELP_PLANT",
+            "TUBE_CORAL", "BRAIN_CORAL", "BUBBLE_CORAL", "FIRE_CORAL", "HORN_CORAL",
+            "TUBE_CORAL_BLOCK", "BRAIN_CORAL_BLOCK", "BUBBLE_CORAL_BLOCK", "FIRE_CORAL_BLOCK", "HORN_CORAL_BLOCK",
+            "TUBE_CORAL_FAN", "BRAIN_CORAL_FAN", "BUBBLE_CORAL_FAN", "FIRE_CORAL_FAN", "HORN_CORAL_FAN"};
+
+    private static final String[][] DEFAULTS = {DEFAULT_PASS_THROUGH, DEFAULT_NATURAL, DEFAULT_WOOD, DEFAULT_COAL, DEFAULT_IRON, DEFAULT_GOLD,
+            DEFAULT_REDSTONE, DEFAULT_LAPIS, DEFAULT_EMERALD, DEFAULT_DIAMOND};
+
+    //how much one block of each category adds to a region's resource score
+    private static final int[] DEFAULT_RESOURCE_WEIGHTS = {0, 0, 0, 2, 3, 3, 3, 0, 3, 4, 0};
+
+    //replaced as a whole when the config is loaded, so scans in progress keep a consistent view
+    private static volatile byte[] categories = buildTable(null);
+    private static volatile int[] resourceWeights = DEFAULT_RESOURCE_WEIGHTS.clone();
+
+    //the whole lookup table, for scans which classify many blocks in a row
+    static byte[] getCategories()
+    {
+        return categories;
+    }
+
+    static int getCategory(Material material)
+    {
+        return categories[material.ordinal()];
+    }
+
+    //adds up the weighted ore counts
+    static int getResourceScore(int[] counts)
+    {
+        int[] weights = resourceWeights;
+        int score = 0;
+        for (int category = 0; category < CATEGORY_COUNT; category++)
+        {
+            score += counts[category] * weights[category];
+        }
+
+        return score;
+    }
+
+    //how much one block of the category adds to the resource score
+    static int getResourceWeight(int category)
+    {
+        return resourceWeights[category];
+    }
+
+    //reads any extra materials and the resource weights from the config, and writes them back out
+    static void load(FileConfiguration config, FileConfiguration outConfig)
+    {
+        String[][] extras = new String[CATEGORY_NAMES.length][];
+        for (int category = 0; category < CATEGORY_NAMES.length; category++)
+        {
+            String node = "PopulationDensity.Scan.ExtraMaterials." + CATEGORY_NAMES[category];
+            List<String> names = config.getStringList(node);
+            extras[category] = names.toArray(new String[names.size()]);
+            outConfig.set(node, names);
+        }
+
+        int[] weights = DEFAULT_RESOURCE_WEIGHTS.clone();
+        for (int category = COAL; category <= DIAMOND; category++)
+        {
+            String node = "PopulationDensity.Scan.ResourceWeights." + CATEGORY_NAMES[category];
+            weights[category] = config.getInt(node, DEFAULT_RESOURCE_WEIGHTS[category]);
+            outConfig.set(node, weights[category]);
+        }
+
+        categories = buildTable(extras);
+        resourceWeights = weights;
+    }
+
+    private static byte[] buildTable(String[][] extras)
+    {
+        byte[] table = new byte[Material.values().length];
+        Arrays.fill(table, (byte)PLAYER_BLOCK);
+
+        for (int category = 0; category < DEFAULTS.length; category++)
+        {
+            for (String name : DEFAULTS[category])
+            {
+                Material material = Material.getMaterial(name);
+                if (material != null) table[material.ordinal()] = (byte)category;
+            }
+        }
+
+        //config additions win over the defaults
+        if (extras != null)
+        {
+            for (int category = 0; category < extras.length; category++)
+            {
+                for (String name : extras[category])
+                {
+                    Material material = Material.matchMaterial(name);
+                    if (material == null)
+                    {
+                        PopulationDensity.AddLogEntry("Error: Couldn't resolve material \"" + name + "\" in PopulationDensity.Scan.ExtraMaterials." + CATEGORY_NAMES[category] + ". Please update your config.yml.");
+                    } else
+                    {
+                        table[material.ordinal()] = (byte)category;
+                    }
+                }
+            }
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+//how thoroughly a region is scanned, least thorough first
+enum ScanMode
+{
+    //examines a random sample of chunks and estimates the totals, falling back to another scan if the estimate isn't clear enough
+    Approximate,
+
+    //counts everything, but stops as soon as the verdict is certain
+    VerdictOnly,
+
+    //counts everything for the full report
+    Full;
+
+    //true if a scan in this mode answers everything a scan in the other mode would
+    boolean covers(ScanMode other)
+    {
+        return this.ordinal() >= other.ordinal();
+    }
+}
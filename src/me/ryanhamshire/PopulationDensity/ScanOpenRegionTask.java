@@ -23,7 +23,23 @@ public class ScanOpenRegionTask implements Runnable
     @Override
     public void run()
     {
+        RegionCoordinates openRegion = PopulationDensity.instance.dataStore.getOpenRegion();
+
+        //if the last scan was recent and found plenty of room to spare, don't bother loading all those chunks again
+        int skipHours = PopulationDensity.instance.config_scanSkipHealthyRegionHours;
+        if (skipHours > 0)
+        {
+            ScanHistoryEntry latest = PopulationDensity.instance.dataStore.scanHistory.getLatest(openRegion);
+            if (latest != null && System.currentTimeMillis() - latest.timestamp < skipHours * 60L * 60 * 1000 && latest.isWellPastThresholds(PopulationDensity.instance.config_scanHealthyMargin))
+            {
+                long minutesAgo = (System.currentTimeMillis() - latest.timestamp) / 1000 / 60;
+                PopulationDensity.AddLogEntry("Skipped scanning the open region \"" + openRegion.toString() + "\", which was scanned " + minutesAgo + " minutes ago with plenty of resources and room to spare.");
+                return;
+            }
+        }
+
         //start a scan on the currently open region
-        PopulationDensity.instance.scanRegion(PopulationDensity.instance.dataStore.getOpenRegion(), true);
+        //nobody reads this report closely, so it can be approximate or stop as soon as the verdict is certain (if configured)
+        PopulationDensity.instance.scanRegion(openRegion, true, PopulationDensity.instance.getAutomaticScanMode());
     }
 }
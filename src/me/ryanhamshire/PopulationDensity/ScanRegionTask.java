@@ -22,393 +22,735 @@ import org.bukkit.ChunkSnapshot;
 import org.bukkit.Material;
 
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CancellationException;
 
 public class ScanRegionTask extends Thread
 {
     private ChunkSnapshot[][] chunks;
     private boolean openNewRegions;
 
+    //which region is being scanned, for the scan history (may be null)
+    private RegionCoordinates region = null;
+
     private final int CHUNK_SIZE = 16;
 
+    //scan settings, captured when the task is created
+    private final int maxHeight;
+    private final int minY;
+    private final boolean seedFromSurface;
+    private final boolean offHeapVisitedSet;
+    private final int parallelism;
+
+    //in surface-seeded mode, the first y above the terrain for each column (indexed x * sizeZ + z)
+    //everything at or above that height is treated as one big "open sky" node which is never walked
+    private int[] surfaceHeights = null;
+    private int sizeX;
+    private int sizeZ;
+
+    //chunk results remembered from earlier scans (see ScanChunkCache), when the cache is on
+    private ChunkScanResult[][] cachedChunks = null;
+    private ScanChunkCache cache = null;
+    private int firstChunkX;
+    private int firstChunkZ;
+    private long capturedTime;
+
+    //hands over the snapshots one at a time while the scan runs (see ScanChunkFeed), when streaming is on
+    private ScanChunkFeed feed = null;
+
+    //where progress is reported and cancellation is checked, when the scan was started by the ScanService
+    private ScanJob job = null;
+
+    //in verdict mode, the flood fill stops as soon as the outcome can't change, and this is the outcome it settled on
+    private ScanVerdict earlyVerdict = null;
+
+    //picks and examines a sample of the chunks, for approximate scans (only the sampled chunks have snapshots)
+    private SampledRegionScanner sampler = null;
+
     public ScanRegionTask(ChunkSnapshot chunks[][], boolean openNewRegions)
     {
         this.chunks = chunks;
         this.openNewRegions = openNewRegions;
+
+        this.maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
+
+        //set depth boundary
+        //if a player has to brave cavernous depths, those resources aren't "easily attainable"
+        this.minY = PopulationDensity.instance.minimumRegionPostY - 20;
+
+        this.seedFromSurface = PopulationDensity.instance.config_scanSeedFromSurface;
+        this.offHeapVisitedSet = PopulationDensity.instance.config_scanOffHeapVisitedSet;
+        this.parallelism = PopulationDensity.instance.config_scanParallelism;
     }
 
-    private class Position
+    public ScanRegionTask(RegionCoordinates region, ChunkSnapshot chunks[][], boolean openNewRegions)
     {
-        public int x;
-        public int y;
-        public int z;
+        this(chunks, openNewRegions);
+        this.region = region;
+    }
+
+    //chunks[x][z] is null wherever cachedChunks[x][z] already has a result, firstChunkX and firstChunkZ are the chunk coordinates of chunks[0][0]
+    //cache may be null, and when there's a feed, chunks is all nulls because the snapshots come from the feed
+    ScanRegionTask(RegionCoordinates region, ChunkSnapshot chunks[][], ChunkScanResult[][] cachedChunks, ScanChunkCache cache, int firstChunkX, int firstChunkZ, long capturedTime,
+                   ScanChunkFeed feed, boolean openNewRegions)
+    {
+        this(region, chunks, openNewRegions);
+
+        this.cachedChunks = cachedChunks;
+        this.cache = cache;
+        this.firstChunkX = firstChunkX;
+        this.firstChunkZ = firstChunkZ;
+        this.capturedTime = capturedTime;
+        this.feed = feed;
+    }
 
-        public Position(int x, int y, int z)
+    void setJob(ScanJob job)
+    {
+        this.job = job;
+    }
+
+    void setSampler(SampledRegionScanner sampler)
+    {
+        this.sampler = sampler;
+    }
+
+    @Override
+    public void run()
+    {
+        try
         {
-            this.x = x;
-            this.y = y;
-            this.z = z;
+            this.scan();
         }
-
-        public String toString()
+        catch (CancellationException e)
         {
-            return this.x + " " + this.y + " " + this.z;
+            PopulationDensity.AddLogEntry("Region scan" + (this.region != null ? " of \"" + this.region.toString() + "\"" : "") + " cancelled.");
+        }
+        finally
+        {
+            //free up the slot for the next scan
+            if (this.job != null)
+            {
+                final ScanJob finishedJob = this.job;
+                PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        PopulationDensity.instance.scanService.finished(finishedJob);
+                    }
+                }, 1L);
+            }
         }
     }
 
-    @Override
-    public void run()
+    private void scan()
     {
         ArrayList<String> logEntries = new ArrayList<String>();
+        ArrayList<String> statistics = new ArrayList<String>();
 
-        //initialize report content
-        int woodCount = 0;
-        int coalCount = 0;
-        int lapisCount = 0;
-        int ironCount = 0;
-        int goldCount = 0;
-        int redstoneCount = 0;
-        int emeraldCount = 0;
-        int diamondCount = 0;
-        int playerBlocks = 0;
-
-        //initialize a new array to track where we've been
-        int maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
-        int x, y, z;
-        x = y = z = 0;
-        boolean[][][] examined = new boolean[this.chunks.length * CHUNK_SIZE][maxHeight][this.chunks.length * CHUNK_SIZE];
-        for (x = 0; x < examined.length; x++)
-            for (y = 0; y < examined[0].length; y++)
-                for (z = 0; z < examined[0][0].length; z++)
-                    examined[x][y][z] = false;
-
-        //find a reasonable start position
-        Position currentPosition = null;
-        for (x = 0; x < examined.length && currentPosition == null; x++)
+        long heapUsedBefore = getUsedHeap();
+        long startTime = System.nanoTime();
+
+        if (this.sampler != null)
+        {
+            this.scanApproximately(logEntries, statistics, heapUsedBefore, startTime);
+            return;
+        }
+
+        //count blocks by category, either with the flood fill below or chunk by chunk on several threads
+        //both produce exactly the same counts
+        //chunk by chunk is also the only way to reuse chunk results cached by earlier scans, or to examine snapshots as they're taken
+        //only the flood fill can stop early in verdict mode, so it's preferred over extra threads then
+        boolean verdictOnly = this.job != null && this.job.mode == ScanMode.VerdictOnly;
+        int[] counts = null;
+        if ((this.parallelism > 1 && !verdictOnly) || this.cache != null || this.feed != null)
         {
-            for (z = 0; z < examined[0][0].length && currentPosition == null; z++)
+            try
+            {
+                ParallelRegionScanner scanner;
+                if (this.cachedChunks != null)
+                {
+                    scanner = new ParallelRegionScanner(this.chunks, this.cachedChunks, this.cache, this.firstChunkX, this.firstChunkZ, this.capturedTime,
+                            this.feed, this.maxHeight, this.minY, this.seedFromSurface, this.parallelism);
+                } else
+                {
+                    scanner = new ParallelRegionScanner(this.chunks, this.maxHeight, this.minY, this.seedFromSurface, this.parallelism);
+                }
+                scanner.setJob(this.job);
+                counts = scanner.scan(statistics);
+            }
+            catch (CancellationException e)
+            {
+                throw e;
+            }
+            catch (IllegalStateException e)
             {
-                Position position = new Position(x, maxHeight - 1, z);
-                if (this.getMaterialAt(position) == Material.AIR)
+                //streamed snapshots are gone already, so there's nothing for the flood fill to look at
+                //and chunks served from the cache were never captured, so the flood fill would take them for air
+                if (this.feed != null || this.hasCachedChunks())
                 {
-                    currentPosition = position;
+                    PopulationDensity.AddLogEntry("Region scan abandoned: " + e.getMessage());
+                    return;
                 }
+
+                statistics.clear();
+                statistics.add("Chunk by chunk scan failed (" + e.getMessage() + "), used the flood fill instead.");
+            }
+            catch (InterruptedException e)
+            {
+                PopulationDensity.AddLogEntry("Region scan interrupted.");
+                return;
             }
         }
 
-        //set depth boundary
-        //if a player has to brave cavernous depths, those resources aren't "easily attainable"
-        int min_y = PopulationDensity.instance.minimumRegionPostY - 20;
+        if (counts == null)
+        {
+            counts = this.floodFill(statistics, verdictOnly);
+        }
 
-        //instantiate empty queue
-        ConcurrentLinkedQueue<Position> unexaminedQueue = new ConcurrentLinkedQueue<Position>();
+        long scanEndTime = System.nanoTime();
+        long heapUsedAfter = getUsedHeap();
 
-        //mark start position as examined
-        try
+        int woodCount = counts[ScanMaterials.WOOD];
+        int coalCount = counts[ScanMaterials.COAL];
+        int lapisCount = counts[ScanMaterials.LAPIS];
+        int ironCount = counts[ScanMaterials.IRON];
+        int goldCount = counts[ScanMaterials.GOLD];
+        int redstoneCount = counts[ScanMaterials.REDSTONE];
+        int emeraldCount = counts[ScanMaterials.EMERALD];
+        int diamondCount = counts[ScanMaterials.DIAMOND];
+        int playerBlocks = counts[ScanMaterials.PLAYER_BLOCK];
+
+        //compute a resource score
+        int resourceScore = ScanMaterials.getResourceScore(counts);
+
+        //due to a race condition, bukkit might say a chunk is loaded when it really isn't.
+        //in that case, bukkit will incorrectly report that all of the blocks in the chunk are air
+        //strategy: if resource score and wood count are flat zero, the result is suspicious, so wait 5 seconds for chunks to load and start over
+        //to avoid an infinite loop in a resource-bare region, maximum ONE repetition
+
+        //deliver report
+        //when the scan stopped early, the counts are only what it found before stopping
+        String atLeast = this.earlyVerdict != null ? " or more" : "";
+        logEntries.add(" ");
+        logEntries.add("Region Scan Results" + (this.earlyVerdict != null ? " (stopped once the verdict was certain)" : "") + ":");
+        logEntries.add(" ");
+        logEntries.add("Wood: " + woodCount + atLeast + "  (Minimum: " + PopulationDensity.instance.woodMinimum + ")");
+        logEntries.add("Coal: " + coalCount + atLeast);
+        logEntries.add("Iron: " + ironCount + atLeast);
+        logEntries.add("Gold: " + goldCount + atLeast);
+        logEntries.add("Lapis: " + lapisCount + atLeast);
+        logEntries.add("Redstone: " + redstoneCount + atLeast);
+        logEntries.add("Emerald: " + emeraldCount + atLeast);
+        logEntries.add("Diamond: " + diamondCount + atLeast);
+        logEntries.add("Player Blocks: " + playerBlocks + atLeast + "  (Maximum: " + (PopulationDensity.instance.densityRatio * 40000) + ")");
+        logEntries.add(" ");
+        logEntries.add("Resource Score: " + resourceScore + atLeast + "  (Minimum: " + PopulationDensity.instance.resourceMinimum + ")");
+        logEntries.add(" ");
+        this.addChunkLoadingStatistics(statistics);
+        logEntries.addAll(statistics);
+        logEntries.add("Scan Time: " + formatMillis(scanEndTime - startTime));
+        logEntries.add("Heap Used: " + formatMegabytes(heapUsedBefore) + " before scan, " + formatMegabytes(heapUsedAfter) + " after");
+        logEntries.add(" ");
+
+        //chunks the chunk policy skipped look like air, so the counts can't be trusted to judge the region (a new region is usually ungenerated, and would always seem bare)
+        int skippedChunks = this.getSkippedChunkCount();
+
+        //if NOT sufficient resources for a good start
+        ScanVerdict verdict = null;
+        if (skippedChunks > 0)
         {
-            assert currentPosition != null;
-            examined[currentPosition.x][currentPosition.y][currentPosition.z] = true;
-        }
-        catch (ArrayIndexOutOfBoundsException e)
+            logEntries.add("Summary: " + skippedChunks + " chunks were skipped by the chunk policy, so there's no verdict for this region.");
+            openNewRegions = false;
+        } else if (this.earlyVerdict == ScanVerdict.Overcrowded)
+        {
+            //the resources found so far don't matter, the region can't be suitable
+            logEntries.add("Summary: Region seems overcrowded.");
+            verdict = ScanVerdict.Overcrowded;
+        } else if (resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum || playerBlocks > 40000 * PopulationDensity.instance.densityRatio)
         {
-            logEntries.add("Unexpected Exception: " + e.toString());
+            if (resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum)
+            {
+                logEntries.add("Summary: Insufficient near-surface resources to support new players.");
+                verdict = ScanVerdict.InsufficientResources;
+            } else
+            {
+                logEntries.add("Summary: Region seems overcrowded.");
+                verdict = ScanVerdict.Overcrowded;
+            }
         }
 
-        //enqueue that start position
-        unexaminedQueue.add(currentPosition);
-
-        //as long as there are positions in the queue, keep going
-        while (!unexaminedQueue.isEmpty())
+        //otherwise
+        else
         {
-            //dequeue a block
-            currentPosition = unexaminedQueue.remove();
-
-            //get material
-            Material material = this.getMaterialAt(currentPosition);
+            logEntries.add("Summary: Looks good! This region is suitable for new players.");
+            verdict = ScanVerdict.Suitable;
+            openNewRegions = false;
+        }
 
-            //material == null indicates the data is out of bounds (not in the snapshots)
-            //in that case, just move on to the next item in the queue
-            if (material == null || currentPosition.y < min_y) continue;
+        if (this.job != null && verdict != null) this.job.setResult(verdict, resourceScore);
 
-            switch (material)
+        //remember the result, so it survives restarts and can be looked up with /ScanHistory
+        ScanReport report = null;
+        if (this.region != null && verdict != null)
+        {
+            final ScanHistoryEntry historyEntry = new ScanHistoryEntry(System.currentTimeMillis(), (scanEndTime - startTime) / 1000000, verdict, resourceScore, counts);
+            report = new ScanReport(this.region, historyEntry.timestamp, historyEntry.durationMillis, verdict, resourceScore, counts, 40000 * PopulationDensity.instance.densityRatio,
+                    this.getChunkCount(), this.getLoadedChunkCount(), skippedChunks, this.earlyVerdict != null, false);
+            PopulationDensity.instance.dataStore.scanHistory.add(this.region, historyEntry);
+
+            //complete counts can stand in for the next few scans, adjusted as players mine and build (the ledger lives on the main thread)
+            final ResourceLedger ledger = PopulationDensity.instance.resourceLedger;
+            if (ledger != null && this.earlyVerdict == null)
             {
-                // Check if it's a pass-through-able block
-                case AIR:
-                case CAVE_AIR: // yes this is a thing now in 1.13 ... don't ask me y...
-                case BUBBLE_COLUMN:
-                case OAK_DOOR:
-                case SPRUCE_DOOR:
-                case BIRCH_DOOR:
-                case JUNGLE_DOOR:
-                case ACACIA_DOOR:
-                case DARK_OAK_DOOR:
-                case OAK_TRAPDOOR:
-                case SPRUCE_TRAPDOOR:
-                case BIRCH_TRAPDOOR:
-                case JUNGLE_TRAPDOOR:
-                case ACACIA_TRAPDOOR:
-                case DARK_OAK_TRAPDOOR:
-                case IRON_DOOR:
-                case IRON_TRAPDOOR:
-                case LADDER:
+                final RegionCoordinates scannedRegion = this.region;
+                final int[] scannedCounts = counts.clone();
+                PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, new Runnable()
                 {
-                    //make a list of adjacent blocks
-                    ConcurrentLinkedQueue<Position> adjacentPositionQueue = new ConcurrentLinkedQueue<Position>();
+                    @Override
+                    public void run()
+                    {
+                        ledger.seed(scannedRegion, scannedCounts, historyEntry.timestamp);
+                    }
+                });
+            }
+        }
 
-                    //x + 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x + 1, currentPosition.y, currentPosition.z));
+        //now that we're done, notify the main thread
+        ScanResultsTask resultsTask = new ScanResultsTask(logEntries, openNewRegions, report);
+        PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+    }
 
-                    //x - 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x - 1, currentPosition.y, currentPosition.z));
+    //estimates the totals from a sample of chunks, and only settles the verdict if every confidence interval is clearly on one side of its threshold
+    //since the estimates lean low (see SampledRegionScanner), too few resources is never settled this way, only ever by an exact scan
+    //otherwise, asks for another (exact) scan of the region
+    private void scanApproximately(ArrayList<String> logEntries, ArrayList<String> statistics, long heapUsedBefore, long startTime)
+    {
+        SampledRegionScanner sampler = this.sampler;
+        sampler.scan(this.chunks, this.maxHeight, this.minY, this.seedFromSurface, this.job, statistics);
 
-                    //z + 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y, currentPosition.z + 1));
+        long scanEndTime = System.nanoTime();
+        long heapUsedAfter = getUsedHeap();
 
-                    //z - 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y, currentPosition.z - 1));
+        PopulationDensity plugin = PopulationDensity.instance;
+        double playerBlockMaximum = 40000 * plugin.densityRatio;
+        double wood = sampler.getEstimate(ScanMaterials.WOOD);
+        double woodMargin = sampler.getMargin(ScanMaterials.WOOD);
+        double score = sampler.getResourceScoreEstimate();
+        double scoreMargin = sampler.getResourceScoreMargin();
+        double playerBlocks = sampler.getEstimate(ScanMaterials.PLAYER_BLOCK);
+        double playerBlocksMargin = sampler.getMargin(ScanMaterials.PLAYER_BLOCK);
 
-                    //y + 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y + 1, currentPosition.z));
+        //deliver report
+        logEntries.add(" ");
+        logEntries.add("Region Scan Results (estimated, with 95% confidence intervals):");
+        logEntries.add(" ");
+        logEntries.add("Wood: " + formatEstimate(wood, woodMargin) + "  (Minimum: " + plugin.woodMinimum + ")");
+        logEntries.add("Coal: " + formatEstimate(sampler.getEstimate(ScanMaterials.COAL), sampler.getMargin(ScanMaterials.COAL)));
+        logEntries.add("Iron: " + formatEstimate(sampler.getEstimate(ScanMaterials.IRON), sampler.getMargin(ScanMaterials.IRON)));
+        logEntries.add("Gold: " + formatEstimate(sampler.getEstimate(ScanMaterials.GOLD), sampler.getMargin(ScanMaterials.GOLD)));
+        logEntries.add("Lapis: " + formatEstimate(sampler.getEstimate(ScanMaterials.LAPIS), sampler.getMargin(ScanMaterials.LAPIS)));
+        logEntries.add("Redstone: " + formatEstimate(sampler.getEstimate(ScanMaterials.REDSTONE), sampler.getMargin(ScanMaterials.REDSTONE)));
+        logEntries.add("Emerald: " + formatEstimate(sampler.getEstimate(ScanMaterials.EMERALD), sampler.getMargin(ScanMaterials.EMERALD)));
+        logEntries.add("Diamond: " + formatEstimate(sampler.getEstimate(ScanMaterials.DIAMOND), sampler.getMargin(ScanMaterials.DIAMOND)));
+        logEntries.add("Player Blocks: " + formatEstimate(playerBlocks, playerBlocksMargin) + "  (Maximum: " + playerBlockMaximum + ")");
+        logEntries.add(" ");
+        logEntries.add("Resource Score: " + formatEstimate(score, scoreMargin) + "  (Minimum: " + plugin.resourceMinimum + ")");
+        logEntries.add(" ");
+        this.addChunkLoadingStatistics(statistics);
+        logEntries.addAll(statistics);
+        logEntries.add("Scan Time: " + formatMillis(scanEndTime - startTime));
+        logEntries.add("Heap Used: " + formatMegabytes(heapUsedBefore) + " before scan, " + formatMegabytes(heapUsedAfter) + " after");
+        logEntries.add(" ");
 
-                    //y - 1
-                    adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y - 1, currentPosition.z));
+        //only trust the estimate when the whole interval agrees
+        boolean openNewRegions = this.openNewRegions;
+        boolean rescan = false;
+        ScanVerdict verdict = null;
+        if (!sampler.isComplete())
+        {
+            logEntries.add("Summary: Too few chunks could be sampled, scanning the whole region instead.");
+            rescan = true;
+        } else if (playerBlocks - playerBlocksMargin > playerBlockMaximum)
+        {
+            logEntries.add("Summary: Region seems overcrowded.");
+            verdict = ScanVerdict.Overcrowded;
+        } else if (wood - woodMargin >= plugin.woodMinimum && score - scoreMargin >= plugin.resourceMinimum && playerBlocks + playerBlocksMargin <= playerBlockMaximum)
+        {
+            logEntries.add("Summary: Looks good! This region is suitable for new players.");
+            verdict = ScanVerdict.Suitable;
+            openNewRegions = false;
+        } else if (wood + woodMargin < plugin.woodMinimum || score + scoreMargin < plugin.resourceMinimum)
+        {
+            //chunks looked at one by one miss whatever is only reached from their neighbors, like caves opening in the next chunk over
+            logEntries.add("Summary: Resources seem short, but a sample can miss some, scanning the whole region to be sure.");
+            rescan = true;
+        } else
+        {
+            logEntries.add("Summary: Too close to call from a sample, scanning the whole region instead.");
+            rescan = true;
+        }
 
-                    //for each adjacent block
-                    while (!adjacentPositionQueue.isEmpty())
-                    {
-                        Position adjacentPosition = adjacentPositionQueue.remove();
-
-                        try
-                        {
-                            //if it hasn't been examined yet
-                            if (!examined[adjacentPosition.x][adjacentPosition.y][adjacentPosition.z])
-                            {
-                                //mark it as examined
-                                examined[adjacentPosition.x][adjacentPosition.y][adjacentPosition.z] = true;
-
-                                //shove it in the queue for processing
-                                unexaminedQueue.add(adjacentPosition);
-                            }
-                        }
-
-                        //ignore any adjacent blocks which are outside the snapshots
-                        catch (ArrayIndexOutOfBoundsException e)
-                        {
-                        }
-                    }
-                    break;
-                }
+        //estimates aren't kept in the scan history, only measured counts are, but other plugins still hear about them
+        ScanReport report = null;
+        if (verdict != null)
+        {
+            if (this.job != null) this.job.setResult(verdict, (int)Math.round(score));
 
-                // Check if it's a log
-                case OAK_LOG:
-                case SPRUCE_LOG:
-                case BIRCH_LOG:
-                case JUNGLE_LOG:
-                case ACACIA_LOG:
-                case DARK_OAK_LOG:
+            if (this.region != null)
+            {
+                int[] estimates = new int[ScanMaterials.CATEGORY_COUNT];
+                for (int category = 0; category < estimates.length; category++)
                 {
-                    woodCount++;
-                    break;
+                    estimates[category] = (int)Math.round(sampler.getEstimate(category));
                 }
 
-                // Check if it's an ore
-                case COAL_ORE:
-                {
-                    coalCount++;
-                    break;
-                }
-                case IRON_ORE:
-                {
-                    ironCount++;
-                    break;
-                }
-                case GOLD_ORE:
+                report = new ScanReport(this.region, System.currentTimeMillis(), (scanEndTime - startTime) / 1000000, verdict, (int)Math.round(score), estimates, playerBlockMaximum,
+                        this.getChunkCount(), this.getLoadedChunkCount(), this.getSkippedChunkCount(), false, true);
+            }
+        }
+
+        if (rescan)
+        {
+            //the rescan decides whether to open a new region, after it logs this report
+            final RegionCoordinates region = this.region;
+            final boolean rescanOpensNewRegions = openNewRegions;
+            openNewRegions = false;
+            if (region != null)
+            {
+                PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, new Runnable()
                 {
-                    goldCount++;
-                    break;
-                }
-                case REDSTONE_ORE:
+                    @Override
+                    public void run()
+                    {
+                        PopulationDensity.instance.scanRegion(region, rescanOpensNewRegions, PopulationDensity.instance.getFallbackScanMode());
+                    }
+                }, 5L);
+            }
+        }
+
+        //now that we're done, notify the main thread
+        ScanResultsTask resultsTask = new ScanResultsTask(logEntries, openNewRegions, report);
+        PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+    }
+
+    private static String formatEstimate(double estimate, double margin)
+    {
+        return "about " + Math.round(estimate) + " (" + Math.max(0, Math.round(estimate - margin)) + " to " + Math.round(estimate + margin) + ")";
+    }
+
+    //whether any chunk was left out of this.chunks because the cache already had its result
+    private boolean hasCachedChunks()
+    {
+        if (this.cachedChunks == null) return false;
+
+        for (ChunkScanResult[] column : this.cachedChunks)
+        {
+            for (ChunkScanResult result : column)
+            {
+                if (result != null) return true;
+            }
+        }
+
+        return false;
+    }
+
+    //the counts from each way of counting on its own, so the two can be checked against each other (see ScanConsistencyCheck in the benchmarks)
+    int[] countByFloodFill()
+    {
+        return this.floodFill(new ArrayList<String>(), false);
+    }
+
+    int[] countChunkByChunk(int parallelism) throws InterruptedException
+    {
+        return new ParallelRegionScanner(this.chunks, this.maxHeight, this.minY, this.seedFromSurface, parallelism).scan(new ArrayList<String>());
+    }
+
+    //walks every pass-through block reachable from the start position(s), counting the blocks it runs into
+    //with verdictOnly, stops as soon as the verdict is certain: when there are already too many player blocks,
+    //or when every minimum is met and there aren't enough unexamined positions left to go over the player block maximum
+    private int[] floodFill(ArrayList<String> statistics, boolean verdictOnly)
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+
+        //get a visited set to track where we've been, one bit per block in the snapshots
+        int maxHeight = this.maxHeight;
+        int sizeX = this.sizeX = this.chunks.length * CHUNK_SIZE;
+        int sizeZ = this.sizeZ = this.chunks[0].length * CHUNK_SIZE;
+        long startTime = System.nanoTime();
+        ScanVisitedSet examined = ScanVisitedSet.acquire(sizeX, maxHeight, sizeZ, this.offHeapVisitedSet);
+        long visitedSetReadyTime = System.nanoTime();
+
+        //for the statistics, since once the set is released another scan may acquire it (and change reused)
+        long visitedSetBytes = examined.getSizeInBytes();
+        boolean visitedSetReused = examined.reused;
+        boolean visitedSetOffHeap = examined.offHeap;
+
+        //instantiate empty queue, which holds positions packed into a single int (see ScanVisitedSet.index())
+        ScanFrontierQueue unexaminedQueue = new ScanFrontierQueue(sizeX * sizeZ);
+
+        //there's no telling how many positions the flood fill will reach, so progress is measured against all of them
+        if (this.job != null) this.job.setWorkTotal((long)sizeX * maxHeight * sizeZ);
+
+        int x, y, z;
+        if (this.seedFromSurface)
+        {
+            //start from every block touching the open sky, instead of walking all the air above the terrain
+            //this also avoids misjudging a region when a single start position lands in an enclosed pocket
+            this.surfaceHeights = this.getSurfaceHeights(maxHeight);
+            for (x = 0; x < sizeX; x++)
+            {
+                for (z = 0; z < sizeZ; z++)
                 {
-                    redstoneCount++;
-                    break;
+                    int surfaceY = this.surfaceHeights[x * sizeZ + z];
+
+                    //the top block of the column
+                    if (examined.mark(x, surfaceY - 1, z)) unexaminedQueue.add(examined.index(x, surfaceY - 1, z));
+
+                    //blocks in neighboring columns which poke up beside this column's sky
+                    this.seedBesideSky(examined, unexaminedQueue, surfaceY, x + 1, z);
+                    this.seedBesideSky(examined, unexaminedQueue, surfaceY, x - 1, z);
+                    this.seedBesideSky(examined, unexaminedQueue, surfaceY, x, z + 1);
+                    this.seedBesideSky(examined, unexaminedQueue, surfaceY, x, z - 1);
                 }
-                case LAPIS_ORE:
+            }
+        } else
+        {
+            //find a reasonable start position
+            int startX = -1;
+            int startZ = -1;
+            for (x = 0; x < sizeX && startX < 0; x++)
+            {
+                for (z = 0; z < sizeZ && startX < 0; z++)
                 {
-                    lapisCount++;
-                    break;
+                    if (this.getMaterialAt(x, maxHeight - 1, z) == Material.AIR)
+                    {
+                        startX = x;
+                        startZ = z;
+                    }
                 }
-                case EMERALD_ORE:
+            }
+
+            //mark start position as examined and enqueue it
+            if (startX >= 0 && examined.mark(startX, maxHeight - 1, startZ))
+            {
+                unexaminedQueue.add(examined.index(startX, maxHeight - 1, startZ));
+            } else
+            {
+                statistics.add("Unexpected Exception: no open air found at the top of the region to start scanning from.");
+            }
+        }
+        int seedPositions = unexaminedQueue.size();
+
+        //for verdict mode, how many positions could still turn out to be player blocks
+        //that's every position at or above the depth boundary which isn't open sky, less the ones examined so far
+        long countablePositions = 0;
+        long countableExamined = 0;
+        double playerBlockMaximum = 40000 * PopulationDensity.instance.densityRatio;
+        if (verdictOnly)
+        {
+            int lowestCountableY = Math.max(0, this.minY);
+            for (x = 0; x < sizeX; x++)
+            {
+                for (z = 0; z < sizeZ; z++)
                 {
-                    emeraldCount++;
-                    break;
+                    int topY = this.surfaceHeights != null ? this.surfaceHeights[x * sizeZ + z] : maxHeight;
+                    countablePositions += Math.max(0, topY - lowestCountableY);
                 }
-                case DIAMOND_ORE:
+            }
+        }
+
+        //as long as there are positions in the queue, keep going
+        byte[] categories = ScanMaterials.getCategories();
+        long examinedPositions = 0;
+        long scanEndTime;
+        try
+        {
+            while (!unexaminedQueue.isEmpty())
+            {
+                //dequeue a block and unpack its position
+                int position = unexaminedQueue.remove();
+                z = position % sizeZ;
+                y = (position / sizeZ) % maxHeight;
+                x = position / sizeZ / maxHeight;
+                examinedPositions++;
+
+                //every so often, report progress and stop if the scan was cancelled
+                if (this.job != null && (examinedPositions & 0xFFFF) == 0)
                 {
-                    diamondCount++;
-                    break;
+                    this.job.checkCancelled();
+                    this.job.setWorkDone(examinedPositions);
+                    this.job.setMemoryBytes(examined.getSizeInBytes() + unexaminedQueue.getSizeInBytes());
                 }
 
-                // Check if it's a block not placed by players, then break
-                case STONE:
-                case WATER:
-                case LAVA:
-                case BROWN_MUSHROOM:
-                case CACTUS:
-                case DEAD_BUSH:
-                case DIRT:
-                case GRAVEL:
-                case GRASS:
-                case FERN:
-                case ALLIUM:
-                case RED_MUSHROOM_BLOCK:
-                case BROWN_MUSHROOM_BLOCK:
-                case ICE:
-                case OBSIDIAN:
-                case RED_MUSHROOM:
-                case POPPY:
-                case OAK_LEAVES:
-                case SPRUCE_LEAVES:
-                case BIRCH_LEAVES:
-                case JUNGLE_LEAVES:
-                case ACACIA_LEAVES:
-                case DARK_OAK_LEAVES:
-                case TALL_GRASS:
-                case BLUE_ORCHID:
-                case AZURE_BLUET:
-                case RED_TULIP:
-                case ORANGE_TULIP:
-                case PINK_TULIP:
-                case WHITE_TULIP:
-                case OXEYE_DAISY:
-                case SAND:
-                case SANDSTONE:
-                case SNOW:
-                case VINE:
-                case LILY_PAD:
-                case DANDELION:
-                case MOSSY_COBBLESTONE:
-                case CLAY:
-                case SUGAR_CANE:
-                case PACKED_ICE:
-                case ROSE_BUSH:
-                case LILAC:
-                case LARGE_FERN:
-                case GRASS_BLOCK:
-                case WHITE_TERRACOTTA:
-                case ORANGE_TERRACOTTA:
-                case MAGENTA_TERRACOTTA:
-                case LIGHT_BLUE_TERRACOTTA:
-                case YELLOW_TERRACOTTA:
-                case LIME_TERRACOTTA:
-                case PINK_TERRACOTTA:
-                case GRAY_TERRACOTTA:
-                case LIGHT_GRAY_TERRACOTTA:
-                case CYAN_TERRACOTTA:
-                case PURPLE_TERRACOTTA:
-                case BLUE_TERRACOTTA:
-                case BROWN_TERRACOTTA:
-                case GREEN_TERRACOTTA:
-                case RED_TERRACOTTA:
-                case BLACK_TERRACOTTA:
-                case TERRACOTTA:
-                case GRANITE:
-                case DIORITE:
-                case ANDESITE:
-                case COARSE_DIRT:
-                case PODZOL:
-                case BEDROCK:
-                case PEONY:
-                case SEAGRASS:
-                case TALL_SEAGRASS:
-                case SEA_PICKLE:
-                case TUBE_CORAL:
-                case BRAIN_CORAL:
-                case BUBBLE_CORAL:
-                case FIRE_CORAL:
-                case HORN_CORAL:
-                case TUBE_CORAL_BLOCK:
-                case BRAIN_CORAL_BLOCK:
-                case BUBBLE_CORAL_BLOCK:
-                case FIRE_CORAL_BLOCK:
-                case HORN_CORAL_BLOCK:
-                case TUBE_CORAL_FAN:
-                case BRAIN_CORAL_FAN:
-                case BUBBLE_CORAL_FAN:
-                case FIRE_CORAL_FAN:
-                case HORN_CORAL_FAN:
+                //every so often in verdict mode, stop if the outcome can't change anymore
+                if (verdictOnly && (examinedPositions & 0xFFF) == 0)
                 {
-                    break;
+                    this.earlyVerdict = getCertainVerdict(counts, countablePositions - countableExamined, playerBlockMaximum);
+                    if (this.earlyVerdict != null) break;
                 }
 
-                // Last but not least: if it's a player block
-                default:
+                if (y >= this.minY) countableExamined++;
+
+                //get material
+                Material material = this.getMaterialAt(x, y, z);
+
+                //material == null indicates the data is out of bounds (not in the snapshots)
+                //in that case, just move on to the next item in the queue
+                if (material == null || y < this.minY) continue;
+
+                int category = categories[material.ordinal()];
+                if (category == ScanMaterials.PASS_THROUGH)
+                {
+                    //queue up each adjacent block which hasn't been examined yet
+                    //(mark() ignores any adjacent blocks which are outside the snapshots, and the open sky was seeded up front)
+                    if (!this.isOpenSky(x + 1, y, z) && examined.mark(x + 1, y, z)) unexaminedQueue.add(examined.index(x + 1, y, z));
+                    if (!this.isOpenSky(x - 1, y, z) && examined.mark(x - 1, y, z)) unexaminedQueue.add(examined.index(x - 1, y, z));
+                    if (!this.isOpenSky(x, y, z + 1) && examined.mark(x, y, z + 1)) unexaminedQueue.add(examined.index(x, y, z + 1));
+                    if (!this.isOpenSky(x, y, z - 1) && examined.mark(x, y, z - 1)) unexaminedQueue.add(examined.index(x, y, z - 1));
+                    if (!this.isOpenSky(x, y + 1, z) && examined.mark(x, y + 1, z)) unexaminedQueue.add(examined.index(x, y + 1, z));
+                    if (!this.isOpenSky(x, y - 1, z) && examined.mark(x, y - 1, z)) unexaminedQueue.add(examined.index(x, y - 1, z));
+                } else if (category != ScanMaterials.NATURAL)
                 {
-                    playerBlocks++;
-                    break;
+                    //natural blocks aren't part of the report, so they aren't counted
+                    counts[category]++;
                 }
             }
+            scanEndTime = System.nanoTime();
         }
 
-        //compute a resource score
-        int resourceScore = coalCount * 2 + ironCount * 3 + goldCount * 3 + redstoneCount * 3 + emeraldCount * 3 + diamondCount * 4;
+        //done with the visited set, let the next scan reuse it (even if this one was cancelled)
+        finally
+        {
+            ScanVisitedSet.release(examined);
+        }
 
-        //due to a race condition, bukkit might say a chunk is loaded when it really isn't.
-        //in that case, bukkit will incorrectly report that all of the blocks in the chunk are air
-        //strategy: if resource score and wood count are flat zero, the result is suspicious, so wait 5 seconds for chunks to load and start over
-        //to avoid an infinite loop in a resource-bare region, maximum ONE repetition
+        statistics.add("Scan Mode: " + (this.seedFromSurface ? "seeded from the surface" : "single start position") + ", " + seedPositions + " starting positions" +
+                (verdictOnly ? ", verdict only" + (this.earlyVerdict != null ? " (stopped early with " + unexaminedQueue.size() + " positions still queued)" : "") : ""));
+        statistics.add("Positions Examined: " + examinedPositions + " (" + perSecond(examinedPositions, scanEndTime - visitedSetReadyTime) + " per second), queue peaked at " + unexaminedQueue.getPeakSize() +
+                " positions (" + formatMegabytes(unexaminedQueue.getSizeInBytes()) + ")");
+        statistics.add("Scan Memory: " + formatMegabytes(visitedSetBytes) + " visited set (" + (visitedSetReused ? "reused" : "newly allocated") + ", " + (visitedSetOffHeap ? "off-heap" : "on-heap") +
+                "), versus " + formatMegabytes(ScanVisitedSet.getBooleanArrayBytes(sizeX, maxHeight, sizeZ)) + " for a boolean[][][] of the same size, " + formatMillis(visitedSetReadyTime - startTime) + " to prepare");
 
-        //deliver report
-        logEntries.add(" ");
-        logEntries.add("Region Scan Results:");
-        logEntries.add(" ");
-        logEntries.add("Wood: " + woodCount + "  (Minimum: " + PopulationDensity.instance.woodMinimum + ")");
-        logEntries.add("Coal: " + coalCount);
-        logEntries.add("Iron: " + ironCount);
-        logEntries.add("Gold: " + goldCount);
-        logEntries.add("Lapis: " + lapisCount);
-        logEntries.add("Redstone: " + redstoneCount);
-        logEntries.add("Emerald: " + emeraldCount);
-        logEntries.add("Diamond: " + diamondCount);
-        logEntries.add("Player Blocks: " + playerBlocks + "  (Maximum: " + (PopulationDensity.instance.densityRatio * 40000) + ")");
-        logEntries.add(" ");
-        logEntries.add("Resource Score: " + resourceScore + "  (Minimum: " + PopulationDensity.instance.resourceMinimum + ")");
-        logEntries.add(" ");
+        return counts;
+    }
 
-        //if NOT sufficient resources for a good start
-        if (resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum || playerBlocks > 40000 * PopulationDensity.instance.densityRatio)
+    //returns the verdict if more blocks can't change it, or null if the scan has to keep going
+    //remainingPositions is the most blocks which could still be counted
+    private static ScanVerdict getCertainVerdict(int[] counts, long remainingPositions, double playerBlockMaximum)
+    {
+        int playerBlocks = counts[ScanMaterials.PLAYER_BLOCK];
+        if (playerBlocks > playerBlockMaximum) return ScanVerdict.Overcrowded;
+
+        PopulationDensity plugin = PopulationDensity.instance;
+        if (counts[ScanMaterials.WOOD] >= plugin.woodMinimum && ScanMaterials.getResourceScore(counts) >= plugin.resourceMinimum &&
+                playerBlocks + remainingPositions <= playerBlockMaximum)
         {
-            if (resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum)
-            {
-                logEntries.add("Summary: Insufficient near-surface resources to support new players.");
-            } else if (playerBlocks > 40000 * PopulationDensity.instance.densityRatio)
+            return ScanVerdict.Suitable;
+        }
+
+        return null;
+    }
+
+    //finds the first y above the terrain in every column of the snapshots
+    //columns in missing snapshots get the max height, meaning no open sky
+    private int[] getSurfaceHeights(int maxHeight)
+    {
+        int[] heights = new int[this.sizeX * this.sizeZ];
+        for (int x = 0; x < this.sizeX; x++)
+        {
+            for (int z = 0; z < this.sizeZ; z++)
             {
-                logEntries.add("Summary: Region seems overcrowded.");
+                ChunkSnapshot snapshot = this.chunks[x / CHUNK_SIZE][z / CHUNK_SIZE];
+                int height = maxHeight;
+                if (snapshot != null)
+                {
+                    height = Math.max(0, Math.min(maxHeight, snapshot.getHighestBlockYAt(x % CHUNK_SIZE, z % CHUNK_SIZE)));
+                }
+                heights[x * this.sizeZ + z] = height;
             }
         }
 
-        //otherwise
-        else
+        return heights;
+    }
+
+    //true for positions which are part of the open sky node (only in surface-seeded mode)
+    private boolean isOpenSky(int x, int y, int z)
+    {
+        if (this.surfaceHeights == null || x < 0 || x >= this.sizeX || z < 0 || z >= this.sizeZ) return false;
+
+        return y >= this.surfaceHeights[x * this.sizeZ + z];
+    }
+
+    //queues the blocks of a neighboring column which sit beside the open sky above a column of the given surface height
+    private void seedBesideSky(ScanVisitedSet examined, ScanFrontierQueue unexaminedQueue, int surfaceY, int x, int z)
+    {
+        if (x < 0 || x >= this.sizeX || z < 0 || z >= this.sizeZ) return;
+
+        int neighborSurfaceY = this.surfaceHeights[x * this.sizeZ + z];
+        for (int y = surfaceY; y < neighborSurfaceY; y++)
         {
-            logEntries.add("Summary: Looks good! This region is suitable for new players.");
-            openNewRegions = false;
+            if (examined.mark(x, y, z)) unexaminedQueue.add(examined.index(x, y, z));
         }
+    }
 
-        //now that we're done, notify the main thread
-        ScanResultsTask resultsTask = new ScanResultsTask(logEntries, openNewRegions);
-        PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+    private static long getUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
 
-    private Material getMaterialAt(Position position)
+    static String formatMegabytes(long bytes)
     {
-        Material material = null;
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    //how the snapshots were come by, when a feed took them (see ScanChunkFeed)
+    private void addChunkLoadingStatistics(ArrayList<String> statistics)
+    {
+        ScanChunkFeed feed = this.job != null ? this.job.getFeed() : null;
+        if (feed != null) statistics.add("Chunk Loading: " + feed.getChunkLoadingSummary());
+    }
+
+    //chunks in the region, for the report
+    private int getChunkCount()
+    {
+        return this.chunks.length * this.chunks[0].length;
+    }
+
+    //chunks which had to be loaded for this scan, for the report
+    private int getLoadedChunkCount()
+    {
+        ScanChunkFeed feed = this.job != null ? this.job.getFeed() : null;
+        return feed != null ? feed.getLoadedCount() : 0;
+    }
+
+    //chunks the chunk policy skipped, which were examined as if they were air
+    private int getSkippedChunkCount()
+    {
+        ScanChunkFeed feed = this.job != null ? this.job.getFeed() : null;
+        return feed != null ? feed.getSkippedCount() : 0;
+    }
 
-        int chunkx = position.x / 16;
-        int chunkz = position.z / 16;
+    static String formatMillis(long nanoseconds)
+    {
+        return (nanoseconds / 1000000) + " ms";
+    }
+
+    static long perSecond(long count, long nanoseconds)
+    {
+        if (nanoseconds <= 0) return count;
+        return count * 1000000000L / nanoseconds;
+    }
+
+    private Material getMaterialAt(int x, int y, int z)
+    {
+        Material material = null;
 
         try
         {
-            ChunkSnapshot snapshot = this.chunks[chunkx][chunkz];
-            material = snapshot.getBlockType(position.x % 16, position.y, position.z % 16);
+            //snapshots are null for chunks which couldn't be loaded
+            ChunkSnapshot snapshot = this.chunks[x / CHUNK_SIZE][z / CHUNK_SIZE];
+            if (snapshot != null) material = snapshot.getBlockType(x % CHUNK_SIZE, y, z % CHUNK_SIZE);
         }
         catch (IndexOutOfBoundsException e) { }
 
@@ -0,0 +1,165 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+//the results of one region scan, for other plugins (see RegionScanCompletedEvent and ScanReportService)
+//immutable, so it can be kept and passed between threads freely
+public final class ScanReport
+{
+    //what a scan counts, a block at a time
+    public enum Resource
+    {
+        WOOD(ScanMaterials.WOOD),
+        COAL(ScanMaterials.COAL),
+        IRON(ScanMaterials.IRON),
+        GOLD(ScanMaterials.GOLD),
+        REDSTONE(ScanMaterials.REDSTONE),
+        LAPIS(ScanMaterials.LAPIS),
+        EMERALD(ScanMaterials.EMERALD),
+        DIAMOND(ScanMaterials.DIAMOND),
+        PLAYER_BLOCKS(ScanMaterials.PLAYER_BLOCK);
+
+        private final int category;
+
+        Resource(int category)
+        {
+            this.category = category;
+        }
+    }
+
+    private final int regionX;
+    private final int regionZ;
+    private final long timestamp;
+    private final long durationMillis;
+    private final ScanVerdict verdict;
+    private final int resourceScore;
+    private final int[] counts;
+    private final double playerBlockMaximum;
+    private final int chunksScanned;
+    private final int chunksLoaded;
+    private final int chunksSkipped;
+    private final boolean stoppedEarly;
+    private final boolean approximate;
+
+    ScanReport(RegionCoordinates region, long timestamp, long durationMillis, ScanVerdict verdict, int resourceScore, int[] counts, double playerBlockMaximum,
+               int chunksScanned, int chunksLoaded, int chunksSkipped, boolean stoppedEarly, boolean approximate)
+    {
+        this.regionX = region.x;
+        this.regionZ = region.z;
+        this.timestamp = timestamp;
+        this.durationMillis = durationMillis;
+        this.verdict = verdict;
+        this.resourceScore = resourceScore;
+        this.counts = counts.clone();
+        this.playerBlockMaximum = playerBlockMaximum;
+        this.chunksScanned = chunksScanned;
+        this.chunksLoaded = chunksLoaded;
+        this.chunksSkipped = chunksSkipped;
+        this.stoppedEarly = stoppedEarly;
+        this.approximate = approximate;
+    }
+
+    //rebuilds a report from the scan history, which doesn't keep the chunk counts or how the scan went
+    static ScanReport fromHistory(RegionCoordinates region, ScanHistoryEntry entry)
+    {
+        int[] counts = new int[ScanMaterials.CATEGORY_COUNT];
+        for (int category = 0; category < counts.length; category++)
+        {
+            counts[category] = entry.getCount(category);
+        }
+
+        return new ScanReport(region, entry.timestamp, entry.durationMillis, entry.verdict, entry.resourceScore, counts,
+                40000 * PopulationDensity.instance.densityRatio, -1, -1, -1, false, false);
+    }
+
+    //a copy, since region coordinates can be changed
+    public RegionCoordinates getRegion()
+    {
+        return new RegionCoordinates(this.regionX, this.regionZ);
+    }
+
+    //when the scan finished, in milliseconds since the epoch
+    public long getTimestamp()
+    {
+        return this.timestamp;
+    }
+
+    public long getDurationMillis()
+    {
+        return this.durationMillis;
+    }
+
+    public ScanVerdict getVerdict()
+    {
+        return this.verdict;
+    }
+
+    public int getResourceScore()
+    {
+        return this.resourceScore;
+    }
+
+    public int getCount(Resource resource)
+    {
+        return this.counts[resource.category];
+    }
+
+    //the most player blocks a region may have and still take new players
+    public double getPlayerBlockMaximum()
+    {
+        return this.playerBlockMaximum;
+    }
+
+    //player blocks as a share of the maximum, so anything above 1 is overcrowded
+    public double getDensity()
+    {
+        return this.playerBlockMaximum > 0 ? this.counts[ScanMaterials.PLAYER_BLOCK] / this.playerBlockMaximum : 0;
+    }
+
+    //chunks in the region, or -1 if not known (for reports rebuilt from the scan history)
+    public int getChunksScanned()
+    {
+        return this.chunksScanned;
+    }
+
+    //chunks which had to be loaded for the scan, or -1 if not known
+    public int getChunksLoaded()
+    {
+        return this.chunksLoaded;
+    }
+
+    //chunks the chunk policy left out, which weren't examined, or -1 if not known
+    //only approximate scans can have any, since an exact scan with chunks missing has no verdict (and so no report)
+    public int getChunksSkipped()
+    {
+        return this.chunksSkipped;
+    }
+
+    //true if the scan stopped as soon as its verdict was certain, so the counts are only what it found up to then
+    public boolean isStoppedEarly()
+    {
+        return this.stoppedEarly;
+    }
+
+    //true if the counts are estimates from a sample of the region's chunks
+    public boolean isApproximate()
+    {
+        return this.approximate;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+//lets other plugins look up scan results instead of running scans of their own
+//registered with Bukkit's services manager: getServer().getServicesManager().load(ScanReportService.class)
+//safe to call from any thread
+public interface ScanReportService
+{
+    //the latest report for the region, or null if it's never been scanned
+    ScanReport getLatestReport(RegionCoordinates region);
+
+    //where new players are currently sent
+    RegionCoordinates getOpenRegion();
+}
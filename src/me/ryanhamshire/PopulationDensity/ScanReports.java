@@ -0,0 +1,56 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+//the latest scan report for each region scanned since the server started, with older results rebuilt from the scan history
+//reports are recorded on the main thread (see ScanResultsTask), and may be read from any thread
+class ScanReports implements ScanReportService
+{
+    private final ConcurrentHashMap<RegionCoordinates, ScanReport> reports = new ConcurrentHashMap<RegionCoordinates, ScanReport>();
+
+    void record(ScanReport report)
+    {
+        this.reports.put(report.getRegion(), report);
+    }
+
+    @Override
+    public ScanReport getLatestReport(RegionCoordinates region)
+    {
+        region = new RegionCoordinates(region.x, region.z);
+        ScanReport report = this.reports.get(region);
+
+        //estimates aren't kept in the history, so either may be newer
+        ScanHistoryEntry latest = PopulationDensity.instance.dataStore.scanHistory.getLatest(region);
+        if (latest != null && (report == null || latest.timestamp > report.getTimestamp()))
+        {
+            return ScanReport.fromHistory(region, latest);
+        }
+
+        return report;
+    }
+
+    @Override
+    public RegionCoordinates getOpenRegion()
+    {
+        RegionCoordinates openRegion = PopulationDensity.instance.dataStore.getOpenRegion();
+        return openRegion != null ? new RegionCoordinates(openRegion.x, openRegion.z) : null;
+    }
+}
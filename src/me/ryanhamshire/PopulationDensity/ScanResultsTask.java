@@ -24,6 +24,7 @@ public class ScanResultsTask implements Runnable
 {
     private ArrayList<String> logEntries;
     private boolean openNewRegion;
+    private ScanReport report = null;
 
     public ScanResultsTask(ArrayList<String> logEntries, boolean openNewRegion)
     {
@@ -32,6 +33,13 @@ public class ScanResultsTask implements Runnable
         this.openNewRegion = openNewRegion;
     }
 
+    //with the report to publish, for scans which reached a verdict
+    ScanResultsTask(ArrayList<String> logEntries, boolean openNewRegion, ScanReport report)
+    {
+        this(logEntries, openNewRegion);
+        this.report = report;
+    }
+
     @Override
     public void run()
     {
@@ -40,10 +48,22 @@ public class ScanResultsTask implements Runnable
             PopulationDensity.AddLogEntry(entry);
         }
 
-        if (this.openNewRegion)
+        //let other plugins know, before any new region is opened
+        if (this.report != null)
+        {
+            PopulationDensity.instance.scanReports.record(this.report);
+            PopulationDensity.instance.getServer().getPluginManager().callEvent(new RegionScanCompletedEvent(this.report));
+        }
+
+        if (this.openNewRegion && PopulationDensity.instance.config_scanCandidateRegions > 1)
+        {
+            //scan several upcoming regions at once and open the one which suits new players
+            PopulationDensity plugin = PopulationDensity.instance;
+            new RegionCandidateEvaluator(plugin.config_scanCandidateRegions, plugin.config_scanPickBestCandidate, plugin.config_scanCandidateResultMaxAgeHours).start();
+        } else if (this.openNewRegion)
         {
             RegionCoordinates newRegion = PopulationDensity.instance.dataStore.addRegion();
-            PopulationDensity.instance.scanRegion(newRegion, true);
+            PopulationDensity.instance.scanNewRegion(newRegion);
         }
     }
 }
@@ -0,0 +1,194 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Server;
+import org.bukkit.block.Block;
+
+import java.lang.reflect.Method;
+
+//decides when to scan the open region (see ScanOpenRegionTask), instead of scanning it on a fixed timer
+//blocks broken and placed in the open region are counted, and once enough of them have changed the region is scanned early, so the faster players strip it the sooner it's checked
+//scans are never closer together than the minimum interval, and never further apart than the maximum (HoursBetweenScans), whatever players are doing
+//with a resource ledger, a recent healthy estimate stands in for those scans, and an estimate which falls short or drifts too far asks for one
+//while the server has no headroom (low TPS or, on Paper, long ticks) a due scan is put off, for a limited time, until things calm down
+//runs every second on the main thread
+class ScanScheduler implements Runnable
+{
+    //how often run() is called
+    static final long PERIOD_TICKS = 20L;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final int blockChangesPerScan;
+    private final double deferBelowTPS;
+    private final double deferAboveMillisPerTick;
+    private final long maxDeferralMillis;
+
+    //Paper's average tick duration, if this server has it
+    private final Method getAverageTickTime;
+
+    //block changes in the open region since it was last scanned, and which region they were counted for
+    private RegionCoordinates countedRegion = null;
+    private int blockChanges = 0;
+
+    //the last time this scheduler started a scan, which may not show in the scan history if the scan was skipped
+    private long lastTriggered = 0;
+
+    //when the current deferral started, 0 if none
+    private long deferredSince = 0;
+
+    ScanScheduler(int minIntervalMinutes, int maxIntervalHours, int blockChangesPerScan, double deferBelowTPS, double deferAboveMillisPerTick, int maxDeferralMinutes)
+    {
+        this.maxIntervalMillis = Math.max(1, maxIntervalHours) * 60L * 60 * 1000;
+        this.minIntervalMillis = Math.min(this.maxIntervalMillis, Math.max(0, minIntervalMinutes) * 60L * 1000);
+        this.blockChangesPerScan = blockChangesPerScan;
+        this.deferBelowTPS = deferBelowTPS;
+        this.deferAboveMillisPerTick = deferAboveMillisPerTick;
+        this.maxDeferralMillis = Math.max(0, maxDeferralMinutes) * 60L * 1000;
+
+        Method getAverageTickTime = null;
+        try
+        {
+            //only in Paper's API, so it has to be found at runtime
+            getAverageTickTime = Server.class.getMethod("getAverageTickTime");
+        }
+        catch (NoSuchMethodException e) {}
+        this.getAverageTickTime = getAverageTickTime;
+    }
+
+    //called for every block broken or placed in the managed world, once nothing has cancelled it
+    void recordBlockChange(Block block)
+    {
+        RegionCoordinates openRegion = PopulationDensity.instance.dataStore.getOpenRegion();
+        if (openRegion == null || !openRegion.equals(RegionCoordinates.fromLocation(block.getLocation()))) return;
+
+        if (!openRegion.equals(this.countedRegion))
+        {
+            this.countedRegion = openRegion;
+            this.blockChanges = 0;
+        }
+
+        this.blockChanges++;
+    }
+
+    @Override
+    public void run()
+    {
+        long now = System.currentTimeMillis();
+
+        PopulationDensity plugin = PopulationDensity.instance;
+        RegionCoordinates openRegion = plugin.dataStore.getOpenRegion();
+        if (openRegion == null) return;
+
+        //a new open region starts with a clean slate
+        if (!openRegion.equals(this.countedRegion))
+        {
+            this.countedRegion = openRegion;
+            this.blockChanges = 0;
+        }
+
+        //any scan of the open region counts, including ones an administrator asked for
+        long lastScan = this.lastTriggered;
+        ScanHistoryEntry latest = plugin.dataStore.scanHistory.getLatest(openRegion);
+        if (latest != null) lastScan = Math.max(lastScan, latest.timestamp);
+
+        long sinceLastScan = now - lastScan;
+        ResourceLedger ledger = plugin.resourceLedger;
+        String ledgerReason = ledger != null ? ledger.getScanReason(openRegion) : null;
+        boolean ledgerAsked = ledgerReason != null && sinceLastScan >= this.minIntervalMillis;
+        boolean blockActivity = false;
+        String reason;
+        if (ledgerAsked)
+        {
+            reason = ledgerReason;
+        } else if (ledger != null && ledger.isTrusted(openRegion))
+        {
+            //the estimate says the region is still fine, which is all a routine scan would find out
+            return;
+        } else if (sinceLastScan >= this.maxIntervalMillis)
+        {
+            reason = lastScan == 0 ? "it hasn't been scanned yet" : "it was last scanned " + (sinceLastScan / 1000 / 60) + " minutes ago";
+        } else if (sinceLastScan >= this.minIntervalMillis && this.blockChangesPerScan > 0 && this.blockChanges >= this.blockChangesPerScan)
+        {
+            reason = this.blockChanges + " blocks have been broken or placed there in the " + (sinceLastScan / 1000 / 60) + " minutes since it was last scanned";
+            blockActivity = true;
+        } else
+        {
+            return;
+        }
+
+        //put it off while the server is busy, but not forever
+        String lag = this.getLag();
+        if (lag != null)
+        {
+            if (this.deferredSince == 0)
+            {
+                this.deferredSince = now;
+                PopulationDensity.AddLogEntry("Putting off the scan of the open region \"" + openRegion.toString() + "\" because " + lag + ".");
+            }
+
+            if (now - this.deferredSince < this.maxDeferralMillis) return;
+
+            reason += ", and it's been put off for " + ((now - this.deferredSince) / 1000 / 60) + " minutes already";
+        }
+
+        this.deferredSince = 0;
+        this.lastTriggered = now;
+        this.blockChanges = 0;
+
+        //a complete scan seeds a fresh estimate, and until then the region goes back to routine scans
+        if (ledger != null) ledger.forget(openRegion);
+
+        PopulationDensity.AddLogEntry("Scanning the open region \"" + openRegion.toString() + "\" because " + reason + ".");
+        if (ledgerAsked || blockActivity)
+        {
+            //the estimate or the block changes say something has changed, so a recent healthy scan is no reason to skip this one
+            plugin.scanRegion(openRegion, true, plugin.getAutomaticScanMode());
+        } else
+        {
+            new ScanOpenRegionTask().run();
+        }
+    }
+
+    //why the server has no headroom for a scan right now, or null if it has
+    private String getLag()
+    {
+        //measured by MonitorPerformanceTask
+        if (this.deferBelowTPS > 0 && PopulationDensity.serverTicksPerSecond < this.deferBelowTPS)
+        {
+            return "the server is running at " + Math.round(PopulationDensity.serverTicksPerSecond * 10) / 10.0 + " ticks per second";
+        }
+
+        if (this.deferAboveMillisPerTick > 0 && this.getAverageTickTime != null)
+        {
+            try
+            {
+                double millisPerTick = ((Number)this.getAverageTickTime.invoke(PopulationDensity.instance.getServer())).doubleValue();
+                if (millisPerTick > this.deferAboveMillisPerTick)
+                {
+                    return "ticks are taking " + Math.round(millisPerTick * 10) / 10.0 + " milliseconds";
+                }
+            }
+            catch (Exception e) {}
+        }
+
+        return null;
+    }
+}
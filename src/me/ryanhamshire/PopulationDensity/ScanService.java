@@ -0,0 +1,185 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//runs region scans a few at a time, so commands and chained scans can't pile up dozens of them
+//scans which can't start yet wait in a queue, and asking again for a region which is already waiting (or running) doesn't add another scan
+//snapshots are only taken when a scan actually starts, so waiting scans don't hold any chunk data
+//main thread only, except for the executor's threads which run the ScanRegionTasks
+class ScanService
+{
+    private final int maxConcurrentScans;
+    private final ThreadPoolExecutor executor;
+
+    private final LinkedHashMap<RegionCoordinates, ScanJob> pending = new LinkedHashMap<RegionCoordinates, ScanJob>();
+    private final ArrayList<ScanJob> running = new ArrayList<ScanJob>();
+
+    ScanService(int maxConcurrentScans)
+    {
+        this.maxConcurrentScans = Math.max(1, maxConcurrentScans);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.maxConcurrentScans, this.maxConcurrentScans, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "PopulationDensity Region Scan " + threadCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    //queues a scan of a region, starting it right away if there's room
+    //returns the job which will cover the request, which may be one already waiting or running for the same region
+    ScanJob submit(RegionCoordinates region, boolean openNewRegions, ScanMode mode)
+    {
+        ScanJob job = this.pending.get(region);
+        if (job != null)
+        {
+            job.openNewRegions |= openNewRegions;
+            if (!job.mode.covers(mode)) job.mode = mode;
+            PopulationDensity.AddLogEntry("A scan of region \"" + region.toString() + "\" is already waiting to start.");
+            return job;
+        }
+
+        //a running scan only covers the request if it will also open new regions when that's wanted, and is at least as thorough
+        for (ScanJob runningJob : this.running)
+        {
+            if (runningJob.region.equals(region) && !runningJob.isCancelled() && (runningJob.openNewRegions || !openNewRegions) && runningJob.mode.covers(mode))
+            {
+                PopulationDensity.AddLogEntry("Region \"" + region.toString() + "\" is already being scanned.");
+                return runningJob;
+            }
+        }
+
+        job = new ScanJob(region, openNewRegions, mode);
+        this.pending.put(region, job);
+        if (this.running.size() >= this.maxConcurrentScans)
+        {
+            PopulationDensity.AddLogEntry("Scan of region \"" + region.toString() + "\" queued behind " + this.running.size() + " running and " + (this.pending.size() - 1) + " waiting scans.");
+        }
+
+        this.startPending();
+        return job;
+    }
+
+    //called (on the main thread) when a scan thread is done with a job, whether it finished, failed or was cancelled
+    void finished(ScanJob job)
+    {
+        this.running.remove(job);
+        job.markFinished();
+        this.startPending();
+    }
+
+    //cancels waiting and running scans of a region, or all of them if region is null
+    //returns how many were cancelled
+    int cancel(RegionCoordinates region)
+    {
+        int count = 0;
+
+        Iterator<ScanJob> iterator = this.pending.values().iterator();
+        while (iterator.hasNext())
+        {
+            ScanJob job = iterator.next();
+            if (region != null && !job.region.equals(region)) continue;
+
+            job.cancel();
+            iterator.remove();
+            job.markFinished();
+            count++;
+        }
+
+        //running scans notice at their next check, and are removed by finished()
+        for (ScanJob job : this.running)
+        {
+            if (region != null && !job.region.equals(region)) continue;
+            if (job.isCancelled()) continue;
+
+            job.cancel();
+            count++;
+        }
+
+        return count;
+    }
+
+    List<ScanJob> getRunningJobs()
+    {
+        return new ArrayList<ScanJob>(this.running);
+    }
+
+    List<ScanJob> getPendingJobs()
+    {
+        return new ArrayList<ScanJob>(this.pending.values());
+    }
+
+    //true when nothing is running or waiting
+    boolean isIdle()
+    {
+        return this.running.isEmpty() && this.pending.isEmpty();
+    }
+
+    int getMaxConcurrentScans()
+    {
+        return this.maxConcurrentScans;
+    }
+
+    //cancels everything and lets the scan threads die, for when the plugin is disabled
+    void shutdown()
+    {
+        this.cancel(null);
+        this.executor.shutdownNow();
+    }
+
+    private void startPending()
+    {
+        Iterator<ScanJob> iterator = this.pending.values().iterator();
+        while (this.running.size() < this.maxConcurrentScans && iterator.hasNext())
+        {
+            ScanJob job = iterator.next();
+            iterator.remove();
+
+            this.running.add(job);
+            job.markStarted();
+            try
+            {
+                PopulationDensity.instance.startScan(job, this.executor);
+            }
+            catch (RuntimeException e)
+            {
+                this.running.remove(job);
+                job.markFinished();
+                PopulationDensity.AddLogEntry("Unable to start the scan of region \"" + job.region.toString() + "\": " + e.toString());
+            }
+        }
+    }
+}
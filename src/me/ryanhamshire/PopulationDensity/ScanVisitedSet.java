@@ -0,0 +1,198 @@
+/*
+    PopulationDensity Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.PopulationDensity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+//tracks which blocks a region scan has already examined, one bit per block
+//a region is always the same size, so sets are pooled and reused instead of handing ~44MB of garbage to the GC every scan
+class ScanVisitedSet
+{
+    //how many idle sets to keep around between scans
+    private static final int MAX_POOLED_SETS = 2;
+    private static final ArrayList<ScanVisitedSet> pool = new ArrayList<ScanVisitedSet>();
+
+    final int sizeX;
+    final int height;
+    final int sizeZ;
+    final boolean offHeap;
+
+    //exactly one of these is used, depending on whether the set lives on the heap or in a direct buffer
+    private final long[] words;
+    private final LongBuffer directWords;
+    private final int wordCount;
+
+    //whether the last acquire() handed out a pooled set rather than a fresh one
+    boolean reused = false;
+
+    private ScanVisitedSet(int sizeX, int height, int sizeZ, boolean offHeap)
+    {
+        this.sizeX = sizeX;
+        this.height = height;
+        this.sizeZ = sizeZ;
+        this.offHeap = offHeap;
+
+        long bits = (long)sizeX * height * sizeZ;
+        this.wordCount = (int)((bits + 63) >>> 6);
+
+        if (offHeap)
+        {
+            this.words = null;
+            this.directWords = ByteBuffer.allocateDirect(this.wordCount * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        } else
+        {
+            this.words = new long[this.wordCount];
+            this.directWords = null;
+        }
+    }
+
+    //gets an empty set of the requested dimensions, reusing a pooled one when possible
+    static ScanVisitedSet acquire(int sizeX, int height, int sizeZ, boolean offHeap)
+    {
+        ScanVisitedSet set = null;
+        synchronized (pool)
+        {
+            for (int i = 0; i < pool.size(); i++)
+            {
+                ScanVisitedSet candidate = pool.get(i);
+                if (candidate.sizeX == sizeX && candidate.height == height && candidate.sizeZ == sizeZ && candidate.offHeap == offHeap)
+                {
+                    set = pool.remove(i);
+                    break;
+                }
+            }
+        }
+
+        if (set == null)
+        {
+            set = new ScanVisitedSet(sizeX, height, sizeZ, offHeap);
+            set.reused = false;
+        } else
+        {
+            set.clear();
+            set.reused = true;
+        }
+
+        return set;
+    }
+
+    //returns a set to the pool when the scan is done with it
+    static void release(ScanVisitedSet set)
+    {
+        if (set == null) return;
+
+        synchronized (pool)
+        {
+            if (pool.size() < MAX_POOLED_SETS && !pool.contains(set))
+            {
+                pool.add(set);
+            }
+        }
+    }
+
+    //true when the position falls inside the snapshots
+    boolean contains(int x, int y, int z)
+    {
+        return x >= 0 && x < this.sizeX && y >= 0 && y < this.height && z >= 0 && z < this.sizeZ;
+    }
+
+    //flattens a position into a single bit index
+    int index(int x, int y, int z)
+    {
+        return (x * this.height + y) * this.sizeZ + z;
+    }
+
+    boolean isMarked(int x, int y, int z)
+    {
+        if (!this.contains(x, y, z)) return false;
+
+        int index = this.index(x, y, z);
+        return (this.getWord(index >>> 6) & (1L << index)) != 0;
+    }
+
+    //marks a position as examined
+    //returns false when it was already marked or is outside the snapshots, so callers can skip it
+    boolean mark(int x, int y, int z)
+    {
+        if (!this.contains(x, y, z)) return false;
+
+        int index = this.index(x, y, z);
+        int wordIndex = index >>> 6;
+        long mask = 1L << index;
+        long word = this.getWord(wordIndex);
+        if ((word & mask) != 0) return false;
+
+        this.setWord(wordIndex, word | mask);
+        return true;
+    }
+
+    void clear()
+    {
+        if (this.words != null)
+        {
+            Arrays.fill(this.words, 0L);
+        } else
+        {
+            for (int i = 0; i < this.wordCount; i++)
+            {
+                this.directWords.put(i, 0L);
+            }
+        }
+    }
+
+    long getSizeInBytes()
+    {
+        return this.wordCount * 8L;
+    }
+
+    private long getWord(int wordIndex)
+    {
+        return this.words != null ? this.words[wordIndex] : this.directWords.get(wordIndex);
+    }
+
+    private void setWord(int wordIndex, long word)
+    {
+        if (this.words != null)
+        {
+            this.words[wordIndex] = word;
+        } else
+        {
+            this.directWords.put(wordIndex, word);
+        }
+    }
+
+    //approximate heap cost of a boolean[sizeX][height][sizeZ], for comparison in the scan log
+    //(16 byte array headers, contents padded to 8 bytes, 4 byte compressed references)
+    static long getBooleanArrayBytes(int sizeX, int height, int sizeZ)
+    {
+        long innerArray = 16 + align(sizeZ);
+        long middleArray = 16 + align(4L * height);
+        long outerArray = 16 + align(4L * sizeX);
+        return outerArray + sizeX * (middleArray + height * innerArray);
+    }
+
+    private static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -72,6 +72,10 @@ public class WorldEventHandler implements Listener
         //nothing more to do in worlds other than the managed world
         if (chunk.getWorld() != PopulationDensity.ManagedWorld) return;
 
+        //a chunk the world generator just made is the cheapest chance to count its resources
+        PristineResources pristineResources = PopulationDensity.instance.pristineResources;
+        if (chunkLoadEvent.isNewChunk() && pristineResources != null) pristineResources.chunkGenerated(chunk);
+
         //find the boundaries of the chunk
         Location lesserCorner = chunk.getBlock(0, 0, 0).getLocation();
         Location greaterCorner = chunk.getBlock(15, 0, 15).getLocation();